@@ -0,0 +1,71 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+import android.support.annotation.Nullable;
+
+/**
+ * Keeps a new fix only if it is at least as good as the current location, once the current
+ * location is penalized for its age : its uncertainty grows with the distance the user may have
+ * traveled since. A coarse network fix therefore does not replace a recent precise GPS fix, but
+ * does replace an old one.
+ *
+ * Fixes not newer than the current location are always rejected, fixes much newer are always
+ * kept. Fixes without accuracy are considered the least accurate.
+ */
+public class AccuracyScoringFilter implements LocationHandler.Filter {
+
+    /**
+     * Walking speed, in meters per second
+     */
+    public static final float DEFAULT_DEGRADATION_SPEED = 1.5f;
+
+    public static final long DEFAULT_MAX_AGE = 1000 * 60 * 2;
+
+    private final float mDegradationSpeed;
+
+    private final long mMaxAge;
+
+    public AccuracyScoringFilter() {
+        this(DEFAULT_DEGRADATION_SPEED, DEFAULT_MAX_AGE);
+    }
+
+    /**
+     * @param degradationSpeed how fast the current location loses accuracy, in meters per second
+     * @param maxAgeMillis     the age after which the current location is replaced by any newer
+     *                         fix, in milliseconds
+     */
+    public AccuracyScoringFilter(float degradationSpeed, long maxAgeMillis) {
+        if (degradationSpeed < 0)
+            throw new IllegalArgumentException("degradation speed cannot be negative");
+
+        mDegradationSpeed = degradationSpeed;
+        mMaxAge = maxAgeMillis;
+    }
+
+    @Nullable
+    @Override
+    public Location filter(Location candidate, @Nullable Location current) {
+        if (current == null)
+            return candidate;
+
+        final long elapsed = candidate.getTime() - current.getTime();
+
+        if (elapsed <= 0)
+            return null;
+
+        if (elapsed > mMaxAge)
+            return candidate;
+
+        return score(candidate, 0) <= score(current, elapsed) ? candidate : null;
+    }
+
+    /**
+     * @return the uncertainty of the location, in meters, after the given time
+     */
+    private float score(Location location, long elapsedMillis) {
+        if (!location.hasAccuracy())
+            return Float.MAX_VALUE;
+
+        return location.getAccuracy() + mDegradationSpeed * elapsedMillis / 1000f;
+    }
+}
@@ -0,0 +1,224 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+import android.os.Looper;
+
+/**
+ * Tracks the location of the device with an update interval adapted to its speed : the faster
+ * the device moves, the more often it is located, so that about the same distance is traveled
+ * between two fixes. While the device is stationary, the interval doubles at each fix. The
+ * interval stays below the maximum interval required by the application.
+ *
+ * An active update is required at each interval, and the interval and smallest displacement of
+ * the active requests are updated when they change. While subscribers with requirements need a
+ * continuous request, the interval is merged with theirs. The updates are suspended while the
+ * motion detector of the handler reports the device as stationary, see
+ * {@link LocationHandler#setMotionDetector(MotionDetector)}.
+ */
+public class AdaptiveUpdateScheduler implements LocationHandler.Listener {
+
+    public static final long MIN_INTERVAL = 1000;
+
+    public static final long DEFAULT_INTERVAL = 4000;
+
+    /**
+     * Distance wanted between two fixes, in meters
+     */
+    public static final float DEFAULT_DISPLACEMENT = 50;
+
+    // Below this speed, in meters per second, the device is stationary
+    static final float STATIONARY_SPEED = 0.5f;
+
+    private final LocationHandler mHandler;
+
+    private final Scheduler mScheduler;
+
+    private long mMaxInterval = LocationHandler.MAX_UPDATE_PERIOD;
+
+    private float mDisplacement = DEFAULT_DISPLACEMENT;
+
+    private long mInterval = DEFAULT_INTERVAL;
+
+    private float mSmallestDisplacement = 0;
+
+    private boolean mStarted = false;
+
+    private Scheduler.Cancellable mScheduledPoll;
+
+    // The previous fix, to compute the speed when the fixes do not have one
+    private boolean mHasPrevious = false;
+    private double mPreviousLatitude;
+    private double mPreviousLongitude;
+    private long mPreviousTime;
+
+    private final Runnable mPoll = new Runnable() {
+        @Override
+        public void run() {
+            poll();
+        }
+    };
+
+    /**
+     * @param handler the handler to require the updates from, on the main thread
+     */
+    public AdaptiveUpdateScheduler(LocationHandler handler) {
+        this(handler, new HandlerScheduler(Looper.getMainLooper()));
+    }
+
+    AdaptiveUpdateScheduler(LocationHandler handler, Scheduler scheduler) {
+        if (handler == null)
+            throw new NullPointerException();
+
+        mHandler = handler;
+        mScheduler = scheduler;
+    }
+
+    /**
+     * Start tracking : an update is required right away, then at each interval
+     */
+    public synchronized void start() {
+        if (mStarted)
+            return;
+
+        mStarted = true;
+        mHandler.addLocationListener(this);
+        mHandler.setTrackingInterval(mInterval, mSmallestDisplacement);
+
+        poll();
+    }
+
+    public synchronized void stop() {
+        if (!mStarted)
+            return;
+
+        mStarted = false;
+        mHandler.removeLocationListener(this);
+        mHandler.setTrackingInterval(0, 0);
+
+        cancelPoll();
+    }
+
+    /**
+     * Set the maximum interval between two fixes, whatever the speed
+     *
+     * @param maxIntervalMillis the maximum interval, in milliseconds
+     */
+    public synchronized void setMaxInterval(long maxIntervalMillis) {
+        if (maxIntervalMillis < MIN_INTERVAL)
+            throw new IllegalArgumentException("max interval must be at least " + MIN_INTERVAL);
+
+        mMaxInterval = maxIntervalMillis;
+
+        if (mInterval > mMaxInterval)
+            apply(mMaxInterval, mSmallestDisplacement);
+    }
+
+    /**
+     * Set the distance wanted between two fixes while moving
+     *
+     * @param displacementMeters the distance, in meters
+     */
+    public synchronized void setDisplacement(float displacementMeters) {
+        if (displacementMeters <= 0)
+            throw new IllegalArgumentException("displacement must be positive");
+
+        mDisplacement = displacementMeters;
+    }
+
+    /**
+     * @return the current interval between two fixes, in milliseconds
+     */
+    public synchronized long getInterval() {
+        return mInterval;
+    }
+
+    public synchronized float getSmallestDisplacement() {
+        return mSmallestDisplacement;
+    }
+
+    @Override
+    public synchronized void onLocationChanged(LocationHandler.LocationChangedEvent event) {
+        final Location location = event.getLocation();
+
+        if (!mStarted || location == null)
+            return;
+
+        final float speed = speed(location);
+
+        if (speed >= STATIONARY_SPEED) {
+            final long interval = (long) (mDisplacement / speed * 1000);
+
+            apply(clamp(interval), mDisplacement / 2);
+        } else {
+            // stationary : back off
+            apply(clamp(mInterval * 2), 0);
+        }
+
+        mHasPrevious = true;
+        mPreviousLatitude = location.getLatitude();
+        mPreviousLongitude = location.getLongitude();
+        mPreviousTime = location.getTime();
+
+        // the next update is due one interval after this fix
+        cancelPoll();
+        mScheduledPoll = mScheduler.schedule(mPoll, mInterval);
+    }
+
+    @Override
+    public void onLocationError(LocationHandler.LocationErrorEvent event) {
+    }
+
+    /**
+     * @return the speed reported by the fix, or computed from the previous fix
+     */
+    private float speed(Location location) {
+        if (location.hasSpeed())
+            return location.getSpeed();
+
+        if (!mHasPrevious)
+            return 0;
+
+        final long elapsed = location.getTime() - mPreviousTime;
+
+        if (elapsed <= 0)
+            return 0;
+
+        final double distance = LocationTools.distanceDegrees(mPreviousLatitude, mPreviousLongitude,
+                location.getLatitude(), location.getLongitude());
+
+        return (float) (distance * 1000 / elapsed);
+    }
+
+    private long clamp(long interval) {
+        return Math.max(MIN_INTERVAL, Math.min(mMaxInterval, interval));
+    }
+
+    private void apply(long interval, float smallestDisplacement) {
+        if (interval == mInterval && smallestDisplacement == mSmallestDisplacement)
+            return;
+
+        mInterval = interval;
+        mSmallestDisplacement = smallestDisplacement;
+
+        if (mStarted)
+            mHandler.setTrackingInterval(interval, smallestDisplacement);
+    }
+
+    private synchronized void poll() {
+        if (!mStarted)
+            return;
+
+        // in case no fix comes, the next update is due one interval later
+        cancelPoll();
+        mScheduledPoll = mScheduler.schedule(mPoll, mInterval);
+
+        mHandler.requirePeriodicUpdate();
+    }
+
+    private void cancelPoll() {
+        if (mScheduledPoll != null) {
+            mScheduledPoll.cancel();
+            mScheduledPoll = null;
+        }
+    }
+}
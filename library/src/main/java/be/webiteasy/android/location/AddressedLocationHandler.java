@@ -3,6 +3,10 @@ package be.webiteasy.android.location;
 import android.content.Context;
 import android.location.Location;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 
 public class AddressedLocationHandler extends LocationHandler {
 
@@ -15,6 +19,22 @@ public class AddressedLocationHandler extends LocationHandler {
     private boolean mShouldCodeAddress = false;
     private boolean mIsCoding = false;
 
+    // Promises returned by requireAddressUpdate(), waiting for the next address coding
+    private final List<Promise<AddressedLocation>> mAddressPromises = new ArrayList<>();
+
+    // Reused for every address change : it reads the address from the handler
+    private final AddressedLocationChangedEvent mAddressedLocationChangedEvent = new AddressedLocationChangedEvent() {
+        @Override
+        public AddressedLocationHandler getAddressedLocationService() {
+            return AddressedLocationHandler.this;
+        }
+
+        @Override
+        public AddressedLocation getAddressedLocation() {
+            return AddressedLocationHandler.this.getAddressedLocation();
+        }
+    };
+
     /**
      * Crée un service de localisation passif dans le context courrant. Ce service est également
      * un service de localisation avec adresses.
@@ -32,6 +52,10 @@ public class AddressedLocationHandler extends LocationHandler {
                 //Log.e("EasyLocation", "AddressedLocationHandler server callback success : " + location);
                 setAddressedLocation(location);
                 mIsCoding = false;
+
+                for (Promise<AddressedLocation> promise : takeAddressPromises()) {
+                    promise.complete(getAddressedLocation());
+                }
             }
 
             @Override
@@ -39,6 +63,10 @@ public class AddressedLocationHandler extends LocationHandler {
                 //Log.e("EasyLocation","AddressedLocationHandler server callback error : "+message);
 
                 mIsCoding = false;
+
+                for (Promise<AddressedLocation> promise : takeAddressPromises()) {
+                    promise.fail(new Exception(message));
+                }
             }
         };
     }
@@ -46,13 +74,30 @@ public class AddressedLocationHandler extends LocationHandler {
     /**
      * L'appel de cette fonction démarre tous les processus nécessaires afin d'obtenir à terme
      * une mise à jour de l'AddressedLocation
+     *
+     * @return a promise completed with the addressed location once coded, or failed with the
+     * error of the reverse geocoding server
      */
-    public void requireAddressUpdate() {
+    public Promise<AddressedLocation> requireAddressUpdate() {
         //Log.e("EasyLocation","AddressedLocationHandler::requireAddressUpdate()");
 
         if (mGeoAddressingServer == null)
             throw new IllegalStateException("I have no reverse geocoding server");
 
+        final Promise<AddressedLocation> promise = new Promise<>();
+        promise.setOnCancel(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mAddressPromises) {
+                    mAddressPromises.remove(promise);
+                }
+            }
+        });
+
+        synchronized (mAddressPromises) {
+            mAddressPromises.add(promise);
+        }
+
         final Location location = mPassiveLocationProvider.getLocation();
         if (location == null) {
             shouldCodeAddress(true);
@@ -61,6 +106,19 @@ public class AddressedLocationHandler extends LocationHandler {
             shouldCodeAddress(false);
             codeAddress();
         }
+
+        return promise;
+    }
+
+    private List<Promise<AddressedLocation>> takeAddressPromises() {
+        synchronized (mAddressPromises) {
+            if (mAddressPromises.isEmpty())
+                return Collections.emptyList();
+
+            final List<Promise<AddressedLocation>> promises = new ArrayList<>(mAddressPromises);
+            mAddressPromises.clear();
+            return promises;
+        }
     }
 
     public AddressedLocation getAddressedLocation() {
@@ -112,19 +170,36 @@ public class AddressedLocationHandler extends LocationHandler {
     }
 
     protected void triggerNewAddressedLocationAvailable() {
-        AddressedLocationChangedEvent event = new AddressedLocationChangedEvent() {
-            @Override
-            public AddressedLocationHandler getAddressedLocationService() {
-                return AddressedLocationHandler.this;
-            }
-
-            @Override
-            public AddressedLocation getAddressedLocation() {
-                return AddressedLocationHandler.this.getAddressedLocation();
-            }
-        };
+        if (mListenerExecutor == null) {
+            notifyAddressedLocationChanged(mListeners.snapshot(), mAddressedLocationChangedEvent);
+        } else {
+            // the listeners run later, the event keeps the current addressed location
+            final LocationHandler.Listener[] listeners = mListeners.snapshot();
+            final AddressedLocation addressedLocation = getAddressedLocation();
+            final AddressedLocationChangedEvent event = new AddressedLocationChangedEvent() {
+                @Override
+                public AddressedLocationHandler getAddressedLocationService() {
+                    return AddressedLocationHandler.this;
+                }
+
+                @Override
+                public AddressedLocation getAddressedLocation() {
+                    return addressedLocation;
+                }
+            };
+
+            deliver(new Runnable() {
+                @Override
+                public void run() {
+                    notifyAddressedLocationChanged(listeners, event);
+                }
+            });
+        }
+    }
 
-        for (LocationHandler.Listener listener : mListeners) {
+    private static void notifyAddressedLocationChanged(LocationHandler.Listener[] listeners,
+                                                       AddressedLocationChangedEvent event) {
+        for (LocationHandler.Listener listener : listeners) {
             if (listener instanceof Listener)
                 ((Listener) listener).onAddressedLocationChanged(event);
         }
@@ -4,6 +4,8 @@ import android.location.Location;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
+import java.util.List;
+
 
 public abstract class BaseLocationProvider implements LocationProvider {
 
@@ -61,4 +63,41 @@ public abstract class BaseLocationProvider implements LocationProvider {
         }
     }
 
+    /**
+     * Same as {@link #setLocation(Location)} for a batch of fixes, oldest first
+     */
+    protected void setLocations(List<Location> locations) {
+        Log.i("EasyLocation", "BaseLocationProvider#setLocations(" + locations.size() + ")");
+
+        if (locations.isEmpty())
+            return;
+
+        setState(STATE_STARTED);
+        mLocation = locations.get(locations.size() - 1);
+
+        dispatchLocations(mListener, locations, this);
+    }
+
+    /**
+     * Deliver a batch at once to a {@link BatchListener}, one fix at a time to the other listeners
+     */
+    static void dispatchLocations(@Nullable Listener listener, List<Location> locations, LocationProvider provider) {
+        if (listener instanceof BatchListener) {
+            ((BatchListener) listener).onLocationsChanged(locations, provider);
+        } else if (listener != null) {
+            for (Location location : locations)
+                listener.onLocationChanged(location, provider);
+        }
+    }
+
+    /**
+     * Release a {@link Releasable} provider, stop the others
+     */
+    static void release(LocationProvider provider) {
+        if (provider instanceof Releasable)
+            ((Releasable) provider).release();
+        else
+            provider.stop();
+    }
+
 }
@@ -0,0 +1,193 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+import android.support.annotation.Nullable;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lock-free registry of the {@link EasyLocation.Callback} waiting for a location. Callbacks are
+ * weakly referenced and each registration is completed at most once, either by a dispatch or by
+ * a cancellation. Dispatch works on a snapshot of the registrations and never holds a lock while
+ * calling the callbacks.
+ */
+final class CallbackRegistry {
+
+    private final ConcurrentLinkedQueue<Registration> mRegistrations = new ConcurrentLinkedQueue<>();
+
+    // Registrations whose callback has been garbage collected
+    private final ReferenceQueue<EasyLocation.Callback> mCleared = new ReferenceQueue<>();
+
+    /**
+     * Register a callback for the next dispatch
+     *
+     * @param callback the callback, weakly referenced
+     * @return the registration, that can be cancelled
+     */
+    Registration register(EasyLocation.Callback callback) {
+        return register(callback, Long.MAX_VALUE, Float.MAX_VALUE);
+    }
+
+    /**
+     * Register a callback for the next dispatch of a location that is fresh and accurate enough
+     *
+     * @param callback    the callback, weakly referenced
+     * @param maxAge      the maximum age of the location, in milliseconds
+     * @param maxAccuracy the maximum accuracy radius of the location, in meters
+     * @return the registration, that can be cancelled
+     */
+    Registration register(EasyLocation.Callback callback, long maxAge, float maxAccuracy) {
+        prune();
+
+        final Registration registration = new Registration(callback, this, maxAge, maxAccuracy);
+        mRegistrations.add(registration);
+
+        return registration;
+    }
+
+    /**
+     * Complete every pending registration accepting the given location
+     *
+     * @return the count of callbacks that have been called
+     */
+    int dispatch(Location location) {
+        prune();
+
+        // nothing to copy when nobody waits, the common case
+        if (mRegistrations.isEmpty())
+            return 0;
+
+        final long now = System.currentTimeMillis();
+        int count = 0;
+
+        for (Object o : mRegistrations.toArray()) {
+            final Registration registration = (Registration) o;
+
+            if (registration.accepts(location, now) && registration.complete()) {
+                final EasyLocation.Callback callback = registration.get();
+
+                if (callback != null) {
+                    callback.onLocationUpdated(location);
+                    count++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Cancel all pending registrations of a callback
+     *
+     * @return true if at least one registration has been cancelled
+     */
+    boolean cancel(EasyLocation.Callback callback) {
+        boolean cancelled = false;
+
+        for (Registration registration : mRegistrations) {
+            if (registration.get() == callback)
+                cancelled |= registration.cancel();
+        }
+
+        return cancelled;
+    }
+
+    boolean isEmpty() {
+        prune();
+
+        return mRegistrations.isEmpty();
+    }
+
+    int size() {
+        prune();
+
+        return mRegistrations.size();
+    }
+
+    /**
+     * Remove registrations whose callback has been garbage collected
+     */
+    private void prune() {
+        Reference<? extends EasyLocation.Callback> cleared;
+
+        while ((cleared = mCleared.poll()) != null) {
+            ((Registration) cleared).cancel();
+        }
+    }
+
+    static final class Registration extends WeakReference<EasyLocation.Callback> {
+
+        private final CallbackRegistry mRegistry;
+
+        private final long mMaxAge;
+
+        private final float mMaxAccuracy;
+
+        private final AtomicBoolean mCompleted = new AtomicBoolean(false);
+
+        private volatile Scheduler.Cancellable mTimeout;
+
+        private Registration(@Nullable EasyLocation.Callback callback, CallbackRegistry registry,
+                             long maxAge, float maxAccuracy) {
+            super(callback, registry.mCleared);
+
+            mRegistry = registry;
+            mMaxAge = maxAge;
+            mMaxAccuracy = maxAccuracy;
+        }
+
+        /**
+         * Withdraw this registration. Its callback will not be called
+         *
+         * @return true if the registration was still pending
+         */
+        boolean cancel() {
+            return complete();
+        }
+
+        /**
+         * @param location the location to check
+         * @param now      the current time, as {@link System#currentTimeMillis()}
+         * @return true if the location is fresh and accurate enough for this registration
+         */
+        boolean accepts(@Nullable Location location, long now) {
+            return location == null || LocationTools.isQualified(location, mMaxAge, mMaxAccuracy, now);
+        }
+
+        boolean isPending() {
+            return !mCompleted.get();
+        }
+
+        /**
+         * Attach the task that expires this registration. It is cancelled as soon as the
+         * registration is completed.
+         */
+        void setTimeout(Scheduler.Cancellable timeout) {
+            mTimeout = timeout;
+
+            if (mCompleted.get())
+                timeout.cancel();
+        }
+
+        /**
+         * Mark the registration as completed. Only one caller can complete a registration
+         */
+        private boolean complete() {
+            if (mCompleted.compareAndSet(false, true)) {
+                mRegistry.mRegistrations.remove(this);
+
+                final Scheduler.Cancellable timeout = mTimeout;
+                if (timeout != null)
+                    timeout.cancel();
+
+                return true;
+            }
+
+            return false;
+        }
+    }
+}
@@ -10,6 +10,7 @@ import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.location.Location;
 import android.location.LocationManager;
+import android.os.Looper;
 import android.provider.Settings;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -17,8 +18,11 @@ import android.support.annotation.StringRes;
 
 import org.greenrobot.eventbus.EventBus;
 
-import java.lang.ref.WeakReference;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class EasyLocation {
 
@@ -29,19 +33,50 @@ public class EasyLocation {
     private static final String PREFERENCES_LAST_LOCATION = "EasyLocation$Preferences.last_location";
     private static final String PREFERENCES_VIRTUAL_LOCATION = "EasyLocation$Preferences.virtual_location";
 
+    /**
+     * Default maximum delay before the last location is written to the preferences
+     */
+    public static final long DEFAULT_PERSIST_INTERVAL = 1000 * 30;
+
+    /**
+     * Maximum time a static getter waits for an asynchronous initialization to complete
+     */
+    private static final long WARM_UP_WAIT = 100;
+
+    /**
+     * Timeout value to wait for an update without limit
+     */
+    public static final long NO_TIMEOUT = -1;
+
     @Nullable
-    private static EasyLocation instance;
+    private static volatile EasyLocation instance;
+
+    // Callbacks of the pending promises, held until completed : the registry holds the callbacks
+    // weakly, and the caller may only hold a promise chained to the pending one
+    private static final Set<Callback> sPromiseCallbacks = Collections.synchronizedSet(new HashSet<Callback>());
+
+    private volatile LocationHandler handlerInstance;
+
+    private final LocationPersister mPersister;
+
+    private volatile Location mLastLocation;
 
-    private final LocationHandler handlerInstance;
+    private volatile Location mVirtualLocation;
 
-    private final SharedPreferences mPreferences;
+    private final CallbackRegistry mUpdateCallbacks = new CallbackRegistry();
 
-    private Location mLastLocation;
+    // Runs the timeouts of the callbacks, on the main thread
+    private final Scheduler mScheduler = new HandlerScheduler(Looper.getMainLooper());
 
-    private Location mVirtualLocation;
+    // Released once the locations are loaded and the location handler is set up
+    private final CountDownLatch mWarmUp = new CountDownLatch(1);
+    private final Object mWarmUpLock = new Object();
 
-    private LinkedList<WeakReference<Callback>> mUpdateCallbacks = new LinkedList<>();
-    private final Object mUpdateCallbacksLock = new Object();
+    // An update has been required before the location handler was set up
+    private boolean mWarmUpUpdateRequired = false;
+
+    // The virtual location has been set, the persisted one is outdated, guarded by mWarmUpLock
+    private boolean mVirtualLocationSet = false;
 
     /**
      * Initialize WipLocation singleton holder. This method has to be called before any call to
@@ -49,7 +84,22 @@ public class EasyLocation {
      */
     public synchronized static void init(Context context) {
         if (instance == null) {
-            instance = new EasyLocation(context);
+            instance = new EasyLocation(context, false);
+        }
+    }
+
+    /**
+     * Initialize WipLocation singleton holder and return right away. The persisted locations are
+     * loaded and the location providers are set up on a background thread.
+     *
+     * Until this is done, static getters wait briefly for the initialization, then return null,
+     * and update requests are delayed until the location providers are ready.
+     *
+     * @see #isReady()
+     */
+    public synchronized static void initAsync(Context context) {
+        if (instance == null) {
+            instance = new EasyLocation(context, true);
         }
     }
 
@@ -57,9 +107,50 @@ public class EasyLocation {
         return instance != null;
     }
 
-    private EasyLocation(Context context) {
-        handlerInstance = new LocationHandler(context);
-        handlerInstance.addLocationListener(new LocationHandler.Listener() {
+    /**
+     * @return true if the initialization is completed, false if not initialized or if the
+     * asynchronous initialization is still in progress
+     */
+    public static boolean isReady() {
+        final EasyLocation i = instance;
+        return i != null && i.mWarmUp.getCount() == 0;
+    }
+
+    private EasyLocation(final Context context, boolean async) {
+        final SharedPreferences preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+
+        mPersister = new LocationPersister(new LocationPersister.SharedPreferencesStorage(preferences),
+                Scheduler.SYSTEM, DEFAULT_PERSIST_INTERVAL);
+
+        // write the pending location when the app goes to background
+        context.getApplicationContext().registerComponentCallbacks(mPersister);
+
+        if (async) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    warmUp(context);
+                }
+            }, "EasyLocation-init").start();
+        } else {
+            warmUp(context);
+        }
+    }
+
+    /**
+     * Load the persisted locations and set up the location handler
+     */
+    private void warmUp(Context context) {
+        mLastLocation = mPersister.get(PREFERENCES_LAST_LOCATION);
+
+        final Location virtualLocation = mPersister.get(PREFERENCES_VIRTUAL_LOCATION);
+        synchronized (mWarmUpLock) {
+            if (!mVirtualLocationSet)
+                mVirtualLocation = virtualLocation;
+        }
+
+        final LocationHandler handler = new LocationHandler(context);
+        handler.addLocationListener(new LocationHandler.Listener() {
             @Override
             public void onLocationChanged(LocationHandler.LocationChangedEvent event) {
                 updateLocation(event.getLocation());
@@ -71,10 +162,30 @@ public class EasyLocation {
             }
         });
 
-        mPreferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        final boolean updateRequired;
+        synchronized (mWarmUpLock) {
+            handlerInstance = handler;
+            updateRequired = mWarmUpUpdateRequired;
+        }
+
+        mWarmUp.countDown();
+
+        if (updateRequired)
+            handler.requireUpdate();
+    }
 
-        mLastLocation = deserializeLocation(mPreferences.getString(PREFERENCES_LAST_LOCATION, null));
-        mVirtualLocation = deserializeLocation(mPreferences.getString(PREFERENCES_VIRTUAL_LOCATION, null));
+    /**
+     * Wait briefly for the asynchronous initialization
+     *
+     * @return true if the initialization is completed
+     */
+    private boolean awaitWarmUp() {
+        try {
+            return mWarmUp.await(WARM_UP_WAIT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return mWarmUp.getCount() == 0;
+        }
     }
 
     /**
@@ -88,6 +199,8 @@ public class EasyLocation {
         if (instance == null)
             throw new IllegalStateException("EasyLocation must be implemented");
 
+        instance.awaitWarmUp();
+
         return instance.mVirtualLocation;
     }
 
@@ -95,7 +208,8 @@ public class EasyLocation {
      * Sets the current virtual location. It can be used by the application to show
      * contents for a given location, different from the real location of the user.
      * When virtual location is set, a {@link NewVirtualLocationEvent} event is posted through
-     * {@link EventBus} if library is available
+     * {@link EventBus} if library is available. It does not wait for the asynchronous
+     * initialization : the persisted virtual location is then ignored
      *
      * @param location the new virtual location
      */
@@ -104,8 +218,14 @@ public class EasyLocation {
         if (instance == null)
             throw new IllegalStateException("EasyLocation must be implemented");
 
-        instance.mVirtualLocation = location;
-        instance.mPreferences.edit().putString(PREFERENCES_VIRTUAL_LOCATION, serializeLocation(location)).apply();
+        // the persisted virtual location must not override this one
+        synchronized (instance.mWarmUpLock) {
+            instance.mVirtualLocationSet = true;
+            instance.mVirtualLocation = location;
+        }
+
+        instance.mPersister.put(PREFERENCES_VIRTUAL_LOCATION, location);
+        instance.mPersister.flush();
 
         if (hasEventBus()) {
             org.greenrobot.eventbus.EventBus.getDefault().post(new NewVirtualLocationEvent(location));
@@ -116,6 +236,8 @@ public class EasyLocation {
         if (instance == null)
             throw new IllegalStateException("EasyLocation must be implemented");
 
+        instance.awaitWarmUp();
+
         return instance.mVirtualLocation != null;
     }
 
@@ -158,22 +280,247 @@ public class EasyLocation {
      */
     @Nullable
     public static Location getLocation(@Nullable Callback callback, boolean forceUpdate) {
+        return getLocation(callback, forceUpdate, NO_TIMEOUT);
+    }
+
+    /**
+     * Same as {@link #getLocation(Callback, boolean)}, but the wait of the callback is bounded.
+     * When the timeout expires before an update, the callback gets the best location known so far
+     * through {@link Callback#onLocationUpdated(Location)}, or {@link Callback#onError(Location)}
+     * with a null location if there is none. The active update request is then withdrawn if no
+     * other callback is waiting.
+     *
+     * Timeouts are reported on the main thread.
+     *
+     * @param callback      a callback to get the location when available or when updated
+     * @param forceUpdate   force an update and force callback to wait for updated value
+     * @param timeoutMillis the maximum time the callback waits for an update, in milliseconds, or
+     *                      {@link #NO_TIMEOUT}
+     * @return the last known location
+     */
+    @Nullable
+    public static Location getLocation(@Nullable Callback callback, boolean forceUpdate, long timeoutMillis) {
         if (instance == null)
             throw new IllegalStateException("EasyLocation has not been initialized");
 
+        instance.awaitWarmUp();
+
+        final Location lastLocation = instance.mLastLocation;
+
         if (callback != null || forceUpdate) {
-            if (instance.mLastLocation == null || forceUpdate) {
-                synchronized (instance.mUpdateCallbacksLock) {
-                    instance.mUpdateCallbacks.add(new WeakReference<>(callback));
+            if (lastLocation == null || forceUpdate) {
+                if (callback != null) {
+                    final CallbackRegistry.Registration registration = instance.mUpdateCallbacks.register(callback);
+
+                    if (timeoutMillis != NO_TIMEOUT)
+                        instance.expireAfter(registration, timeoutMillis);
                 }
 
                 requireUpdate();
             } else {
-                callback.onLocationUpdated(instance.mLastLocation);
+                callback.onLocationUpdated(lastLocation);
+            }
+        }
+
+        return lastLocation;
+    }
+
+    /**
+     * Returns the last known location if it is fresh and accurate enough. Otherwise an update is
+     * required and the callback gets the first location matching both constraints.
+     *
+     * Locations that do not match are ignored and the update is required again, until a location
+     * matches or the callback is withdrawn with {@link #cancel(Callback)}. Prefer
+     * {@link #getLocation(long, float, Callback, long)} to bound the wait.
+     *
+     * @param maxAgeMillis      the maximum age of the location, in milliseconds
+     * @param minAccuracyMeters the maximum accuracy radius of the location, in meters
+     * @param callback          a callback to get the location, right away or when available
+     * @return the last known location if it matches both constraints, null otherwise
+     */
+    @Nullable
+    public static Location getLocation(long maxAgeMillis, float minAccuracyMeters, @Nullable Callback callback) {
+        return getLocation(maxAgeMillis, minAccuracyMeters, callback, NO_TIMEOUT);
+    }
+
+    /**
+     * Same as {@link #getLocation(long, float, Callback)}, but the wait of the callback is bounded.
+     * When the timeout expires, the callback gets the best location known so far, even if it does
+     * not match the constraints, or {@link Callback#onError(Location)} with a null location.
+     *
+     * @param maxAgeMillis      the maximum age of the location, in milliseconds
+     * @param minAccuracyMeters the maximum accuracy radius of the location, in meters
+     * @param callback          a callback to get the location, right away or when available
+     * @param timeoutMillis     the maximum time the callback waits for an update, in milliseconds,
+     *                          or {@link #NO_TIMEOUT}
+     * @return the last known location if it matches both constraints, null otherwise
+     */
+    @Nullable
+    public static Location getLocation(long maxAgeMillis, float minAccuracyMeters, @Nullable Callback callback,
+                                       long timeoutMillis) {
+        if (instance == null)
+            throw new IllegalStateException("EasyLocation has not been initialized");
+
+        instance.awaitWarmUp();
+
+        final Location lastLocation = instance.mLastLocation;
+
+        if (lastLocation != null && LocationTools.isQualified(lastLocation, maxAgeMillis, minAccuracyMeters)) {
+            if (callback != null)
+                callback.onLocationUpdated(lastLocation);
+
+            return lastLocation;
+        }
+
+        if (callback != null) {
+            final CallbackRegistry.Registration registration =
+                    instance.mUpdateCallbacks.register(callback, maxAgeMillis, minAccuracyMeters);
+
+            if (timeoutMillis != NO_TIMEOUT)
+                instance.expireAfter(registration, timeoutMillis);
+        }
+
+        requireUpdate();
+
+        return null;
+    }
+
+    /**
+     * Asynchronous version of {@link #getLocation(Callback, boolean)}. The promise is completed
+     * with the last known location if available and no update is forced, or with the updated
+     * location otherwise. Cancelling the promise withdraws the request.
+     *
+     * @param forceUpdate force an update and wait for the updated value
+     * @return a promise of the location
+     */
+    public static Promise<Location> getLocationAsync(boolean forceUpdate) {
+        final Promise<Location> promise = new Promise<>();
+        final Callback callback = promiseCallback(promise);
+
+        getLocation(callback, forceUpdate);
+
+        return promise;
+    }
+
+    /**
+     * Asynchronous version of {@link #getLocation(long, float, Callback)}. The promise is
+     * completed with the first location that is fresh and accurate enough. Cancelling the promise
+     * withdraws the request.
+     *
+     * @param maxAgeMillis      the maximum age of the location, in milliseconds
+     * @param minAccuracyMeters the maximum accuracy radius of the location, in meters
+     * @return a promise of the location
+     */
+    public static Promise<Location> getLocationAsync(long maxAgeMillis, float minAccuracyMeters) {
+        final Promise<Location> promise = new Promise<>();
+        final Callback callback = promiseCallback(promise);
+
+        getLocation(maxAgeMillis, minAccuracyMeters, callback);
+
+        return promise;
+    }
+
+    /**
+     * @return a callback completing the promise, strongly referenced until the promise is
+     * completed. The promise withdraws it when cancelled
+     */
+    static Callback promiseCallback(final Promise<Location> promise) {
+        final Callback callback = new Callback() {
+            @Override
+            public void onLocationUpdated(Location location) {
+                promise.complete(location);
+            }
+
+            @Override
+            public void onError(Location location) {
+                promise.fail(new IllegalStateException("No location available"));
+            }
+        };
+
+        sPromiseCallbacks.add(callback);
+
+        promise.then(new Promise.Callback<Location>() {
+            @Override
+            public void onSuccess(@Nullable Location value) {
+                sPromiseCallbacks.remove(callback);
+            }
+
+            @Override
+            public void onError(Exception error) {
+                sPromiseCallbacks.remove(callback);
+            }
+        });
+
+        promise.setOnCancel(new Runnable() {
+            @Override
+            public void run() {
+                cancel(callback);
             }
+        });
+
+        return callback;
+    }
+
+    /**
+     * Withdraw a callback previously given to one of the getLocation methods. It will not be
+     * called anymore with the pending update.
+     *
+     * @param callback the callback to withdraw
+     * @return true if the callback was waiting for an update
+     */
+    public static boolean cancel(Callback callback) {
+        if (instance == null)
+            throw new IllegalStateException("EasyLocation has not been initialized");
+
+        if (instance.mUpdateCallbacks.cancel(callback)) {
+            instance.cancelUpdateIfUnused();
+            return true;
         }
 
-        return instance.mLastLocation;
+        return false;
+    }
+
+    private void expireAfter(final CallbackRegistry.Registration registration, long timeoutMillis) {
+        registration.setTimeout(mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!registration.cancel())
+                    return;
+
+                cancelUpdateIfUnused();
+
+                final Callback callback = registration.get();
+                if (callback == null)
+                    return;
+
+                final Location bestLocation = mLastLocation;
+
+                if (bestLocation != null)
+                    callback.onLocationUpdated(bestLocation);
+                else
+                    callback.onError(null);
+            }
+        }, timeoutMillis));
+    }
+
+    /**
+     * Withdraw the active update request if no callback is waiting for it anymore
+     */
+    private void cancelUpdateIfUnused() {
+        if (!mUpdateCallbacks.isEmpty())
+            return;
+
+        final LocationHandler handler;
+        synchronized (mWarmUpLock) {
+            handler = handlerInstance;
+
+            if (handler == null) {
+                mWarmUpUpdateRequired = false;
+                return;
+            }
+        }
+
+        handler.cancelUpdate();
     }
 
     /**
@@ -184,7 +531,42 @@ public class EasyLocation {
         if (instance == null)
             throw new IllegalStateException("EasyLocation has not been initialized");
 
-        instance.handlerInstance.requireUpdate();
+        final LocationHandler handler;
+        synchronized (instance.mWarmUpLock) {
+            handler = instance.handlerInstance;
+
+            if (handler == null) {
+                // will be required once the location handler is set up
+                instance.mWarmUpUpdateRequired = true;
+                return;
+            }
+        }
+
+        handler.requireUpdate();
+    }
+
+    /**
+     * Sets the maximum delay before the last known location is written to the preferences. Within
+     * this delay, only the latest location is kept and written. Pending location is written anyway
+     * when the application goes to background or when {@link #flush()} is called.
+     *
+     * @param intervalMillis the maximum delay in milliseconds, 0 to write every location right away
+     */
+    public static void setPersistInterval(long intervalMillis) {
+        if (instance == null)
+            throw new IllegalStateException("EasyLocation has not been initialized");
+
+        instance.mPersister.setFlushInterval(intervalMillis);
+    }
+
+    /**
+     * Write the pending last known location to the preferences right away
+     */
+    public static void flush() {
+        if (instance == null)
+            throw new IllegalStateException("EasyLocation has not been initialized");
+
+        instance.mPersister.flush();
     }
 
     /**
@@ -286,13 +668,19 @@ public class EasyLocation {
         void onError(Location location);
     }
 
+    // Resolved once, EventBus is an optional dependency
+    private static final boolean EVENT_BUS = LocationTools.isAvailable("org.greenrobot.eventbus.EventBus");
+
     static boolean hasEventBus() {
-        try {
-            Class.forName("org.greenrobot.eventbus.EventBus");
-            return true;
-        } catch (ClassNotFoundException ex) {
-            return false;
-        }
+        return EVENT_BUS;
+    }
+
+    /**
+     * @return true if an event of the given type would reach a subscriber, so that nothing is
+     * allocated for events nobody listens to
+     */
+    static boolean hasEventBusSubscriber(Class<?> eventClass) {
+        return EVENT_BUS && EventBus.getDefault().hasSubscriberForEvent(eventClass);
     }
 
     public static class NewLocationEvent {
@@ -320,58 +708,16 @@ public class EasyLocation {
     private void updateLocation(Location location){
         mLastLocation = location;
 
-        mPreferences.edit().putString(PREFERENCES_LAST_LOCATION, serializeLocation(location)).apply();
-
-        synchronized (mUpdateCallbacksLock) {
-            for (WeakReference<Callback> callbackR : mUpdateCallbacks) {
-                final Callback callback = callbackR.get();
+        mPersister.put(PREFERENCES_LAST_LOCATION, location);
 
-                if (callback != null) {
-                    callback.onLocationUpdated(location);
-                }
-            }
+        mUpdateCallbacks.dispatch(location);
 
-            mUpdateCallbacks.clear();
-        }
+        // some callbacks are waiting for a fresher or more accurate location
+        if (!mUpdateCallbacks.isEmpty())
+            requireUpdate();
 
-        if (hasEventBus()) {
+        if (hasEventBusSubscriber(NewLocationEvent.class)) {
             EventBus.getDefault().post(new NewLocationEvent(location));
         }
     }
-
-    private static String serializeLocation(@Nullable Location location) {
-        if (location == null)
-            return "";
-
-        return "v1/" +
-                location.getProvider() + "/" +
-                location.getTime() + "/" +
-                location.getLatitude() + "/" +
-                location.getLongitude() + "/" +
-                location.getAccuracy() + "/" +
-                location.getAltitude() + "/" +
-                location.getSpeed();
-    }
-
-    @Nullable
-    private static Location deserializeLocation(@Nullable String locationStr) {
-        if (locationStr == null || locationStr.equals(""))
-            return null;
-
-        String[] els = locationStr.split("/");
-
-        if (els.length != 8 || !els[0].equals("v1")) {
-            return null;
-        }
-
-        Location location = new Location(els[1]);
-        location.setTime(Long.valueOf(els[2]));
-        location.setLatitude(Double.valueOf(els[3]));
-        location.setLongitude(Double.valueOf(els[4]));
-        location.setAccuracy(Float.valueOf(els[5]));
-        location.setAltitude(Double.valueOf(els[6]));
-        location.setSpeed(Float.valueOf(els[7]));
-
-        return location;
-    }
 }
@@ -0,0 +1,176 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Races several sources, such as the GPS and the network provider, for the first fix of an
+ * active request. The first fix accurate enough is delivered at once, then only better fixes are
+ * delivered, until one reaches the target accuracy or the deadline passes. The race then
+ * finishes, and the time to first fix of each source is recorded in the statistics.
+ */
+final class FirstFixRace {
+
+    static final float DEFAULT_FIRST_FIX_ACCURACY = 200;
+
+    static final long DEFAULT_DEADLINE = 1000 * 30;
+
+    interface Callback {
+        void onFixDelivered(Location location);
+
+        /**
+         * The race is over, the sources can go back to passive updates
+         */
+        void onRaceFinished();
+    }
+
+    private final Scheduler mScheduler;
+
+    private final Callback mCallback;
+
+    private float mFirstFixAccuracy = DEFAULT_FIRST_FIX_ACCURACY;
+
+    private long mDeadline = DEFAULT_DEADLINE;
+
+    private final FirstFixStatistics mStatistics;
+
+    // State of the current race, guarded by this
+    private boolean mRunning = false;
+    private long mStart;
+    private float mTargetAccuracy;
+    private Location mDelivered;
+    private Location mBestRejected;
+    private final Set<String> mFixedSources = new HashSet<>();
+    private Scheduler.Cancellable mScheduledDeadline;
+
+    private final Runnable mDeadlineTask = new Runnable() {
+        @Override
+        public void run() {
+            onDeadline();
+        }
+    };
+
+    /**
+     * @param statistics records the time to first fix of the sources
+     */
+    FirstFixRace(Scheduler scheduler, FirstFixStatistics statistics, Callback callback) {
+        mScheduler = scheduler;
+        mStatistics = statistics;
+        mCallback = callback;
+    }
+
+    /**
+     * @param firstFixAccuracyMeters a fix this accurate is delivered at once
+     * @param deadlineMillis         how long the race tries to improve the fixes, in milliseconds
+     */
+    synchronized void setThresholds(float firstFixAccuracyMeters, long deadlineMillis) {
+        if (firstFixAccuracyMeters <= 0)
+            throw new IllegalArgumentException("accuracy must be positive");
+
+        if (deadlineMillis <= 0)
+            throw new IllegalArgumentException("deadline must be positive");
+
+        mFirstFixAccuracy = firstFixAccuracyMeters;
+        mDeadline = deadlineMillis;
+    }
+
+    /**
+     * @param targetAccuracyMeters the race finishes with a fix this accurate
+     */
+    synchronized void start(float targetAccuracyMeters) {
+        cancel();
+
+        mRunning = true;
+        mStart = mScheduler.now();
+        mTargetAccuracy = targetAccuracyMeters;
+        mScheduledDeadline = mScheduler.schedule(mDeadlineTask, mDeadline);
+    }
+
+    synchronized void cancel() {
+        mRunning = false;
+        mDelivered = null;
+        mBestRejected = null;
+        mFixedSources.clear();
+
+        if (mScheduledDeadline != null) {
+            mScheduledDeadline.cancel();
+            mScheduledDeadline = null;
+        }
+    }
+
+    synchronized boolean isRunning() {
+        return mRunning;
+    }
+
+    void onFix(Location location, String source) {
+        final boolean finished;
+
+        synchronized (this) {
+            if (!mRunning || location == null)
+                return;
+
+            recordFirstFix(source);
+
+            final float accuracy = accuracy(location);
+
+            if (mDelivered != null ? accuracy >= accuracy(mDelivered) : accuracy > mFirstFixAccuracy) {
+                if (mDelivered == null && (mBestRejected == null || accuracy < accuracy(mBestRejected)))
+                    mBestRejected = location;
+
+                return;
+            }
+
+            mDelivered = location;
+            finished = accuracy <= mTargetAccuracy;
+
+            if (finished)
+                cancel();
+        }
+
+        mCallback.onFixDelivered(location);
+
+        if (finished)
+            mCallback.onRaceFinished();
+    }
+
+    /**
+     * Deliver the best fix if none was accurate enough, and finish. Without any fix, the race
+     * goes on until the request is withdrawn or expires
+     */
+    private void onDeadline() {
+        final Location bestRejected;
+
+        synchronized (this) {
+            mScheduledDeadline = null;
+
+            if (!mRunning || (mDelivered == null && mBestRejected == null))
+                return;
+
+            bestRejected = mDelivered == null ? mBestRejected : null;
+            cancel();
+        }
+
+        Log.i("EasyLocation", "FirstFixRace#onDeadline()");
+
+        if (bestRejected != null)
+            mCallback.onFixDelivered(bestRejected);
+
+        mCallback.onRaceFinished();
+    }
+
+    private void recordFirstFix(String source) {
+        if (!mFixedSources.add(source))
+            return;
+
+        final TimeToFirstFix timeToFirstFix = mStatistics.record(source, mScheduler.now() - mStart);
+
+        Log.i("EasyLocation", "FirstFixRace " + source + " " + timeToFirstFix);
+    }
+
+    private static float accuracy(Location location) {
+        return location.hasAccuracy() ? location.getAccuracy() : Float.MAX_VALUE;
+    }
+}
@@ -0,0 +1,34 @@
+package be.webiteasy.android.location;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The time to first fix of each source, recorded by the races. The native providers share
+ * {@link #SHARED}, so that the statistics outlive the providers replaced on fail-over.
+ */
+final class FirstFixStatistics {
+
+    static final FirstFixStatistics SHARED = new FirstFixStatistics();
+
+    private final Map<String, TimeToFirstFix> mTimesToFirstFix = new HashMap<>();
+
+    /**
+     * @return the statistics of the source, null if it never gave a first fix
+     */
+    synchronized TimeToFirstFix get(String source) {
+        return mTimesToFirstFix.get(source);
+    }
+
+    synchronized TimeToFirstFix record(String source, long millis) {
+        TimeToFirstFix timeToFirstFix = mTimesToFirstFix.get(source);
+        if (timeToFirstFix == null) {
+            timeToFirstFix = new TimeToFirstFix();
+            mTimesToFirstFix.put(source, timeToFirstFix);
+        }
+
+        timeToFirstFix.record(millis);
+
+        return timeToFirstFix;
+    }
+}
@@ -0,0 +1,383 @@
+package be.webiteasy.android.location;
+
+import android.content.Context;
+import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.android.gms.location.FusedLocationProviderClient;
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationResult;
+import com.google.android.gms.location.LocationServices;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Passive location provider on top of the {@link FusedLocationProviderClient} of the Play
+ * services. Unlike the {@link GoogleLocationProvider}, there is no client to connect : the last
+ * location is asked and the updates are requested right away, the first fix does not wait for a
+ * connection. The provider is started once the fused provider accepted the first request, and
+ * fails when it refuses one, such as when the Play services are missing or outdated.
+ */
+public class FusedClientLocationProvider extends BaseLocationProvider implements PassiveLocationProvider {
+
+    private final FusedLocationClient mClient;
+
+    // Parameters of the active requests
+    private LocationProfile mProfile = LocationProfile.HIGH_ACCURACY;
+
+    // Keep the active request after its first fix
+    private boolean mContinuous = false;
+
+    private boolean mUpdateRequestPending = false;
+
+    // Incremented when stopping, the answers to the previous requests are then ignored
+    private int mSession = 0;
+
+    // Expires the active requests giving no fix
+    private final UpdateWatchdog mWatchdog;
+
+    final FusedLocationClient.UpdateCallback mUpdateCallback = new FusedLocationClient.UpdateCallback() {
+        @Override
+        public void onLocations(List<Location> locations) {
+            Log.i("EasyLocation", "FusedClientLocationProvider.UpdateCallback#onLocations(" + locations.size() + " locations)");
+
+            if (locations.isEmpty())
+                return;
+
+            if (mUpdateRequestPending) {
+                if (mContinuous) {
+                    mWatchdog.arm();
+                } else {
+                    mWatchdog.disarm();
+                    mUpdateRequestPending = false;
+
+                    // back to passive before notifying, so that listeners can require a new update
+                    requestUpdates(null);
+                }
+            }
+
+            if (locations.size() == 1)
+                setLocation(locations.get(0));
+            else
+                setLocations(locations);
+        }
+    };
+
+    public FusedClientLocationProvider(Context context, Listener listener) {
+        this(context, listener, Looper.getMainLooper());
+    }
+
+    /**
+     * @param looper the looper of the thread receiving the fixes and notifying the listener
+     */
+    public FusedClientLocationProvider(Context context, Listener listener, Looper looper) {
+        this(new PlayServicesClient(LocationServices.getFusedLocationProviderClient(context), looper),
+                listener, new HandlerScheduler(looper));
+    }
+
+    /**
+     * Provider on top of the given client, for tests
+     */
+    FusedClientLocationProvider(FusedLocationClient client, Listener listener, Scheduler scheduler) {
+        mClient = client;
+
+        setListener(listener);
+
+        mWatchdog = new UpdateWatchdog(scheduler, new Runnable() {
+            @Override
+            public void run() {
+                onUpdateTimeout();
+            }
+        });
+
+        start();
+    }
+
+    @Override
+    public void requireUpdate() {
+        Log.i("EasyLocation", "FusedClientLocationProvider#requireUpdate()");
+
+        if (mUpdateRequestPending)
+            return;
+
+        // armed first, the request may be refused at once
+        mUpdateRequestPending = true;
+        mWatchdog.arm();
+
+        if (!requestUpdates(mProfile)) {
+            mWatchdog.disarm();
+            mUpdateRequestPending = false;
+        }
+    }
+
+    @Override
+    public void cancelUpdate() {
+        Log.i("EasyLocation", "FusedClientLocationProvider#cancelUpdate()");
+
+        mWatchdog.disarm();
+
+        if (!mUpdateRequestPending)
+            return;
+
+        mUpdateRequestPending = false;
+        requestUpdates(null);
+    }
+
+    @Override
+    public void setUpdateInterval(long intervalMillis, float smallestDisplacementMeters) {
+        Log.i("EasyLocation", "FusedClientLocationProvider#setUpdateInterval(" + intervalMillis + ")");
+
+        setProfile(mProfile.withInterval(intervalMillis, smallestDisplacementMeters));
+    }
+
+    @Override
+    public void setUpdateAccuracy(float accuracyMeters) {
+        Log.i("EasyLocation", "FusedClientLocationProvider#setUpdateAccuracy(" + accuracyMeters + ")");
+
+        setProfile(mProfile.withAccuracy(accuracyMeters));
+    }
+
+    /**
+     * Same mapping as the {@link GoogleLocationProvider} : the priority follows the accuracy, the
+     * batching is left to the fused provider
+     */
+    @Override
+    public void setProfile(LocationProfile profile) {
+        Log.i("EasyLocation", "FusedClientLocationProvider#setProfile(" + profile + ")");
+
+        if (profile.equals(mProfile))
+            return;
+
+        mProfile = profile;
+
+        if (mUpdateRequestPending)
+            requestUpdates(profile);
+    }
+
+    @Override
+    public void setContinuous(boolean continuous) {
+        mContinuous = continuous;
+    }
+
+    @Override
+    public void setUpdateTimeout(long timeoutMillis) {
+        mWatchdog.setTimeout(timeoutMillis);
+    }
+
+    /**
+     * The active request gave no fix in time : back to passive, the next request retries
+     */
+    private void onUpdateTimeout() {
+        Log.e("EasyLocation", "FusedClientLocationProvider#onUpdateTimeout()");
+
+        if (!mUpdateRequestPending)
+            return;
+
+        mUpdateRequestPending = false;
+
+        if (requestUpdates(null))
+            setState(STATE_TIMEOUT);
+    }
+
+    /**
+     * The provider is started once the request is accepted, and fails if it is refused
+     *
+     * @param profile the profile of the active request, null for the passive updates
+     * @return false if the permission is missing
+     */
+    private boolean requestUpdates(@Nullable LocationProfile profile) {
+        final int session = mSession;
+
+        try {
+            mClient.requestLocationUpdates(profile, mUpdateCallback, new FusedLocationClient.RequestCallback() {
+                @Override
+                public void onSuccess() {
+                    if (session == mSession)
+                        setState(STATE_STARTED);
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    Log.e("EasyLocation", "FusedClientLocationProvider#requestUpdates() failure " + e);
+
+                    onClientFailure(session);
+                }
+            });
+
+            return true;
+        } catch (SecurityException e) {
+            Log.e("EasyLocation", "FusedClientLocationProvider#requestUpdates() SecurityException " + e);
+
+            setState(STATE_ERROR);
+            return false;
+        }
+    }
+
+    private void onClientFailure(int session) {
+        if (session != mSession)
+            return;
+
+        mWatchdog.disarm();
+        mUpdateRequestPending = false;
+
+        setState(STATE_ERROR);
+    }
+
+    @Override
+    public void stop() {
+        mSession++;
+        mWatchdog.disarm();
+        mUpdateRequestPending = false;
+
+        mClient.removeLocationUpdates(mUpdateCallback);
+
+        setState(STATE_STOPPED);
+    }
+
+    @Override
+    public void start() {
+        Log.i("EasyLocation", "FusedClientLocationProvider#start()");
+
+        if (getState() == STATE_STARTED)
+            return;
+
+        if (!requestUpdates(mUpdateRequestPending ? mProfile : null))
+            return;
+
+        final int session = mSession;
+
+        try {
+            mClient.getLastLocation(new FusedLocationClient.LastLocationCallback() {
+                @Override
+                public void onLastLocation(@Nullable Location location) {
+                    final Location current = getLocation();
+
+                    // a fix may have come meanwhile
+                    if (location != null && (current == null || location.getTime() > current.getTime()))
+                        setLocation(location);
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    Log.e("EasyLocation", "FusedClientLocationProvider#start() last location error " + e);
+
+                    onClientFailure(session);
+                }
+            });
+        } catch (SecurityException e) {
+            Log.e("EasyLocation", "FusedClientLocationProvider#start() SecurityException " + e);
+
+            setState(STATE_ERROR);
+        }
+    }
+
+    /**
+     * {@link FusedLocationClient} of the Play services, delivering on the thread of a looper
+     */
+    private static final class PlayServicesClient implements FusedLocationClient {
+
+        private static final LocationRequest PASSIVE_REQUEST = new LocationRequest()
+                .setPriority(LocationRequest.PRIORITY_NO_POWER);
+
+        private final FusedLocationProviderClient mClient;
+
+        private final Looper mLooper;
+
+        private final Executor mExecutor;
+
+        // The callbacks of the Play services by update callback, guarded by itself
+        private final Map<UpdateCallback, LocationCallback> mCallbacks = new HashMap<>();
+
+        PlayServicesClient(FusedLocationProviderClient client, Looper looper) {
+            mClient = client;
+            mLooper = looper;
+
+            final Handler handler = new Handler(looper);
+            mExecutor = new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    handler.post(command);
+                }
+            };
+        }
+
+        @Override
+        public void getLastLocation(final LastLocationCallback callback) {
+            mClient.getLastLocation()
+                    .addOnSuccessListener(mExecutor, new OnSuccessListener<Location>() {
+                        @Override
+                        public void onSuccess(Location location) {
+                            callback.onLastLocation(location);
+                        }
+                    })
+                    .addOnFailureListener(mExecutor, new OnFailureListener() {
+                        @Override
+                        public void onFailure(Exception e) {
+                            callback.onFailure(e);
+                        }
+                    });
+        }
+
+        @Override
+        public void requestLocationUpdates(@Nullable LocationProfile profile, UpdateCallback callback,
+                                           final RequestCallback result) {
+            final LocationRequest request = profile == null
+                    ? PASSIVE_REQUEST
+                    : GoogleLocationProvider.toLocationRequest(profile);
+
+            // a new request of the same callback replaces the previous one
+            mClient.requestLocationUpdates(request, getCallback(callback), mLooper)
+                    .addOnSuccessListener(mExecutor, new OnSuccessListener<Void>() {
+                        @Override
+                        public void onSuccess(Void aVoid) {
+                            result.onSuccess();
+                        }
+                    })
+                    .addOnFailureListener(mExecutor, new OnFailureListener() {
+                        @Override
+                        public void onFailure(Exception e) {
+                            result.onFailure(e);
+                        }
+                    });
+        }
+
+        @Override
+        public void removeLocationUpdates(UpdateCallback callback) {
+            final LocationCallback locationCallback;
+
+            synchronized (mCallbacks) {
+                locationCallback = mCallbacks.remove(callback);
+            }
+
+            if (locationCallback != null)
+                mClient.removeLocationUpdates(locationCallback);
+        }
+
+        private LocationCallback getCallback(final UpdateCallback callback) {
+            synchronized (mCallbacks) {
+                LocationCallback locationCallback = mCallbacks.get(callback);
+
+                if (locationCallback == null) {
+                    locationCallback = new LocationCallback() {
+                        @Override
+                        public void onLocationResult(LocationResult result) {
+                            callback.onLocations(result.getLocations());
+                        }
+                    };
+                    mCallbacks.put(callback, locationCallback);
+                }
+
+                return locationCallback;
+            }
+        }
+    }
+}
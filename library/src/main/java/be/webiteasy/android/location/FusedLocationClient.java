@@ -0,0 +1,59 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+import android.support.annotation.Nullable;
+
+import java.util.List;
+
+/**
+ * The calls of a {@link FusedClientLocationProvider} to the fused location provider of the Play
+ * services, so that the provider does not depend on them in the tests. The callbacks run on the
+ * thread of the provider.
+ */
+interface FusedLocationClient {
+
+    interface UpdateCallback {
+        /**
+         * @param locations the fixes, oldest first, several when the request is batched
+         */
+        void onLocations(List<Location> locations);
+    }
+
+    interface RequestCallback {
+        /**
+         * The fused provider accepted the request
+         */
+        void onSuccess();
+
+        /**
+         * The fused provider refused the request, such as an ApiException when the Play services
+         * are missing or outdated
+         */
+        void onFailure(Exception e);
+    }
+
+    interface LastLocationCallback {
+        /**
+         * @param location the last known location, null if none
+         */
+        void onLastLocation(@Nullable Location location);
+
+        void onFailure(Exception e);
+    }
+
+    /**
+     * @throws SecurityException without location permission
+     */
+    void getLastLocation(LastLocationCallback callback);
+
+    /**
+     * Request the updates of the profile, replacing the previous request of the callback
+     *
+     * @param profile the profile of the active request, null for the passive updates
+     * @param result  notified once the fused provider answered
+     * @throws SecurityException without location permission
+     */
+    void requestLocationUpdates(@Nullable LocationProfile profile, UpdateCallback callback, RequestCallback result);
+
+    void removeLocationUpdates(UpdateCallback callback);
+}
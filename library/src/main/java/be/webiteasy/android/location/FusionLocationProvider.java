@@ -0,0 +1,324 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs several providers at once and merges their fixes : an arbiter keeps a fix only if it is
+ * better than the last one kept, whatever its source. The listener is notified with the provider
+ * the kept fix comes from, also available with {@link #getLastSource()}.
+ *
+ * Active requests are sent to every provider. The first good fix, from any of them, completes
+ * the request and withdraws it from the others.
+ */
+public class FusionLocationProvider implements PassiveLocationProvider {
+
+    private final PassiveLocationProvider[] mProviders;
+
+    private final LocationHandler.Filter mArbiter;
+
+    private Listener mListener;
+
+    private int mState = STATE_INITIALIZING;
+
+    private Location mLocation;
+
+    private LocationProvider mLastSource;
+
+    private boolean mUpdateRequired = false;
+
+    private boolean mContinuous = false;
+
+    private final Listener mSourceListener = new BatchListener() {
+        @Override
+        public void onLocationChanged(Location location, LocationProvider locationProvider) {
+            onSourceLocation(location, locationProvider);
+        }
+
+        @Override
+        public void onLocationsChanged(List<Location> locations, LocationProvider locationProvider) {
+            onSourceLocations(locations, locationProvider);
+        }
+
+        @Override
+        public void onProviderStateChange(int state, LocationProvider locationProvider) {
+            updateState();
+        }
+    };
+
+    /**
+     * @param arbiter   selects the fixes to keep, such as an {@link AccuracyScoringFilter}
+     * @param providers the providers to merge, by order of preference when in the same state
+     */
+    public FusionLocationProvider(LocationHandler.Filter arbiter, PassiveLocationProvider... providers) {
+        if (arbiter == null)
+            throw new NullPointerException("Arbiter cannot be null");
+
+        if (providers.length == 0)
+            throw new IllegalArgumentException("At least one provider is required");
+
+        mArbiter = arbiter;
+        mProviders = providers.clone();
+
+        for (PassiveLocationProvider provider : mProviders) {
+            provider.setListener(mSourceListener);
+        }
+
+        mState = combinedState();
+
+        // some providers start in their constructor, their last known fix went to no listener
+        for (PassiveLocationProvider provider : mProviders) {
+            onSourceLocation(provider.getLocation(), provider);
+        }
+    }
+
+    /**
+     * @return the provider the last kept fix comes from, null if none
+     */
+    @Nullable
+    public synchronized LocationProvider getLastSource() {
+        return mLastSource;
+    }
+
+    @Nullable
+    @Override
+    public synchronized Location getLocation() {
+        return mLocation;
+    }
+
+    @Override
+    public synchronized int getState() {
+        return mState;
+    }
+
+    @Override
+    public synchronized void setListener(Listener l) {
+        mListener = l;
+    }
+
+    @Override
+    public void requireUpdate() {
+        Log.i("EasyLocation", "FusionLocationProvider#requireUpdate()");
+
+        synchronized (this) {
+            mUpdateRequired = true;
+        }
+
+        for (PassiveLocationProvider provider : mProviders) {
+            provider.requireUpdate();
+        }
+    }
+
+    @Override
+    public void cancelUpdate() {
+        Log.i("EasyLocation", "FusionLocationProvider#cancelUpdate()");
+
+        synchronized (this) {
+            mUpdateRequired = false;
+        }
+
+        for (PassiveLocationProvider provider : mProviders) {
+            provider.cancelUpdate();
+        }
+    }
+
+    @Override
+    public void setUpdateInterval(long intervalMillis, float smallestDisplacementMeters) {
+        for (PassiveLocationProvider provider : mProviders) {
+            provider.setUpdateInterval(intervalMillis, smallestDisplacementMeters);
+        }
+    }
+
+    @Override
+    public void setUpdateAccuracy(float accuracyMeters) {
+        for (PassiveLocationProvider provider : mProviders) {
+            provider.setUpdateAccuracy(accuracyMeters);
+        }
+    }
+
+    @Override
+    public void setUpdateTimeout(long timeoutMillis) {
+        for (PassiveLocationProvider provider : mProviders) {
+            provider.setUpdateTimeout(timeoutMillis);
+        }
+    }
+
+    @Override
+    public void setProfile(LocationProfile profile) {
+        for (PassiveLocationProvider provider : mProviders) {
+            provider.setProfile(profile);
+        }
+    }
+
+    /**
+     * A continuous request is not withdrawn from the other providers by the first fix
+     */
+    @Override
+    public void setContinuous(boolean continuous) {
+        synchronized (this) {
+            mContinuous = continuous;
+        }
+
+        for (PassiveLocationProvider provider : mProviders) {
+            provider.setContinuous(continuous);
+        }
+    }
+
+    @Override
+    public void start() {
+        for (PassiveLocationProvider provider : mProviders) {
+            provider.start();
+        }
+    }
+
+    /**
+     * Stop the providers, releasing their sessions
+     */
+    @Override
+    public void stop() {
+        for (PassiveLocationProvider provider : mProviders) {
+            BaseLocationProvider.release(provider);
+        }
+    }
+
+    private void onSourceLocation(Location location, LocationProvider source) {
+        if (location == null)
+            return;
+
+        final Listener listener;
+        final Location kept;
+        final boolean completesUpdate;
+
+        synchronized (this) {
+            kept = mArbiter.filter(location, mLocation);
+
+            if (kept == null)
+                return;
+
+            mLocation = kept;
+            mLastSource = source;
+
+            completesUpdate = mUpdateRequired && !mContinuous;
+            if (completesUpdate)
+                mUpdateRequired = false;
+
+            listener = mListener;
+        }
+
+        if (completesUpdate)
+            cancelOthers(source);
+
+        updateState();
+
+        if (listener != null)
+            listener.onLocationChanged(kept, source);
+    }
+
+    /**
+     * Same as {@link #onSourceLocation(Location, LocationProvider)} for a batch : the kept fixes
+     * are forwarded as a batch
+     */
+    private void onSourceLocations(List<Location> locations, LocationProvider source) {
+        final List<Location> kept = new ArrayList<>(locations.size());
+        final Listener listener;
+        final boolean completesUpdate;
+
+        synchronized (this) {
+            for (Location location : locations) {
+                final Location k = location == null ? null : mArbiter.filter(location, mLocation);
+
+                if (k != null) {
+                    mLocation = k;
+                    kept.add(k);
+                }
+            }
+
+            if (kept.isEmpty())
+                return;
+
+            mLastSource = source;
+
+            completesUpdate = mUpdateRequired && !mContinuous;
+            if (completesUpdate)
+                mUpdateRequired = false;
+
+            listener = mListener;
+        }
+
+        if (completesUpdate)
+            cancelOthers(source);
+
+        updateState();
+
+        BaseLocationProvider.dispatchLocations(listener, kept, source);
+    }
+
+    /**
+     * The request is completed, the other providers can go back to passive
+     */
+    private void cancelOthers(LocationProvider source) {
+        for (PassiveLocationProvider provider : mProviders) {
+            if (provider != source)
+                provider.cancelUpdate();
+        }
+    }
+
+    private void updateState() {
+        final Listener listener;
+
+        // the states of the providers are read out of the lock, they have their own
+        final int state = combinedState();
+
+        synchronized (this) {
+            if (state == mState)
+                return;
+
+            mState = state;
+            listener = mListener;
+
+            // every provider gave up the request
+            if (state == STATE_TIMEOUT)
+                mUpdateRequired = false;
+        }
+
+        if (listener != null)
+            listener.onProviderStateChange(state, this);
+    }
+
+    /**
+     * @return the state of the most available provider
+     */
+    private int combinedState() {
+        int best = STATE_DOWN;
+
+        for (PassiveLocationProvider provider : mProviders) {
+            final int state = provider.getState();
+
+            if (availability(state) > availability(best))
+                best = state;
+        }
+
+        return best;
+    }
+
+    private static int availability(int state) {
+        switch (state) {
+            case STATE_STARTED:
+                return 5;
+            case STATE_TIMEOUT:
+                return 4;
+            case STATE_INITIALIZING:
+                return 3;
+            case STATE_STOPPED:
+                return 2;
+            case STATE_ERROR:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+}
@@ -3,28 +3,41 @@ package be.webiteasy.android.location;
 import android.content.Context;
 import android.location.Location;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.location.LocationCallback;
 import com.google.android.gms.location.LocationListener;
 import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationServices;
 
+import java.util.List;
+
 /**
  * TODO This is a passive location provider ... we should be able to switch to active mode
  */
-public class GoogleLocationProvider extends BaseLocationProvider implements PassiveLocationProvider {
+public class GoogleLocationProvider extends BaseLocationProvider implements PassiveLocationProvider,
+        LocationProvider.Releasable {
 
     private final LocationRequest passiveLocationRequest = new LocationRequest()
             .setPriority(LocationRequest.PRIORITY_NO_POWER);
 
-    private final LocationRequest activeLocationRequest = new LocationRequest()
+    private LocationRequest activeLocationRequest = new LocationRequest()
             .setInterval(4000)
             .setFastestInterval(1000)
             .setPriority(LocationRequest.PRIORITY_HIGH_ACCURACY);
 
+    // Parameters of the active requests
+    private LocationProfile mProfile = LocationProfile.HIGH_ACCURACY;
+
+    // Keep the active request after its first fix
+    private boolean mContinuous = false;
+
     private final Context mContext;
 
     // The GoogleApiClient ref
@@ -32,31 +45,53 @@ public class GoogleLocationProvider extends BaseLocationProvider implements Pass
 
     private boolean mUpdateRequestPending = false;
 
+    // The thread of the callbacks
+    private final Looper mLooper;
+
+    // Expires the active requests giving no fix
+    private final UpdateWatchdog mWatchdog;
+
     /**
      * Prévient si une update request a été émise mais n'a pas pu être lancée car l'API n'était
      * pas prêt
      */
-    private boolean mPreConnectionUpdateRequired = false;
+    private final PreConnectionUpdate mPreConnectionUpdate;
 
     final LocationListener mGoogleLocationListener = new LocationListener() {
         @Override
         public void onLocationChanged(Location location) {
             Log.i("EasyLocation", "GoogleLocationProvider.LocationListener#onLocationChanged(" + location + ")");
 
+            if (mContinuous && mUpdateRequestPending) {
+                mWatchdog.arm();
+                setLocation(location);
+                return;
+            }
+
+            completeUpdate();
             setLocation(location);
+        }
+    };
 
-            mUpdateRequestPending = false;
-            mPreConnectionUpdateRequired = false;
+    // Receives the batches of the active requests with a max wait time
+    final LocationCallback mBatchCallback = new LocationCallback() {
+        @Override
+        public void onLocationResult(LocationResult result) {
+            final List<Location> locations = result.getLocations();
 
-            try {
-                LocationServices.FusedLocationApi.removeLocationUpdates(mGoogleApiClient, mGoogleLocationListener);
-                LocationServices.FusedLocationApi.requestLocationUpdates(
-                        mGoogleApiClient, passiveLocationRequest, mGoogleLocationListener);
+            Log.i("EasyLocation", "GoogleLocationProvider.LocationCallback#onLocationResult(" + locations.size() + " locations)");
 
-                setState(STATE_STARTED);
-            } catch (SecurityException e) {
-                setState(STATE_ERROR);
+            if (locations.isEmpty())
+                return;
+
+            if (mContinuous && mUpdateRequestPending) {
+                mWatchdog.arm();
+                setLocations(locations);
+                return;
             }
+
+            completeUpdate();
+            setLocations(locations);
         }
     };
 
@@ -64,16 +99,34 @@ public class GoogleLocationProvider extends BaseLocationProvider implements Pass
      *
      */
     public GoogleLocationProvider(Context context, Listener listener) {
+        this(context, listener, Looper.getMainLooper());
+    }
+
+    /**
+     * @param looper the looper of the thread receiving the connection callbacks and the fixes, and
+     *               notifying the listener
+     */
+    public GoogleLocationProvider(Context context, Listener listener, Looper looper) {
         mContext = context;
+        mLooper = looper;
 
         setListener(listener);
 
+        mWatchdog = new UpdateWatchdog(new HandlerScheduler(looper), new Runnable() {
+            @Override
+            public void run() {
+                onUpdateTimeout();
+            }
+        });
+        mPreConnectionUpdate = new PreConnectionUpdate(mWatchdog);
+
         final ConnectionCallback connectionCallback = new ConnectionCallback();
 
         mGoogleApiClient = new GoogleApiClient.Builder(mContext)
                 .addConnectionCallbacks(connectionCallback)
                 .addOnConnectionFailedListener(connectionCallback)
                 .addApi(LocationServices.API)
+                .setHandler(new Handler(looper))
                 .build();
         mGoogleApiClient.connect();
     }
@@ -89,18 +142,16 @@ public class GoogleLocationProvider extends BaseLocationProvider implements Pass
 
         if (!mGoogleApiClient.isConnected()) {
             Log.i("EasyLocation", "GoogleLocationProvider#requireUpdate() not connected");
-            mPreConnectionUpdateRequired = true;
+            mPreConnectionUpdate.require();
             return;
         }
-        LocationServices.FusedLocationApi.removeLocationUpdates(
-                mGoogleApiClient, mGoogleLocationListener);
 
         try {
-            LocationServices.FusedLocationApi.removeLocationUpdates(mGoogleApiClient, mGoogleLocationListener);
-            LocationServices.FusedLocationApi.requestLocationUpdates(
-                    mGoogleApiClient, activeLocationRequest, mGoogleLocationListener);
+            removeUpdates();
+            requestActiveUpdates();
 
             mUpdateRequestPending = true;
+            mWatchdog.arm();
 
             Log.i("EasyLocation", "GoogleLocationProvider#requireUpdate() update started");
 
@@ -112,14 +163,206 @@ public class GoogleLocationProvider extends BaseLocationProvider implements Pass
         }
     }
 
+    @Override
+    public void cancelUpdate() {
+        Log.i("EasyLocation", "GoogleLocationProvider#cancelUpdate()");
+
+        mPreConnectionUpdate.clear();
+        mWatchdog.disarm();
+
+        if (!mUpdateRequestPending)
+            return;
+
+        mUpdateRequestPending = false;
+
+        if (!mGoogleApiClient.isConnected())
+            return;
+
+        try {
+            removeUpdates();
+            requestPassiveUpdates();
+        } catch (SecurityException e) {
+            Log.e("EasyLocation", "GoogleLocationProvider#cancelUpdate() SecurityException " + e);
+
+            setState(STATE_ERROR);
+        }
+    }
+
+    @Override
+    public void setUpdateInterval(long intervalMillis, float smallestDisplacementMeters) {
+        Log.i("EasyLocation", "GoogleLocationProvider#setUpdateInterval(" + intervalMillis + ")");
+
+        setProfile(mProfile.withInterval(intervalMillis, smallestDisplacementMeters));
+    }
+
+    @Override
+    public void setUpdateAccuracy(float accuracyMeters) {
+        Log.i("EasyLocation", "GoogleLocationProvider#setUpdateAccuracy(" + accuracyMeters + ")");
+
+        setProfile(mProfile.withAccuracy(accuracyMeters));
+    }
+
+    /**
+     * The accuracy is mapped to the cheapest priority providing it : high accuracy (GPS) up to
+     * 100 meters, balanced power (block level) up to 10 km, low power (city level) beyond. The
+     * batching is left to the fused provider : with a max wait time, the fixes are delivered
+     * together to the batch listeners. The client stays connected.
+     */
+    @Override
+    public void setProfile(LocationProfile profile) {
+        Log.i("EasyLocation", "GoogleLocationProvider#setProfile(" + profile + ")");
+
+        if (profile.equals(mProfile))
+            return;
+
+        mProfile = profile;
+
+        updateActiveRequest();
+    }
+
+    /**
+     * @return the request of the fused provider for the profile
+     */
+    static LocationRequest toLocationRequest(LocationProfile profile) {
+        return new LocationRequest()
+                .setInterval(profile.interval)
+                .setFastestInterval(profile.interval / 4)
+                .setSmallestDisplacement(profile.smallestDisplacement)
+                .setMaxWaitTime(profile.maxWaitTime)
+                .setPriority(getPriority(profile));
+    }
+
+    private static int getPriority(LocationProfile profile) {
+        if (profile.needsGps())
+            return LocationRequest.PRIORITY_HIGH_ACCURACY;
+
+        if (profile.accuracy < 10000)
+            return LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY;
+
+        return LocationRequest.PRIORITY_LOW_POWER;
+    }
+
+    @Override
+    public void setContinuous(boolean continuous) {
+        mContinuous = continuous;
+    }
+
+    @Override
+    public void setUpdateTimeout(long timeoutMillis) {
+        mWatchdog.setTimeout(timeoutMillis);
+    }
+
+    /**
+     * The active request gave no fix in time : back to passive, the next request retries
+     */
+    private void onUpdateTimeout() {
+        Log.e("EasyLocation", "GoogleLocationProvider#onUpdateTimeout()");
+
+        mPreConnectionUpdate.clear();
+
+        if (mUpdateRequestPending && mGoogleApiClient.isConnected()) {
+            try {
+                removeUpdates();
+                requestPassiveUpdates();
+            } catch (SecurityException e) {
+                Log.e("EasyLocation", "GoogleLocationProvider#onUpdateTimeout() SecurityException " + e);
+
+                mUpdateRequestPending = false;
+                setState(STATE_ERROR);
+                return;
+            }
+        }
+
+        mUpdateRequestPending = false;
+        setState(STATE_TIMEOUT);
+    }
+
+    /**
+     * Rebuild the active request and apply it to the pending one, if any
+     */
+    private void updateActiveRequest() {
+        activeLocationRequest = toLocationRequest(mProfile);
+
+        if (!mUpdateRequestPending || !mGoogleApiClient.isConnected())
+            return;
+
+        try {
+            removeUpdates();
+            requestActiveUpdates();
+        } catch (SecurityException e) {
+            Log.e("EasyLocation", "GoogleLocationProvider#updateActiveRequest() SecurityException " + e);
+
+            setState(STATE_ERROR);
+        }
+    }
+
+    /**
+     * The one-shot active request has its fix : back to passive before notifying, so that
+     * listeners can require a new update
+     */
+    private void completeUpdate() {
+        mWatchdog.disarm();
+        mUpdateRequestPending = false;
+        mPreConnectionUpdate.clear();
+
+        try {
+            removeUpdates();
+            requestPassiveUpdates();
+
+            setState(STATE_STARTED);
+        } catch (SecurityException e) {
+            setState(STATE_ERROR);
+        }
+    }
+
+    /**
+     * The batched requests go through a callback, the fused provider delivers the batch as a
+     * location result
+     */
+    private void requestActiveUpdates() {
+        if (mProfile.maxWaitTime > 0)
+            LocationServices.FusedLocationApi.requestLocationUpdates(
+                    mGoogleApiClient, activeLocationRequest, mBatchCallback, mLooper);
+        else
+            LocationServices.FusedLocationApi.requestLocationUpdates(
+                    mGoogleApiClient, activeLocationRequest, mGoogleLocationListener, mLooper);
+    }
+
+    private void requestPassiveUpdates() {
+        LocationServices.FusedLocationApi.requestLocationUpdates(
+                mGoogleApiClient, passiveLocationRequest, mGoogleLocationListener, mLooper);
+    }
+
+    private void removeUpdates() {
+        LocationServices.FusedLocationApi.removeLocationUpdates(mGoogleApiClient, mGoogleLocationListener);
+        LocationServices.FusedLocationApi.removeLocationUpdates(mGoogleApiClient, mBatchCallback);
+    }
+
     @Override
     public void stop() {
+        mWatchdog.disarm();
+        mPreConnectionUpdate.clear();
+        mUpdateRequestPending = false;
+
         if (mGoogleApiClient.isConnected())
-            LocationServices.FusedLocationApi.removeLocationUpdates(mGoogleApiClient, mGoogleLocationListener);
+            removeUpdates();
 
         setState(STATE_STOPPED);
     }
 
+    /**
+     * Stop and disconnect the client, so that its session and its registrations are closed.
+     * {@link #start()} connects it again
+     */
+    @Override
+    public void release() {
+        Log.i("EasyLocation", "GoogleLocationProvider#release()");
+
+        stop();
+
+        mGoogleApiClient.disconnect();
+    }
+
     @Override
     public void start() {
         Log.i("EasyLocation", "GoogleLocationProvider#start()");
@@ -127,10 +370,16 @@ public class GoogleLocationProvider extends BaseLocationProvider implements Pass
         if (getState() == STATE_STARTED)
             return;
 
+        // started again once connected
+        if (!mGoogleApiClient.isConnected()) {
+            if (!mGoogleApiClient.isConnecting())
+                mGoogleApiClient.connect();
+            return;
+        }
+
         try {
-            LocationServices.FusedLocationApi.removeLocationUpdates(mGoogleApiClient, mGoogleLocationListener);
-            LocationServices.FusedLocationApi.requestLocationUpdates(
-                    mGoogleApiClient, passiveLocationRequest, mGoogleLocationListener);
+            removeUpdates();
+            requestPassiveUpdates();
 
             Log.i("EasyLocation", "GoogleLocationProvider#start() Started !");
 
@@ -151,12 +400,11 @@ public class GoogleLocationProvider extends BaseLocationProvider implements Pass
             try {
                 Location l = LocationServices.FusedLocationApi.getLastLocation(mGoogleApiClient);
 
-                if (l != null) {
-                    setLocation(l);
-                    mPreConnectionUpdateRequired = false;
-                } else if (mPreConnectionUpdateRequired) {
+                // a last location completes the update required before the connection
+                if (mPreConnectionUpdate.onConnected(l))
                     requireUpdate();
-                }
+                else if (l != null)
+                    setLocation(l);
 
                 start();
             } catch (SecurityException e) {
@@ -167,7 +415,14 @@ public class GoogleLocationProvider extends BaseLocationProvider implements Pass
 
         @Override
         public void onConnectionSuspended(int i) {
+            Log.i("EasyLocation", "GoogleLocationProvider.ConnectionCallback#onConnectionSuspended(" + i + ")");
+
+            final boolean updatePending = mUpdateRequestPending || mPreConnectionUpdate.isRequired();
+
             stop();
+
+            // requested again once reconnected, the watchdog expires it otherwise
+            mPreConnectionUpdate.onSuspended(updatePending);
         }
 
         @Override
@@ -0,0 +1,34 @@
+package be.webiteasy.android.location;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * {@link Scheduler} running its tasks on the thread of a {@link Looper}
+ */
+class HandlerScheduler implements Scheduler {
+
+    private final Handler mHandler;
+
+    HandlerScheduler(Looper looper) {
+        mHandler = new Handler(looper);
+    }
+
+    @Override
+    public long now() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    @Override
+    public Cancellable schedule(final Runnable task, long delayMillis) {
+        mHandler.postDelayed(task, delayMillis);
+
+        return new Cancellable() {
+            @Override
+            public void cancel() {
+                mHandler.removeCallbacks(task);
+            }
+        };
+    }
+}
@@ -0,0 +1,197 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+import android.support.annotation.Nullable;
+
+/**
+ * Smooths the fixes with a constant velocity Kalman filter. Positions are projected on a local
+ * plane in meters, where east and north are filtered independently, the reported accuracy being
+ * the measurement noise. The smoothed position, speed and bearing are written into the fix
+ * itself, so that a step allocates nothing. The reported accuracy is kept, so that the other
+ * stages compare fixes as reported by the providers.
+ *
+ * The filter restarts from the fix when the previous one is too old. Add it after the stages
+ * rejecting fixes, see {@link LocationHandler#addLocationFilter(LocationHandler.Filter)}.
+ */
+public class KalmanLocationFilter implements LocationHandler.Filter {
+
+    /**
+     * Expected acceleration of the user, in meters per second²
+     */
+    public static final float DEFAULT_ACCELERATION = 1f;
+
+    public static final long DEFAULT_RESET_DELAY = 1000 * 60;
+
+    // Accuracy of the fixes without accuracy, in meters
+    private static final float UNKNOWN_ACCURACY = 50f;
+
+    // Below this speed, in meters per second, the bearing is only noise
+    private static final float MIN_BEARING_SPEED = 0.5f;
+
+    // Recenter the local plane past this distance from its origin, in meters
+    private static final double MAX_PLANE_DISTANCE = 10000;
+
+    private static final double METERS_PER_DEGREE = 6371000 * Math.PI / 180;
+
+    private final double mAccelerationVariance;
+
+    private final long mResetDelay;
+
+    private boolean mInitialized = false;
+
+    private long mTime;
+
+    // Origin of the local plane, in degrees, and meters per degree of longitude at the origin
+    private double mOriginLatitude;
+    private double mOriginLongitude;
+    private double mMetersPerLongitude;
+
+    // State : position in meters and velocity in meters per second, east and north
+    private double mX;
+    private double mY;
+    private double mVx;
+    private double mVy;
+
+    // Covariance, the same for both axes as they share their time steps and noises
+    private double mP00;
+    private double mP01;
+    private double mP11;
+
+    public KalmanLocationFilter() {
+        this(DEFAULT_ACCELERATION, DEFAULT_RESET_DELAY);
+    }
+
+    /**
+     * @param acceleration     the expected acceleration of the user, in meters per second². The
+     *                         higher, the faster the filter follows the fixes
+     * @param resetDelayMillis the delay between two fixes after which the filter restarts, in
+     *                         milliseconds
+     */
+    public KalmanLocationFilter(float acceleration, long resetDelayMillis) {
+        if (acceleration <= 0)
+            throw new IllegalArgumentException("acceleration must be positive");
+
+        mAccelerationVariance = (double) acceleration * acceleration;
+        mResetDelay = resetDelayMillis;
+    }
+
+    @Nullable
+    @Override
+    public synchronized Location filter(Location candidate, @Nullable Location current) {
+        final double accuracy = candidate.hasAccuracy() && candidate.getAccuracy() > 0
+                ? candidate.getAccuracy() : UNKNOWN_ACCURACY;
+        final double variance = accuracy * accuracy;
+
+        final long elapsed = candidate.getTime() - mTime;
+
+        if (!mInitialized || elapsed > mResetDelay || elapsed < 0) {
+            reset(candidate, variance);
+        } else {
+            predict(elapsed / 1000.0);
+            update(candidate, variance);
+        }
+
+        mTime = candidate.getTime();
+
+        write(candidate);
+
+        return candidate;
+    }
+
+    /**
+     * Forget the previous fixes
+     */
+    public synchronized void reset() {
+        mInitialized = false;
+    }
+
+    private void reset(Location location, double variance) {
+        setOrigin(location.getLatitude(), location.getLongitude());
+
+        mX = 0;
+        mY = 0;
+        mVx = 0;
+        mVy = 0;
+
+        mP00 = variance;
+        mP01 = 0;
+        // unknown velocity : up to 10 m/s
+        mP11 = 100;
+
+        mInitialized = true;
+    }
+
+    private void setOrigin(double latitude, double longitude) {
+        mOriginLatitude = latitude;
+        mOriginLongitude = longitude;
+        mMetersPerLongitude = METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+    }
+
+    private void predict(double dt) {
+        mX += mVx * dt;
+        mY += mVy * dt;
+
+        final double dt2 = dt * dt;
+        final double q = mAccelerationVariance;
+
+        mP00 += dt * (2 * mP01 + dt * mP11) + q * dt2 * dt2 / 4;
+        mP01 += dt * mP11 + q * dt2 * dt / 2;
+        mP11 += q * dt2;
+    }
+
+    private void update(Location location, double variance) {
+        final double zx = (location.getLongitude() - mOriginLongitude) * mMetersPerLongitude;
+        final double zy = (location.getLatitude() - mOriginLatitude) * METERS_PER_DEGREE;
+
+        final double s = mP00 + variance;
+        final double k0 = mP00 / s;
+        final double k1 = mP01 / s;
+
+        final double rx = zx - mX;
+        final double ry = zy - mY;
+
+        mX += k0 * rx;
+        mY += k0 * ry;
+        mVx += k1 * rx;
+        mVy += k1 * ry;
+
+        final double p00 = mP00;
+        final double p01 = mP01;
+
+        mP00 = (1 - k0) * p00;
+        mP01 = (1 - k0) * p01;
+        mP11 -= k1 * p01;
+
+        if (Math.abs(mX) > MAX_PLANE_DISTANCE || Math.abs(mY) > MAX_PLANE_DISTANCE) {
+            setOrigin(latitude(), longitude());
+            mX = 0;
+            mY = 0;
+        }
+    }
+
+    private double latitude() {
+        return mOriginLatitude + mY / METERS_PER_DEGREE;
+    }
+
+    private double longitude() {
+        return mOriginLongitude + mX / mMetersPerLongitude;
+    }
+
+    private void write(Location location) {
+        location.setLatitude(latitude());
+        location.setLongitude(longitude());
+
+        final double speed = Math.sqrt(mVx * mVx + mVy * mVy);
+        location.setSpeed((float) speed);
+
+        if (speed >= MIN_BEARING_SPEED) {
+            double bearing = Math.toDegrees(Math.atan2(mVx, mVy));
+            if (bearing < 0)
+                bearing += 360;
+
+            location.setBearing((float) bearing);
+        } else {
+            location.removeBearing();
+        }
+    }
+}
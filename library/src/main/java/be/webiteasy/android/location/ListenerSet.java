@@ -0,0 +1,109 @@
+package be.webiteasy.android.location;
+
+import java.lang.reflect.Array;
+
+/**
+ * Thread-safe set of listeners, optimized for dispatching. Adding and removing copy the
+ * listeners, while {@link #snapshot()} returns the current array without copy or lock, so that
+ * dispatching allocates nothing. Listeners added or removed during a dispatch only take effect
+ * on the next one.
+ *
+ * @param <T> the type of the listeners
+ */
+public final class ListenerSet<T> {
+
+    private final Object mLock = new Object();
+
+    private volatile T[] mListeners;
+
+    public ListenerSet(Class<T> type) {
+        mListeners = newArray(type, 0);
+    }
+
+    /**
+     * @return false if the listener was already in the set
+     */
+    public boolean add(T listener) {
+        if (listener == null)
+            throw new NullPointerException("Listener cannot be null");
+
+        synchronized (mLock) {
+            final T[] current = mListeners;
+
+            if (indexOf(current, listener) >= 0)
+                return false;
+
+            final T[] next = newArray(current, current.length + 1);
+            System.arraycopy(current, 0, next, 0, current.length);
+            next[current.length] = listener;
+
+            mListeners = next;
+            return true;
+        }
+    }
+
+    /**
+     * @return false if the listener was not in the set
+     */
+    public boolean remove(T listener) {
+        synchronized (mLock) {
+            final T[] current = mListeners;
+            final int index = indexOf(current, listener);
+
+            if (index < 0)
+                return false;
+
+            final T[] next = newArray(current, current.length - 1);
+            System.arraycopy(current, 0, next, 0, index);
+            System.arraycopy(current, index + 1, next, index, current.length - index - 1);
+
+            mListeners = next;
+            return true;
+        }
+    }
+
+    public void clear() {
+        synchronized (mLock) {
+            mListeners = newArray(mListeners, 0);
+        }
+    }
+
+    public boolean contains(T listener) {
+        return indexOf(mListeners, listener) >= 0;
+    }
+
+    /**
+     * @return the listeners at the time of the call. The array is shared and must not be
+     * modified
+     */
+    public T[] snapshot() {
+        return mListeners;
+    }
+
+    public int size() {
+        return mListeners.length;
+    }
+
+    public boolean isEmpty() {
+        return mListeners.length == 0;
+    }
+
+    private static int indexOf(Object[] listeners, Object listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i].equals(listener))
+                return i;
+        }
+
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T[] newArray(Class<T> type, int length) {
+        return (T[]) Array.newInstance(type, length);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T[] newArray(T[] template, int length) {
+        return (T[]) Array.newInstance(template.getClass().getComponentType(), length);
+    }
+}
@@ -0,0 +1,114 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Accumulates fixes and delivers them in batches, at most max wait time after the first fix of a
+ * batch, for the providers which cannot batch by themselves. The fixes still wake up the
+ * provider, but the listeners process them in one pass.
+ */
+final class LocationBatcher {
+
+    /**
+     * A full batch is delivered at once
+     */
+    static final int MAX_BATCH_SIZE = 100;
+
+    interface Callback {
+        /**
+         * @param locations the fixes of the batch, oldest first
+         */
+        void onBatch(List<Location> locations);
+    }
+
+    private final Scheduler mScheduler;
+
+    private final Callback mCallback;
+
+    // guarded by this
+    private long mMaxWaitTime = 0;
+    private List<Location> mBatch = new ArrayList<>();
+    private Scheduler.Cancellable mScheduledFlush;
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (LocationBatcher.this) {
+                mScheduledFlush = null;
+            }
+
+            flush();
+        }
+    };
+
+    LocationBatcher(Scheduler scheduler, Callback callback) {
+        mScheduler = scheduler;
+        mCallback = callback;
+    }
+
+    /**
+     * @param maxWaitTimeMillis the maximum time a fix waits for delivery, in milliseconds, 0 to
+     *                          deliver the fixes at once. The waiting fixes are delivered when
+     *                          the batching stops.
+     */
+    void setMaxWaitTime(long maxWaitTimeMillis) {
+        synchronized (this) {
+            mMaxWaitTime = maxWaitTimeMillis;
+        }
+
+        if (maxWaitTimeMillis == 0)
+            flush();
+    }
+
+    synchronized boolean isBatching() {
+        return mMaxWaitTime > 0;
+    }
+
+    /**
+     * Store a fix for the next batch
+     */
+    void add(Location location) {
+        final boolean full;
+
+        synchronized (this) {
+            mBatch.add(location);
+
+            full = mBatch.size() >= MAX_BATCH_SIZE;
+
+            if (!full && mScheduledFlush == null)
+                mScheduledFlush = mScheduler.schedule(mFlushTask, mMaxWaitTime);
+        }
+
+        if (full)
+            flush();
+    }
+
+    /**
+     * Deliver the waiting fixes now, if any
+     */
+    void flush() {
+        final List<Location> batch;
+
+        synchronized (this) {
+            if (mScheduledFlush != null) {
+                mScheduledFlush.cancel();
+                mScheduledFlush = null;
+            }
+
+            if (mBatch.isEmpty())
+                return;
+
+            batch = mBatch;
+            mBatch = new ArrayList<>();
+        }
+
+        mCallback.onBatch(batch);
+    }
+
+    synchronized int size() {
+        return mBatch.size();
+    }
+}
@@ -0,0 +1,252 @@
+package be.webiteasy.android.location;
+
+import android.os.Build;
+import android.support.annotation.Nullable;
+import android.util.Base64;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Serializes locations to a compact, versioned binary layout, stored as a Base64 string.
+ *
+ * Layout of version 2 (big endian) :
+ * <pre>
+ *  0  byte    version
+ *  1  byte    fields mask (accuracy, altitude, speed, bearing)
+ *  2  long    time
+ * 10  long    elapsed realtime nanos
+ * 18  double  latitude
+ * 26  double  longitude
+ * 34  double  altitude
+ * 42  float   accuracy
+ * 46  float   speed
+ * 50  float   bearing
+ * 54  string  provider
+ *     short   flags count (-1 when no flags), followed by (flag, label) strings
+ * </pre>
+ * Strings are written as a short length (-1 for null) followed by the UTF-8 bytes.
+ *
+ * Legacy "v1/..." strings are still read back.
+ */
+final class LocationCodec {
+
+    static final byte VERSION = 2;
+
+    private static final String LEGACY_PREFIX = "v1/";
+
+    private static final int HEADER_SIZE = 54;
+
+    private static final int HAS_ACCURACY = 1;
+    private static final int HAS_ALTITUDE = 1 << 1;
+    private static final int HAS_SPEED = 1 << 2;
+    private static final int HAS_BEARING = 1 << 3;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private LocationCodec() {
+    }
+
+    /**
+     * @param location the location to serialize
+     * @return the serialized location, or an empty string if location is null
+     */
+    static String encode(@Nullable android.location.Location location) {
+        if (location == null)
+            return "";
+
+        return Base64.encodeToString(toBytes(location), Base64.NO_WRAP);
+    }
+
+    /**
+     * @param value a value returned by {@link #encode(android.location.Location)} or a legacy
+     *              "v1/..." string
+     * @return the deserialized location or null if the value cannot be read
+     */
+    @Nullable
+    static Location decode(@Nullable String value) {
+        if (value == null || value.length() == 0)
+            return null;
+
+        if (value.startsWith(LEGACY_PREFIX))
+            return decodeLegacy(value);
+
+        try {
+            return fromBytes(Base64.decode(value, Base64.NO_WRAP));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    static byte[] toBytes(android.location.Location location) {
+        final byte[] provider = bytes(location.getProvider());
+
+        Location.FlagEntry[] flags = null;
+        if (location instanceof Location)
+            flags = ((Location) location).getFlags();
+
+        int size = HEADER_SIZE + stringSize(provider) + 2;
+
+        byte[][] flagsBytes = null;
+        if (flags != null) {
+            flagsBytes = new byte[flags.length * 2][];
+
+            for (int i = 0; i < flags.length; i++) {
+                flagsBytes[2 * i] = bytes(flags[i].flag);
+                flagsBytes[2 * i + 1] = bytes(flags[i].label);
+
+                size += stringSize(flagsBytes[2 * i]) + stringSize(flagsBytes[2 * i + 1]);
+            }
+        }
+
+        int mask = 0;
+        if (location.hasAccuracy())
+            mask |= HAS_ACCURACY;
+        if (location.hasAltitude())
+            mask |= HAS_ALTITUDE;
+        if (location.hasSpeed())
+            mask |= HAS_SPEED;
+        if (location.hasBearing())
+            mask |= HAS_BEARING;
+
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(VERSION);
+        buffer.put((byte) mask);
+        buffer.putLong(location.getTime());
+        buffer.putLong(getElapsedRealtimeNanos(location));
+        buffer.putDouble(location.getLatitude());
+        buffer.putDouble(location.getLongitude());
+        buffer.putDouble(location.getAltitude());
+        buffer.putFloat(location.getAccuracy());
+        buffer.putFloat(location.getSpeed());
+        buffer.putFloat(location.getBearing());
+        putString(buffer, provider);
+
+        if (flagsBytes == null) {
+            buffer.putShort((short) -1);
+        } else {
+            buffer.putShort((short) flags.length);
+
+            for (byte[] b : flagsBytes) {
+                putString(buffer, b);
+            }
+        }
+
+        return buffer.array();
+    }
+
+    @Nullable
+    static Location fromBytes(byte[] bytes) {
+        if (bytes.length < HEADER_SIZE || bytes[0] != VERSION)
+            return null;
+
+        try {
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            buffer.position(1);
+
+            final int mask = buffer.get();
+            final long time = buffer.getLong();
+            final long elapsedRealtimeNanos = buffer.getLong();
+            final double latitude = buffer.getDouble();
+            final double longitude = buffer.getDouble();
+            final double altitude = buffer.getDouble();
+            final float accuracy = buffer.getFloat();
+            final float speed = buffer.getFloat();
+            final float bearing = buffer.getFloat();
+
+            final Location location = new Location(getString(buffer));
+            location.setTime(time);
+            location.setLatitude(latitude);
+            location.setLongitude(longitude);
+
+            if ((mask & HAS_ACCURACY) != 0)
+                location.setAccuracy(accuracy);
+            if ((mask & HAS_ALTITUDE) != 0)
+                location.setAltitude(altitude);
+            if ((mask & HAS_SPEED) != 0)
+                location.setSpeed(speed);
+            if ((mask & HAS_BEARING) != 0)
+                location.setBearing(bearing);
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
+                location.setElapsedRealtimeNanos(elapsedRealtimeNanos);
+
+            final int flagsCount = buffer.getShort();
+            if (flagsCount >= 0) {
+                Location.FlagEntry[] flags = new Location.FlagEntry[flagsCount];
+
+                for (int i = 0; i < flagsCount; i++) {
+                    flags[i] = new Location.FlagEntry(getString(buffer), getString(buffer));
+                }
+
+                location.setFlags(flags);
+            }
+
+            return location;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    @Nullable
+    private static Location decodeLegacy(String value) {
+        String[] els = value.split("/");
+
+        if (els.length != 8) {
+            return null;
+        }
+
+        try {
+            Location location = new Location(els[1]);
+            location.setTime(Long.parseLong(els[2]));
+            location.setLatitude(Double.parseDouble(els[3]));
+            location.setLongitude(Double.parseDouble(els[4]));
+            location.setAccuracy(Float.parseFloat(els[5]));
+            location.setAltitude(Double.parseDouble(els[6]));
+            location.setSpeed(Float.parseFloat(els[7]));
+
+            return location;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static long getElapsedRealtimeNanos(android.location.Location location) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
+            return location.getElapsedRealtimeNanos();
+
+        return 0;
+    }
+
+    @Nullable
+    private static byte[] bytes(@Nullable String s) {
+        return s == null ? null : s.getBytes(UTF_8);
+    }
+
+    private static int stringSize(@Nullable byte[] bytes) {
+        return 2 + (bytes == null ? 0 : bytes.length);
+    }
+
+    private static void putString(ByteBuffer buffer, @Nullable byte[] bytes) {
+        if (bytes == null) {
+            buffer.putShort((short) -1);
+        } else {
+            buffer.putShort((short) bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    @Nullable
+    private static String getString(ByteBuffer buffer) {
+        final int length = buffer.getShort();
+
+        if (length < 0)
+            return null;
+
+        final String s = new String(buffer.array(), buffer.position(), length, UTF_8);
+        buffer.position(buffer.position() + length);
+
+        return s;
+    }
+}
@@ -2,9 +2,19 @@ package be.webiteasy.android.location;
 
 import android.content.Context;
 import android.location.Location;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * manage 2 LocationProviders and Listeners
@@ -15,18 +25,111 @@ public class LocationHandler {
 
     public static final int MAX_UPDATE_PERIOD = 1000 * 60 * 10;
 
+    public static final long DEFAULT_UPDATE_INTERVAL = 4000;
+
+    /**
+     * GPS level, in meters
+     */
+    public static final float DEFAULT_UPDATE_ACCURACY = 10;
+
+    /**
+     * Budget of an active request, see {@link #setUpdateTimeout(long)}
+     */
+    public static final long DEFAULT_UPDATE_TIMEOUT = 1000 * 60 * 2;
+
     // The app context
     final Context mContext;
 
     // The last recorded location
     private Location mLastLocation;
 
+    // Locations kept from the batch being set, null outside of setLocations()
+    private List<Location> mBatch;
+
     // The openListener notifier
-    protected LinkedList<Listener> mListeners = new LinkedList<>();
+    protected final ListenerSet<Listener> mListeners = new ListenerSet<>(Listener.class);
+
+    // The stages selecting the fixes to keep, in order
+    private final ListenerSet<Filter> mFilters = new ListenerSet<>(Filter.class);
+
+    // The subscriptions to the location stream
+    private final ListenerSet<LocationSubscription> mSubscriptions = new ListenerSet<>(LocationSubscription.class);
+
+    // Reused for every location change : it reads the location from the handler
+    private final LocationChangedEvent mLocationChangedEvent = new LocationChangedEvent() {
+        @Override
+        public LocationHandler getLocationService() {
+            return LocationHandler.this;
+        }
+
+        @Override
+        public Location getLocation() {
+            return LocationHandler.this.getLocation();
+        }
+    };
+
+    // Delivers the locations to the subscribers, when no executor is given
+    private static ExecutorService sSubscriptionExecutor;
+
+    // The thread of the callbacks of the providers, the main thread if null
+    private static Looper sProviderLooper;
+
+    // Use the FusedLocationProviderClient rather than the GoogleApiClient
+    private static boolean sFusedClientEnabled = false;
+
+    // First fix race of the native providers
+    private static boolean sFirstFixRaceEnabled = true;
+    private static float sFirstFixAccuracy = FirstFixRace.DEFAULT_FIRST_FIX_ACCURACY;
+    private static long sFirstFixDeadline = FirstFixRace.DEFAULT_DEADLINE;
+
+    // Notifies the listeners, null to notify them on the thread of the provider
+    protected volatile Executor mListenerExecutor;
 
     // The current LocationProvider
     PassiveLocationProvider mPassiveLocationProvider;
 
+    // Suspends the continuous requests while the device is stationary, if set
+    private MotionDetector mMotionDetector;
+
+    // An active update was required and no fix came yet
+    private volatile boolean mUpdateRequired = false;
+
+    // A periodic update was deferred while stationary, sent when the device moves
+    private volatile boolean mPeriodicUpdateDeferred = false;
+
+    private final MotionDetector.Listener mMotionListener = new MotionDetector.Listener() {
+        @Override
+        public void onMotionStateChanged(boolean stationary) {
+            Log.i("EasyLocation", "LocationHandler#onMotionStateChanged(" + stationary + ")");
+
+            if (!stationary && mPeriodicUpdateDeferred) {
+                mPeriodicUpdateDeferred = false;
+                requireUpdate();
+            }
+
+            // a one-shot request is served anyway, only the continuous one is suspended
+            if (!mContinuous)
+                return;
+
+            if (!stationary)
+                mPassiveLocationProvider.requireUpdate();
+            else if (!mUpdateRequired)
+                mPassiveLocationProvider.cancelUpdate();
+        }
+    };
+
+    // Parameters of the active requests
+    private LocationProfile mProfile = LocationProfile.HIGH_ACCURACY;
+    private long mUpdateTimeout = DEFAULT_UPDATE_TIMEOUT;
+
+    // A continuous request is running for the requirements of the subscribers
+    private boolean mContinuous = false;
+
+    // Interval of the AdaptiveUpdateScheduler tracking the device, 0 if none
+    private long mTrackingInterval = 0;
+
+    private boolean mFusionEnabled = false;
+
     /**
      * Crée un service de localisation passif dans le context courrant. Ce service est également
      * un service de localisation avec adresses.
@@ -38,16 +141,67 @@ public class LocationHandler {
             throw new NullPointerException();
 
         mContext = context.getApplicationContext();
+        mFilters.add(new AccuracyScoringFilter());
 
         setupGoogleProvider();
     }
 
     /**
-     * Let's use a PlayGoogle Location provider
+     * Handler on top of the given provider, without context, for tests
+     */
+    LocationHandler(PassiveLocationProvider provider) {
+        mContext = null;
+        mFilters.add(new AccuracyScoringFilter());
+        mPassiveLocationProvider = provider;
+
+        provider.setListener(new LocationProvider.BatchListener() {
+            @Override
+            public void onLocationChanged(Location location, LocationProvider locationProvider) {
+                setLocation(location);
+            }
+
+            @Override
+            public void onLocationsChanged(List<Location> locations, LocationProvider locationProvider) {
+                setLocations(locations);
+            }
+
+            @Override
+            public void onProviderStateChange(int state, LocationProvider locationProvider) {
+                onProviderState(state);
+            }
+        });
+    }
+
+    /**
+     * Let's use a PlayGoogle Location provider, replaced by a native Android location provider
+     * while it fails. The provider is shared with the other handlers, see {@link ProviderPool}
      */
     private void setupGoogleProvider() {
         Log.i("EasyLocation", "LocationHandler#setupGoogleProvider()");
-        mPassiveLocationProvider = new GoogleLocationProvider(mContext, new LocationProvider.Listener() {
+
+        final Context context = mContext;
+        final Looper looper = getProviderLooper();
+
+        mPassiveLocationProvider = ProviderPool.SHARED.acquire(ProviderPool.SUPERVISED, new SupervisedLocationProvider.Factory() {
+            @Override
+            public PassiveLocationProvider create() {
+                return new SupervisedLocationProvider(new SupervisedLocationProvider.Factory() {
+                    @Override
+                    public PassiveLocationProvider create() {
+                        return createGoogleProvider(context, looper);
+                    }
+                }, new SupervisedLocationProvider.Factory() {
+                    @Override
+                    public PassiveLocationProvider create() {
+                        Log.i("EasyLocation", "LocationHandler#setupAndroidProvider()");
+
+                        return createNativeProvider(context, looper);
+                    }
+                }, new HandlerScheduler(looper), SupervisedLocationProvider.DEFAULT_PROBE_INTERVAL);
+            }
+        });
+
+        mPassiveLocationProvider.setListener(new LocationProvider.BatchListener() {
             @Override
             public void onLocationChanged(Location location, LocationProvider locationProvider) {
                 Log.i("EasyLocation", "LocationHandler GoogleProvider => onLocationChanged()");
@@ -55,40 +209,126 @@ public class LocationHandler {
                 setLocation(location);
             }
 
+            @Override
+            public void onLocationsChanged(List<Location> locations, LocationProvider locationProvider) {
+                Log.i("EasyLocation", "LocationHandler GoogleProvider => onLocationsChanged(" + locations.size() + ")");
+
+                setLocations(locations);
+            }
+
             @Override
             public void onProviderStateChange(int state, LocationProvider locationProvider) {
-                if (state == LocationProvider.STATE_ERROR) {
-                    Log.e("EasyLocation", "LocationHandler GoogleProvider error");
+                if (state == LocationProvider.STATE_ERROR)
+                    Log.e("EasyLocation", "LocationHandler provider error");
 
-                    // TODO only switch to native when I have something
-                    mPassiveLocationProvider.setListener(null);
-                    setupAndroidProvider();
-                }
+                onProviderState(state);
             }
         });
     }
 
     /**
-     * Let's stop previous location provider and setup a native Android location provider
+     * Run the Google and the native providers at once, see {@link FusionLocationProvider}, or go
+     * back to the Google provider with fail-over to the native one
+     *
+     * @param enabled true to merge the fixes of both providers
      */
-    private void setupAndroidProvider() {
-        Log.i("EasyLocation", "LocationHandler#setupAndroidProvider()");
+    public void setFusionEnabled(boolean enabled) {
+        if (enabled == isFusionEnabled())
+            return;
+
+        mPassiveLocationProvider.setListener(null);
+        mPassiveLocationProvider.stop();
+
+        mFusionEnabled = enabled;
+
+        if (enabled)
+            setupFusionProvider();
+        else
+            setupGoogleProvider();
+
+        if (mContinuous) {
+            // the requests of the previous provider are lost
+            mContinuous = false;
+            updateRequirements();
+        } else {
+            mPassiveLocationProvider.setProfile(mProfile);
+        }
 
-        mPassiveLocationProvider = new NativeLocationProvider(mContext, new LocationProvider.Listener() {
+        mPassiveLocationProvider.setUpdateTimeout(mUpdateTimeout);
+    }
+
+    public boolean isFusionEnabled() {
+        return mFusionEnabled;
+    }
+
+    /**
+     * Release the provider of this handler, stopped once no other handler uses it. The handler
+     * does not receive locations anymore
+     */
+    public void release() {
+        Log.i("EasyLocation", "LocationHandler#release()");
+
+        setMotionDetector(null);
+
+        mPassiveLocationProvider.setListener(null);
+        mPassiveLocationProvider.stop();
+    }
+
+    /**
+     * Let's merge a PlayGoogle and a native Android location provider, shared with the other
+     * handlers
+     */
+    private void setupFusionProvider() {
+        Log.i("EasyLocation", "LocationHandler#setupFusionProvider()");
+
+        final Context context = mContext;
+        final Looper looper = getProviderLooper();
+
+        mPassiveLocationProvider = ProviderPool.SHARED.acquire(ProviderPool.FUSION, new SupervisedLocationProvider.Factory() {
+            @Override
+            public PassiveLocationProvider create() {
+                return new FusionLocationProvider(new AccuracyScoringFilter(),
+                        createGoogleProvider(context, looper),
+                        createNativeProvider(context, looper));
+            }
+        });
+
+        mPassiveLocationProvider.setListener(new LocationProvider.BatchListener() {
             @Override
             public void onLocationChanged(Location location, LocationProvider locationProvider) {
-                //Log.e("EasyLocation","LocationHandler NativeProvider => onLocationChanged("+location+")");
+                Log.i("EasyLocation", "LocationHandler FusionProvider => onLocationChanged()");
 
                 setLocation(location);
             }
 
+            @Override
+            public void onLocationsChanged(List<Location> locations, LocationProvider locationProvider) {
+                Log.i("EasyLocation", "LocationHandler FusionProvider => onLocationsChanged(" + locations.size() + ")");
+
+                setLocations(locations);
+            }
+
             @Override
             public void onProviderStateChange(int state, LocationProvider locationProvider) {
-                //Log.e("EasyLocation","LocationHandler NativeProvider => on provider state change : "+state);
+                onProviderState(state);
             }
         });
     }
 
+    /**
+     * An active request gave no fix in time : the provider is back to passive updates, the next
+     * {@link #requireUpdate()} retries
+     */
+    private void onProviderState(int state) {
+        if (state != LocationProvider.STATE_TIMEOUT)
+            return;
+
+        Log.e("EasyLocation", "LocationHandler#onProviderState() update timed out");
+
+        mUpdateRequired = false;
+        triggerLocationError("Location update timed out");
+    }
+
     /**
      * Puisque le noyeau de localisation est passif, il est possible qu'on veuille recevoir une
      * update. L'appel à cette fonction permet d'envoyer une requête de localisation active au
@@ -100,9 +340,178 @@ public class LocationHandler {
     public void requireUpdate() {
         Log.i("EasyLocation", "LocationHandler#requireUpdate()");
 
+        mUpdateRequired = true;
+
+        // served even while stationary, only the continuous requests are suspended
         mPassiveLocationProvider.requireUpdate();
     }
 
+    /**
+     * Same as {@link #requireUpdate()} for the periodic updates of an
+     * {@link AdaptiveUpdateScheduler} : like the continuous requests, they are deferred while the
+     * device is stationary, and sent once it moves
+     */
+    void requirePeriodicUpdate() {
+        if (isSuspended()) {
+            Log.i("EasyLocation", "LocationHandler#requirePeriodicUpdate() deferred until motion");
+
+            mPeriodicUpdateDeferred = true;
+            return;
+        }
+
+        requireUpdate();
+    }
+
+    /**
+     * Same as {@link #requireUpdate()}, with the given profile for this request and the next
+     * ones, see {@link #setProfile(LocationProfile)}
+     */
+    public void requireUpdate(LocationProfile profile) {
+        setProfile(profile);
+        requireUpdate();
+    }
+
+    /**
+     * Withdraw the active location request sent by {@link #requireUpdate()}. The location
+     * service goes back to passive updates.
+     */
+    public void cancelUpdate() {
+        Log.i("EasyLocation", "LocationHandler#cancelUpdate()");
+
+        mUpdateRequired = false;
+
+        // the subscribers with requirements still need their continuous request
+        if (!mContinuous)
+            mPassiveLocationProvider.cancelUpdate();
+    }
+
+    /**
+     * @return true if the continuous requests are suspended because the device is stationary
+     */
+    private boolean isSuspended() {
+        final MotionDetector motionDetector = mMotionDetector;
+
+        return motionDetector != null && motionDetector.isStationary();
+    }
+
+    /**
+     * Suspend the continuous requests, those of the subscribers with requirements and of an
+     * {@link AdaptiveUpdateScheduler}, while the device is stationary : they are withdrawn when
+     * the device stops, and sent again when it moves. The one-shot requests of
+     * {@link #requireUpdate()} are still served. The detector is fed with the kept fixes.
+     *
+     * @param motionDetector the detector, or null to stop suspending the requests
+     */
+    public void setMotionDetector(@Nullable MotionDetector motionDetector) {
+        if (mMotionDetector != null)
+            mMotionDetector.setListener(null);
+
+        mMotionDetector = motionDetector;
+
+        if (motionDetector != null)
+            motionDetector.setListener(mMotionListener);
+    }
+
+    /**
+     * Set how often the active requests deliver fixes, see {@link AdaptiveUpdateScheduler} to
+     * adapt it to the speed of the device
+     *
+     * @param intervalMillis             the interval between two fixes, in milliseconds
+     * @param smallestDisplacementMeters the minimum distance between two fixes, in meters
+     */
+    public void setUpdateInterval(long intervalMillis, float smallestDisplacementMeters) {
+        if (intervalMillis <= 0)
+            throw new IllegalArgumentException("interval must be positive");
+
+        setProfile(mProfile.withInterval(intervalMillis, smallestDisplacementMeters));
+    }
+
+    /**
+     * Set the interval of the {@link AdaptiveUpdateScheduler} tracking the device, as
+     * {@link #setUpdateInterval(long, float)}. While the subscribers need a continuous request,
+     * it is also merged with their requirements
+     *
+     * @param intervalMillis the interval between two fixes, in milliseconds, 0 when the tracking
+     *                       stops
+     */
+    void setTrackingInterval(long intervalMillis, float smallestDisplacementMeters) {
+        synchronized (this) {
+            mTrackingInterval = intervalMillis;
+        }
+
+        if (intervalMillis > 0)
+            setUpdateInterval(intervalMillis, smallestDisplacementMeters);
+
+        updateRequirements();
+    }
+
+    /**
+     * Set the accuracy the active requests need, the cheapest way to get it is used
+     *
+     * @param accuracyMeters the accuracy, in meters
+     */
+    public void setUpdateAccuracy(float accuracyMeters) {
+        if (accuracyMeters <= 0)
+            throw new IllegalArgumentException("accuracy must be positive");
+
+        setProfile(mProfile.withAccuracy(accuracyMeters));
+    }
+
+    /**
+     * Set the power/accuracy trade-off of the active requests, {@link LocationProfile#HIGH_ACCURACY}
+     * by default. A pending request switches to the new profile right away.
+     *
+     * @param profile the profile, such as {@link LocationProfile#BALANCED} or
+     *                {@link LocationProfile#batched(long, long)}
+     */
+    public void setProfile(LocationProfile profile) {
+        if (profile == null)
+            throw new NullPointerException("Profile cannot be null");
+
+        mProfile = profile;
+
+        // the requirements of the subscribers prevail
+        if (!mContinuous)
+            mPassiveLocationProvider.setProfile(profile);
+    }
+
+    /**
+     * Let the active requests hold the locations back for up to the given time, and deliver them
+     * together to the {@link BatchListener}s. The other listeners still receive them one by one.
+     *
+     * @param maxWaitTimeMillis the maximum time between two deliveries, in milliseconds, at least
+     *                          the interval of the profile, 0 to deliver the locations at once
+     */
+    public void setMaxWaitTime(long maxWaitTimeMillis) {
+        setProfile(mProfile.withMaxWaitTime(maxWaitTimeMillis));
+    }
+
+    public LocationProfile getProfile() {
+        return mProfile;
+    }
+
+    /**
+     * Set the budget of an active request, {@link #DEFAULT_UPDATE_TIMEOUT} by default. Without fix
+     * in time, the request is withdrawn so that the radio does not stay in high accuracy mode, and
+     * the listeners receive a location error. The next {@link #requireUpdate()} retries.
+     *
+     * @param timeoutMillis the budget, in milliseconds, 0 to never give up a request
+     */
+    public void setUpdateTimeout(long timeoutMillis) {
+        if (timeoutMillis < 0)
+            throw new IllegalArgumentException("timeout cannot be negative");
+
+        mUpdateTimeout = timeoutMillis;
+        mPassiveLocationProvider.setUpdateTimeout(timeoutMillis);
+    }
+
+    /**
+     * @return the lease of this handler on the shared provider in use
+     */
+    public LocationProvider getLocationProvider() {
+        return mPassiveLocationProvider;
+    }
+
     public Location getLocation() {
         //Log.e("EasyLocation","LocationHandler#getLocation() => "+mLastLocation);
 
@@ -117,7 +526,7 @@ public class LocationHandler {
 
     /**
      * Met à jour la localisation du bean et alerte tous les listeners à condition que la nouvelle
-     * localisation soit plus neuve que l'ancienne localisation.
+     * localisation soit acceptée par les filtres, voir {@link #addLocationFilter(Filter)}.
      *
      * @param location
      */
@@ -126,12 +535,83 @@ public class LocationHandler {
         if (location == null)
             return;
 
-        if (mLastLocation == null || mLastLocation.getTime() < location.getTime()) {
-            mLastLocation = location;
-            triggerLocationChanged();
-        } else {
-            //Log.e("EasyLocation","BaseLocationService::setLocation() not kept");
+        final Location current = mLastLocation;
+        Location kept = location;
+
+        for (Filter filter : mFilters.snapshot()) {
+            kept = filter.filter(kept, current);
+
+            if (kept == null) {
+                //Log.e("EasyLocation","BaseLocationService::setLocation() not kept");
+                return;
+            }
+        }
+
+        final boolean completesUpdate = mUpdateRequired;
+
+        mLastLocation = kept;
+        mUpdateRequired = false;
+
+        if (mBatch != null)
+            mBatch.add(kept);
+
+        final MotionDetector motionDetector = mMotionDetector;
+        if (motionDetector != null)
+            motionDetector.onLocation(kept);
+
+        // the one-shot request is served, the suspended continuous one is withdrawn again
+        if (completesUpdate && mContinuous && isSuspended())
+            mPassiveLocationProvider.cancelUpdate();
+
+        triggerLocationChanged();
+    }
+
+    /**
+     * Met à jour la localisation avec un lot de localisations, la plus ancienne d'abord. Chaque
+     * localisation passe par les filtres, les {@link BatchListener}s reçoivent celles qui sont
+     * gardées en une fois.
+     *
+     * @param locations
+     */
+    protected void setLocations(List<Location> locations) {
+        mBatch = new ArrayList<>(locations.size());
+
+        final List<Location> batch;
+        try {
+            for (Location location : locations)
+                setLocation(location);
+        } finally {
+            batch = mBatch;
+            mBatch = null;
         }
+
+        if (!batch.isEmpty())
+            triggerLocationsChanged(batch);
+    }
+
+    /**
+     * Add a stage to the pipeline selecting the fixes to keep. Stages run in the order they were
+     * added, the first one being an {@link AccuracyScoringFilter}. Without any stage, every fix is
+     * kept.
+     *
+     * @param filter the stage to add at the end of the pipeline
+     */
+    public void addLocationFilter(Filter filter) {
+        if (filter == null)
+            throw new NullPointerException("Filter cannot be null");
+
+        mFilters.add(filter);
+    }
+
+    public void removeLocationFilter(Filter filter) {
+        mFilters.remove(filter);
+    }
+
+    /**
+     * Remove every stage, including the default {@link AccuracyScoringFilter}
+     */
+    public void clearLocationFilters() {
+        mFilters.clear();
     }
 
     /**
@@ -143,8 +623,7 @@ public class LocationHandler {
         if (listener == null)
             throw new NullPointerException("Listener cannot be null");
 
-        if (!mListeners.contains(listener))
-            mListeners.add(listener);
+        mListeners.add(listener);
     }
 
     /**
@@ -157,13 +636,286 @@ public class LocationHandler {
         mListeners.remove(listener);
     }
 
+    /**
+     * Subscribe to the location stream. Unlike listeners, subscribers get the locations at their
+     * own pace : nothing is delivered until requested with {@link Subscription#request(long)}, and
+     * deliveries happen on a background thread, so that a slow subscriber does not slow down the
+     * location providers nor the other subscribers.
+     *
+     * @param subscriber the subscriber
+     * @param strategy   what to do with the locations produced faster than requested
+     * @return the subscription, also given to {@link Subscriber#onSubscribe(Subscription)}
+     */
+    public Subscription subscribe(Subscriber subscriber, OverflowStrategy strategy) {
+        return subscribe(subscriber, strategy, getSubscriptionExecutor());
+    }
+
+    /**
+     * Same as {@link #subscribe(Subscriber, OverflowStrategy)}, with deliveries run on the given
+     * executor. Deliveries to one subscriber never run concurrently.
+     */
+    public Subscription subscribe(Subscriber subscriber, OverflowStrategy strategy, Executor executor) {
+        return subscribe(subscriber, strategy, null, executor, Scheduler.SYSTEM);
+    }
+
+    /**
+     * Same as {@link #subscribe(Subscriber, OverflowStrategy)}, for a subscriber with its own
+     * requirements. While such subscribers are subscribed, a single continuous request satisfying
+     * all of them is sent to the provider, and each subscriber only receives the locations
+     * matching its requirements. The current location is delivered right away if it matches.
+     * Call from the main thread, like {@link #requireUpdate()}.
+     */
+    public Subscription subscribe(Subscriber subscriber, OverflowStrategy strategy, LocationRequirements requirements) {
+        return subscribe(subscriber, strategy, requirements, getSubscriptionExecutor());
+    }
+
+    public Subscription subscribe(Subscriber subscriber, OverflowStrategy strategy,
+                                  LocationRequirements requirements, Executor executor) {
+        if (requirements == null)
+            throw new NullPointerException();
+
+        return subscribe(subscriber, strategy, requirements, executor, Scheduler.SYSTEM);
+    }
+
+    Subscription subscribe(Subscriber subscriber, OverflowStrategy strategy, @Nullable LocationRequirements requirements,
+                           Executor executor, Scheduler scheduler) {
+        if (subscriber == null || strategy == null || executor == null)
+            throw new NullPointerException();
+
+        final LocationSubscription subscription = new LocationSubscription(this, subscriber, strategy,
+                requirements, executor, scheduler);
+        mSubscriptions.add(subscription);
+
+        subscriber.onSubscribe(subscription);
+
+        if (requirements != null) {
+            final Location location = mLastLocation;
+            if (location != null)
+                subscription.offer(location);
+
+            updateRequirements();
+        }
+
+        return subscription;
+    }
+
+    void unsubscribe(LocationSubscription subscription) {
+        if (mSubscriptions.remove(subscription) && subscription.getRequirements() != null)
+            updateRequirements();
+    }
+
+    /**
+     * Merge the requirements of the subscribers into the cheapest request satisfying all of
+     * them : the shortest interval and the best accuracy. The tracking of an
+     * {@link AdaptiveUpdateScheduler} is merged as well, with the accuracy of the profile
+     */
+    private synchronized void updateRequirements() {
+        long interval = Long.MAX_VALUE;
+        float accuracy = Float.MAX_VALUE;
+        boolean required = false;
+
+        for (LocationSubscription subscription : mSubscriptions.snapshot()) {
+            final LocationRequirements requirements = subscription.getRequirements();
+
+            if (requirements == null)
+                continue;
+
+            required = true;
+            interval = Math.min(interval, requirements.interval);
+            accuracy = Math.min(accuracy, requirements.accuracy);
+        }
+
+        if (required) {
+            if (mTrackingInterval > 0) {
+                interval = Math.min(interval, mTrackingInterval);
+                accuracy = Math.min(accuracy, mProfile.accuracy);
+            }
+
+            Log.i("EasyLocation", "LocationHandler#updateRequirements() " + interval + " ms, " + accuracy + " m");
+
+            mPassiveLocationProvider.setProfile(new LocationProfile(interval, 0, accuracy, 0));
+
+            if (!mContinuous) {
+                mContinuous = true;
+                mPassiveLocationProvider.setContinuous(true);
+
+                if (!isSuspended())
+                    mPassiveLocationProvider.requireUpdate();
+            }
+        } else if (mContinuous) {
+            Log.i("EasyLocation", "LocationHandler#updateRequirements() none");
+
+            mContinuous = false;
+            mPassiveLocationProvider.setContinuous(false);
+            mPassiveLocationProvider.setProfile(mProfile);
+
+            // an update required meanwhile completes with the next fix
+            if (!mUpdateRequired)
+                mPassiveLocationProvider.cancelUpdate();
+        }
+    }
+
+    /**
+     * Set the thread of the providers created from now on, the main thread by default. The fixes
+     * are filtered and the listeners notified on this thread, unless a listener executor is set,
+     * see {@link #setListenerExecutor(Executor)}. Call it before creating the first handler, the
+     * providers already running keep their thread.
+     *
+     * @param looper the looper of the thread, null for the main thread
+     */
+    public static synchronized void setProviderLooper(@Nullable Looper looper) {
+        sProviderLooper = looper;
+    }
+
+    /**
+     * Run the providers created from now on on a background thread of the library, so that the
+     * processing of the fixes does not compete with the UI, see {@link #setProviderLooper(Looper)}
+     *
+     * @return the looper of the thread
+     */
+    public static synchronized Looper startProviderThread() {
+        if (sProviderLooper == null || sProviderLooper == Looper.getMainLooper()) {
+            final HandlerThread thread = new HandlerThread("EasyLocation-provider",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+
+            sProviderLooper = thread.getLooper();
+        }
+
+        return sProviderLooper;
+    }
+
+    /**
+     * Let the providers created from now on use the FusedLocationProviderClient of the Play
+     * services, see {@link FusedClientLocationProvider} : the first fix does not wait for the
+     * connection of a GoogleApiClient. Call it before creating the first handler.
+     *
+     * @param enabled true to use the FusedLocationProviderClient, false to use the GoogleApiClient
+     */
+    public static synchronized void setFusedClientEnabled(boolean enabled) {
+        sFusedClientEnabled = enabled;
+    }
+
+    private static PassiveLocationProvider createGoogleProvider(Context context, Looper looper) {
+        final boolean fusedClientEnabled;
+
+        synchronized (LocationHandler.class) {
+            fusedClientEnabled = sFusedClientEnabled;
+        }
+
+        if (fusedClientEnabled)
+            return new FusedClientLocationProvider(context, null, looper);
+
+        return new GoogleLocationProvider(context, null, looper);
+    }
+
+    /**
+     * Let the native providers created from now on race the GPS and the network for the first
+     * fix of the one-shot GPS requests, enabled by default, see
+     * {@link NativeLocationProvider#setFirstFixRaceEnabled(boolean)}. Call it before creating the
+     * first handler.
+     */
+    public static synchronized void setFirstFixRaceEnabled(boolean enabled) {
+        sFirstFixRaceEnabled = enabled;
+    }
+
+    /**
+     * Set the thresholds of the first fix race of the native providers created from now on. Call
+     * it before creating the first handler.
+     *
+     * @param firstFixAccuracyMeters a fix this accurate is delivered at once, 200 meters by default
+     * @param deadlineMillis         how long the fixes are improved, in milliseconds, 30 seconds by
+     *                               default
+     */
+    public static synchronized void setFirstFixRaceThresholds(float firstFixAccuracyMeters, long deadlineMillis) {
+        if (firstFixAccuracyMeters <= 0)
+            throw new IllegalArgumentException("accuracy must be positive");
+
+        if (deadlineMillis <= 0)
+            throw new IllegalArgumentException("deadline must be positive");
+
+        sFirstFixAccuracy = firstFixAccuracyMeters;
+        sFirstFixDeadline = deadlineMillis;
+    }
+
+    /**
+     * @param provider {@link android.location.LocationManager#GPS_PROVIDER} or
+     *                 {@link android.location.LocationManager#NETWORK_PROVIDER}
+     * @return the time to first fix of the source in the races of all the native providers, null
+     * if it never gave a fix
+     */
+    @Nullable
+    public static TimeToFirstFix getTimeToFirstFix(String provider) {
+        return FirstFixStatistics.SHARED.get(provider);
+    }
+
+    private static PassiveLocationProvider createNativeProvider(Context context, Looper looper) {
+        final boolean raceEnabled;
+        final float firstFixAccuracy;
+        final long deadline;
+
+        synchronized (LocationHandler.class) {
+            raceEnabled = sFirstFixRaceEnabled;
+            firstFixAccuracy = sFirstFixAccuracy;
+            deadline = sFirstFixDeadline;
+        }
+
+        final NativeLocationProvider provider = new NativeLocationProvider(context, null, looper);
+        provider.setFirstFixRaceEnabled(raceEnabled);
+        provider.setFirstFixRaceThresholds(firstFixAccuracy, deadline);
+
+        return provider;
+    }
+
+    static synchronized Looper getProviderLooper() {
+        return sProviderLooper != null ? sProviderLooper : Looper.getMainLooper();
+    }
+
+    /**
+     * Notify the listeners with the given executor, such as {@link Promise#mainThread()} to get
+     * the events back on the main thread while the providers run on a background one. The
+     * subscribers have their own executor.
+     *
+     * @param executor the executor, null to notify the listeners on the thread of the provider
+     */
+    public void setListenerExecutor(@Nullable Executor executor) {
+        mListenerExecutor = executor;
+    }
+
+    /**
+     * Run the task notifying the listeners, on the listener executor if any
+     */
+    protected void deliver(Runnable task) {
+        final Executor executor = mListenerExecutor;
+
+        if (executor == null)
+            task.run();
+        else
+            executor.execute(task);
+    }
+
+    private static synchronized Executor getSubscriptionExecutor() {
+        if (sSubscriptionExecutor == null) {
+            sSubscriptionExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "EasyLocation-subscription");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return sSubscriptionExecutor;
+    }
+
     /**
      * Active les listeners à propos d'une erreur du noyeau de localisation
      *
      * @param message le message d'erreur
      */
     protected void triggerLocationError(final String message) {
-        LocationErrorEvent event = new LocationErrorEvent() {
+        final LocationErrorEvent event = new LocationErrorEvent() {
             @Override
             public LocationHandler getLocationService() {
                 return LocationHandler.this;
@@ -175,8 +927,18 @@ public class LocationHandler {
             }
         };
 
-        for (Listener listener : mListeners) {
-            listener.onLocationError(event);
+        final Listener[] listeners = mListeners.snapshot();
+        deliver(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : listeners) {
+                    listener.onLocationError(event);
+                }
+            }
+        });
+
+        for (LocationSubscription subscription : mSubscriptions.snapshot()) {
+            subscription.offerError(message);
         }
     }
 
@@ -187,23 +949,68 @@ public class LocationHandler {
     protected void triggerLocationChanged() {
         //Log.e("EasyLocation","BaseLocationService::triggerLocationChanged()");
 
-        LocationChangedEvent event = new LocationChangedEvent() {
-            @Override
-            public LocationHandler getLocationService() {
-                return LocationHandler.this;
-            }
+        final boolean batching = mBatch != null;
+        final Location location = getLocation();
 
-            @Override
-            public Location getLocation() {
-                return LocationHandler.this.getLocation();
-            }
-        };
+        if (mListenerExecutor == null) {
+            notifyLocationChanged(mListeners.snapshot(), mLocationChangedEvent, batching);
+        } else {
+            // the listeners run later, the event keeps the current location
+            final Listener[] listeners = mListeners.snapshot();
+            final LocationChangedEvent event = new LocationChangedEvent() {
+                @Override
+                public LocationHandler getLocationService() {
+                    return LocationHandler.this;
+                }
+
+                @Override
+                public Location getLocation() {
+                    return location;
+                }
+            };
+
+            deliver(new Runnable() {
+                @Override
+                public void run() {
+                    notifyLocationChanged(listeners, event, batching);
+                }
+            });
+        }
+
+        for (LocationSubscription subscription : mSubscriptions.snapshot()) {
+            subscription.offer(location);
+        }
+    }
+
+
+    private static void notifyLocationChanged(Listener[] listeners, LocationChangedEvent event, boolean batching) {
+        for (Listener listener : listeners) {
+            // the batch listeners receive the whole batch at its end
+            if (batching && listener instanceof BatchListener)
+                continue;
 
-        for (Listener listener : mListeners) {
             listener.onLocationChanged(event);
         }
     }
 
+    /**
+     * active les batch listeners à propos d'un lot de localisations
+     */
+    protected void triggerLocationsChanged(List<Location> locations) {
+        final List<Location> batch = Collections.unmodifiableList(locations);
+        final Listener[] listeners = mListeners.snapshot();
+
+        deliver(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : listeners) {
+                    if (listener instanceof BatchListener)
+                        ((BatchListener) listener).onLocationsChanged(batch);
+                }
+            }
+        });
+    }
+
 
     public interface Listener {
         void onLocationChanged(LocationChangedEvent event);
@@ -211,6 +1018,64 @@ public class LocationHandler {
         void onLocationError(LocationErrorEvent event);
     }
 
+    /**
+     * A listener receiving the batched locations in one call, see {@link #setMaxWaitTime(long)}.
+     * The single locations still go through {@link #onLocationChanged(LocationChangedEvent)}.
+     */
+    public interface BatchListener extends Listener {
+        /**
+         * @param locations the locations kept from the batch, oldest first
+         */
+        void onLocationsChanged(List<Location> locations);
+    }
+
+    /**
+     * A stage of the pipeline selecting the fixes kept by a {@link LocationHandler}. Stages are
+     * called on the thread delivering the fixes and should not allocate nor block.
+     */
+    public interface Filter {
+        /**
+         * @param candidate the fix, as returned by the previous stage
+         * @param current   the location currently kept by the handler, null if none
+         * @return the fix to pass to the next stage, possibly corrected, or null to reject it
+         */
+        @Nullable
+        Location filter(Location candidate, @Nullable Location current);
+    }
+
+    /**
+     * Receives the locations of a {@link LocationHandler} at its own pace, see
+     * {@link #subscribe(Subscriber, OverflowStrategy)}
+     */
+    public interface Subscriber {
+        /**
+         * Called once, when subscribing, before any other call
+         */
+        void onSubscribe(Subscription subscription);
+
+        /**
+         * Called with each requested location
+         */
+        void onNext(Location location);
+
+        /**
+         * Called when the location service reports an error. The subscription goes on
+         */
+        void onError(String message);
+    }
+
+    public interface Subscription {
+        /**
+         * Request n more locations. Long.MAX_VALUE requests all the locations
+         */
+        void request(long n);
+
+        /**
+         * Stop receiving locations
+         */
+        void cancel();
+    }
+
     public interface OpenEvent {
 
     }
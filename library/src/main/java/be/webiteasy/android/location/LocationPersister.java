@@ -0,0 +1,183 @@
+package be.webiteasy.android.location;
+
+import android.content.ComponentCallbacks2;
+import android.content.SharedPreferences;
+import android.content.res.Configuration;
+import android.support.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Persistence stage for locations. Writes are coalesced : only the latest location of each key
+ * is kept in memory and written to the {@link Storage} at most once per flush interval, when the
+ * application goes to background or when {@link #flush()} is called.
+ */
+class LocationPersister implements ComponentCallbacks2 {
+
+    private final Storage mStorage;
+
+    private final Scheduler mScheduler;
+
+    private final Object mLock = new Object();
+
+    // Held from the snapshot of the pending locations to their write, so that the snapshots are
+    // written in order. Taken before mLock, the puts do not wait for the writes
+    private final Object mWriteLock = new Object();
+
+    // The locations waiting to be written, by key
+    private final Map<String, android.location.Location> mPending = new HashMap<>();
+
+    // The locations known by this persister, by key
+    private final Map<String, android.location.Location> mLocations = new HashMap<>();
+
+    private long mFlushInterval;
+
+    private Scheduler.Cancellable mScheduledFlush;
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param storage       where the locations are written
+     * @param scheduler     the scheduler used to delay the writes
+     * @param flushInterval the maximum delay before a location is written, in milliseconds. When
+     *                      0, every location is written right away
+     */
+    LocationPersister(Storage storage, Scheduler scheduler, long flushInterval) {
+        mStorage = storage;
+        mScheduler = scheduler;
+        mFlushInterval = flushInterval;
+    }
+
+    void setFlushInterval(long flushInterval) {
+        synchronized (mLock) {
+            mFlushInterval = flushInterval;
+        }
+    }
+
+    /**
+     * Returns the latest location stored for the given key, written or not
+     */
+    @Nullable
+    android.location.Location get(String key) {
+        synchronized (mLock) {
+            if (mLocations.containsKey(key))
+                return mLocations.get(key);
+        }
+
+        final android.location.Location location = LocationCodec.decode(mStorage.read(key));
+
+        synchronized (mLock) {
+            if (!mLocations.containsKey(key))
+                mLocations.put(key, location);
+
+            return mLocations.get(key);
+        }
+    }
+
+    /**
+     * Store a location. The write is delayed up to the flush interval and replaced by any
+     * location put for the same key in the meantime
+     */
+    void put(String key, @Nullable android.location.Location location) {
+        final boolean writeNow;
+
+        synchronized (mLock) {
+            mLocations.put(key, location);
+            mPending.put(key, location);
+
+            writeNow = mFlushInterval <= 0;
+
+            if (!writeNow && mScheduledFlush == null)
+                mScheduledFlush = mScheduler.schedule(mFlushTask, mFlushInterval);
+        }
+
+        if (writeNow)
+            flush();
+    }
+
+    /**
+     * Write all pending locations now. Concurrent flushes are serialized, an older snapshot is
+     * never written after a newer one
+     */
+    void flush() {
+        synchronized (mWriteLock) {
+            final Map<String, String> values;
+
+            synchronized (mLock) {
+                if (mScheduledFlush != null) {
+                    mScheduledFlush.cancel();
+                    mScheduledFlush = null;
+                }
+
+                if (mPending.isEmpty())
+                    return;
+
+                values = new HashMap<>(mPending.size());
+                for (Map.Entry<String, android.location.Location> entry : mPending.entrySet()) {
+                    values.put(entry.getKey(), LocationCodec.encode(entry.getValue()));
+                }
+
+                mPending.clear();
+            }
+
+            mStorage.write(values);
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_UI_HIDDEN)
+            flush();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+
+    }
+
+    @Override
+    public void onLowMemory() {
+        flush();
+    }
+
+    interface Storage {
+        @Nullable
+        String read(String key);
+
+        /**
+         * Write all values in a single operation
+         */
+        void write(Map<String, String> values);
+    }
+
+    static class SharedPreferencesStorage implements Storage {
+        private final SharedPreferences mPreferences;
+
+        SharedPreferencesStorage(SharedPreferences preferences) {
+            mPreferences = preferences;
+        }
+
+        @Nullable
+        @Override
+        public String read(String key) {
+            return mPreferences.getString(key, null);
+        }
+
+        @Override
+        public void write(Map<String, String> values) {
+            SharedPreferences.Editor editor = mPreferences.edit();
+
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                editor.putString(entry.getKey(), entry.getValue());
+            }
+
+            editor.apply();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package be.webiteasy.android.location;
+
+/**
+ * The power/accuracy trade-off of the active requests : how often the locations come, how
+ * accurate they are, and how long they may be held back to be delivered in batches. The providers
+ * map the accuracy to the cheapest way of getting it : GPS up to 100 meters, Wi-Fi and cell towers
+ * beyond.
+ */
+public final class LocationProfile {
+
+    /**
+     * GPS fixes every 4 seconds
+     */
+    public static final LocationProfile HIGH_ACCURACY = new LocationProfile(
+            LocationHandler.DEFAULT_UPDATE_INTERVAL, 0, LocationHandler.DEFAULT_UPDATE_ACCURACY, 0);
+
+    /**
+     * Block level fixes, about 100 meters, every 10 seconds
+     */
+    public static final LocationProfile BALANCED = new LocationProfile(10 * 1000, 0, 100, 0);
+
+    /**
+     * City level fixes, about 10 kilometers, every minute
+     */
+    public static final LocationProfile LOW_POWER = new LocationProfile(60 * 1000, 0, 10 * 1000, 0);
+
+    final long interval;
+
+    final float smallestDisplacement;
+
+    final float accuracy;
+
+    final long maxWaitTime;
+
+    /**
+     * @param intervalMillis             the interval between two locations, in milliseconds
+     * @param smallestDisplacementMeters the minimum distance between two locations, in meters
+     * @param accuracyMeters             the accuracy the locations need, in meters
+     * @param maxWaitTimeMillis          how long the locations may be held back to be delivered
+     *                                   in batches, in milliseconds, 0 to deliver them at once
+     */
+    public LocationProfile(long intervalMillis, float smallestDisplacementMeters, float accuracyMeters,
+                           long maxWaitTimeMillis) {
+        if (intervalMillis < 0)
+            throw new IllegalArgumentException("interval cannot be negative");
+
+        if (smallestDisplacementMeters < 0)
+            throw new IllegalArgumentException("smallest displacement cannot be negative");
+
+        if (accuracyMeters <= 0)
+            throw new IllegalArgumentException("accuracy must be positive");
+
+        if (maxWaitTimeMillis != 0 && maxWaitTimeMillis < intervalMillis)
+            throw new IllegalArgumentException("max wait time must be 0 or at least the interval");
+
+        interval = intervalMillis;
+        smallestDisplacement = smallestDisplacementMeters;
+        accuracy = accuracyMeters;
+        maxWaitTime = maxWaitTimeMillis;
+    }
+
+    /**
+     * Balanced fixes, held back and delivered in batches : the device can sleep between two
+     * deliveries
+     *
+     * @param intervalMillis    the interval between two locations, in milliseconds
+     * @param maxWaitTimeMillis the maximum time between two deliveries, in milliseconds
+     */
+    public static LocationProfile batched(long intervalMillis, long maxWaitTimeMillis) {
+        return new LocationProfile(intervalMillis, 0, BALANCED.accuracy, maxWaitTimeMillis);
+    }
+
+    public LocationProfile withInterval(long intervalMillis, float smallestDisplacementMeters) {
+        return new LocationProfile(intervalMillis, smallestDisplacementMeters, accuracy,
+                maxWaitTime == 0 ? 0 : Math.max(maxWaitTime, intervalMillis));
+    }
+
+    public LocationProfile withAccuracy(float accuracyMeters) {
+        return new LocationProfile(interval, smallestDisplacement, accuracyMeters, maxWaitTime);
+    }
+
+    public LocationProfile withMaxWaitTime(long maxWaitTimeMillis) {
+        return new LocationProfile(interval, smallestDisplacement, accuracy, maxWaitTimeMillis);
+    }
+
+    /**
+     * @return the profile satisfying both this one and the other : the shortest interval and wait,
+     * the best accuracy
+     */
+    LocationProfile merge(LocationProfile other) {
+        final long interval = Math.min(this.interval, other.interval);
+        long maxWaitTime = Math.min(this.maxWaitTime, other.maxWaitTime);
+
+        if (maxWaitTime != 0)
+            maxWaitTime = Math.max(maxWaitTime, interval);
+
+        return new LocationProfile(interval,
+                Math.min(smallestDisplacement, other.smallestDisplacement),
+                Math.min(accuracy, other.accuracy),
+                maxWaitTime);
+    }
+
+    /**
+     * @return true if the providers use the GPS for this profile
+     */
+    boolean needsGps() {
+        return accuracy < 100;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    public float getSmallestDisplacement() {
+        return smallestDisplacement;
+    }
+
+    public float getAccuracy() {
+        return accuracy;
+    }
+
+    public long getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+
+        if (!(o instanceof LocationProfile))
+            return false;
+
+        final LocationProfile other = (LocationProfile) o;
+
+        return interval == other.interval
+                && Float.compare(smallestDisplacement, other.smallestDisplacement) == 0
+                && Float.compare(accuracy, other.accuracy) == 0
+                && maxWaitTime == other.maxWaitTime;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (interval ^ (interval >>> 32));
+        result = 31 * result + Float.floatToIntBits(smallestDisplacement);
+        result = 31 * result + Float.floatToIntBits(accuracy);
+        result = 31 * result + (int) (maxWaitTime ^ (maxWaitTime >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "LocationProfile{" + interval + " ms, " + smallestDisplacement + " m, " + accuracy
+                + " m accurate, " + maxWaitTime + " ms wait}";
+    }
+}
@@ -3,6 +3,8 @@ package be.webiteasy.android.location;
 import android.location.Location;
 import android.support.annotation.Nullable;
 
+import java.util.List;
+
 /**
  * Le location provider permet de fournir des localisations
  */
@@ -16,12 +18,15 @@ public interface LocationProvider {
      *                   v       |
      *                    STOPPED
      *
+     * STARTED ---> TIMEOUT when an active request gives no fix in time : the provider is back
+     * to passive updates, and a new request starts it again
      */
     int STATE_INITIALIZING = 0;
     int STATE_STARTED = 1;
     int STATE_STOPPED = 2;
     int STATE_ERROR = 3;
     int STATE_DOWN = 4;
+    int STATE_TIMEOUT = 5;
 
     interface Listener {
         void onLocationChanged(Location location, LocationProvider locationProvider);
@@ -29,6 +34,26 @@ public interface LocationProvider {
         void onProviderStateChange(int state, LocationProvider locationProvider);
     }
 
+    /**
+     * Listener receiving the batched fixes at once, see {@link LocationProfile#batched(long, long)}.
+     * Other listeners receive them one by one.
+     */
+    interface BatchListener extends Listener {
+        /**
+         * @param locations the fixes of the batch, oldest first
+         */
+        void onLocationsChanged(List<Location> locations, LocationProvider locationProvider);
+    }
+
+    /**
+     * Provider holding a session beyond its updates, such as a connection to the Play services :
+     * {@link #release()} stops the provider and closes the session, {@link #start()} opens it
+     * again. The providers running other providers release them when stopped.
+     */
+    interface Releasable {
+        void release();
+    }
+
     /**
      * return the last known location ... or null if no location
      *
@@ -0,0 +1,49 @@
+package be.webiteasy.android.location;
+
+/**
+ * What a subscriber needs from the location stream, see
+ * {@link LocationHandler#subscribe(LocationHandler.Subscriber, OverflowStrategy, LocationRequirements)}.
+ * The requirements of all the subscribers are merged into a single provider request, then each
+ * subscriber only receives the locations matching its own requirements.
+ */
+public final class LocationRequirements {
+
+    final long interval;
+
+    final float accuracy;
+
+    final long maxAge;
+
+    /**
+     * @param intervalMillis the interval between two locations, in milliseconds : locations are
+     *                       requested at this rate and not delivered more often
+     * @param accuracyMeters the minimum accuracy of the locations, in meters
+     * @param maxAgeMillis   the maximum age of the locations, in milliseconds
+     */
+    public LocationRequirements(long intervalMillis, float accuracyMeters, long maxAgeMillis) {
+        if (intervalMillis < AdaptiveUpdateScheduler.MIN_INTERVAL)
+            throw new IllegalArgumentException("interval must be at least " + AdaptiveUpdateScheduler.MIN_INTERVAL);
+
+        if (accuracyMeters <= 0)
+            throw new IllegalArgumentException("accuracy must be positive");
+
+        if (maxAgeMillis < 0)
+            throw new IllegalArgumentException("max age cannot be negative");
+
+        interval = intervalMillis;
+        accuracy = accuracyMeters;
+        maxAge = maxAgeMillis;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    public float getAccuracy() {
+        return accuracy;
+    }
+
+    public long getMaxAge() {
+        return maxAge;
+    }
+}
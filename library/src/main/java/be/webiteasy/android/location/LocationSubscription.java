@@ -0,0 +1,246 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers the locations of a {@link LocationHandler} to one {@link LocationHandler.Subscriber},
+ * at the pace requested by the subscriber. Producing a location only stores it according to the
+ * {@link OverflowStrategy} and schedules a delivery on the executor : a slow subscriber never
+ * blocks the producer nor the other subscribers.
+ */
+class LocationSubscription implements LocationHandler.Subscription, Runnable {
+
+    private final LocationHandler mHandler;
+
+    private final LocationHandler.Subscriber mSubscriber;
+
+    private final OverflowStrategy mStrategy;
+
+    private final Executor mExecutor;
+
+    private final Scheduler mScheduler;
+
+    // Locations not matching them are not delivered, null if none
+    private final LocationRequirements mRequirements;
+
+    // Time of the last location matching the requirements, guarded by mQueue
+    private long mLastAccepted = Long.MIN_VALUE;
+
+    // Locations waiting for delivery, guarded by itself
+    private final ArrayDeque<Location> mQueue = new ArrayDeque<>();
+
+    // Error waiting for delivery, guarded by mQueue
+    private String mError;
+
+    // Requested and not yet delivered locations
+    private final AtomicLong mRequested = new AtomicLong();
+
+    // Delivery loop guard : count of signals not yet processed
+    private final AtomicInteger mWip = new AtomicInteger();
+
+    private volatile boolean mCancelled = false;
+
+    // Time of the last delivery, for sampling, only accessed by the delivery loop
+    private long mLastDelivery = Long.MIN_VALUE;
+
+    private Scheduler.Cancellable mScheduledDelivery;
+
+    private final Runnable mSignal = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mQueue) {
+                mScheduledDelivery = null;
+            }
+
+            signal();
+        }
+    };
+
+    LocationSubscription(LocationHandler handler, LocationHandler.Subscriber subscriber,
+                         OverflowStrategy strategy, @Nullable LocationRequirements requirements,
+                         Executor executor, Scheduler scheduler) {
+        mHandler = handler;
+        mSubscriber = subscriber;
+        mStrategy = strategy;
+        mRequirements = requirements;
+        mExecutor = executor;
+        mScheduler = scheduler;
+    }
+
+    @Nullable
+    LocationRequirements getRequirements() {
+        return mRequirements;
+    }
+
+    /**
+     * Store a location for delivery. Never blocks on the subscriber
+     */
+    void offer(Location location) {
+        if (mCancelled)
+            return;
+
+        synchronized (mQueue) {
+            if (!accepts(location))
+                return;
+
+            if (mStrategy.type != OverflowStrategy.BUFFER || mQueue.size() >= mStrategy.value)
+                mQueue.pollFirst();
+
+            mQueue.offerLast(location);
+        }
+
+        signal();
+    }
+
+    /**
+     * Check the requirements and downsample the locations to the required interval, with a 10%
+     * tolerance for the jitter of the providers
+     */
+    private boolean accepts(Location location) {
+        if (mRequirements == null)
+            return true;
+
+        if (location == null || !LocationTools.isQualified(location, mRequirements.maxAge, mRequirements.accuracy))
+            return false;
+
+        final long interval = mRequirements.interval - mRequirements.interval / 10;
+
+        if (mLastAccepted != Long.MIN_VALUE && location.getTime() - mLastAccepted < interval)
+            return false;
+
+        mLastAccepted = location.getTime();
+        return true;
+    }
+
+    /**
+     * Store an error for delivery. Errors do not need to be requested
+     */
+    void offerError(String message) {
+        if (mCancelled)
+            return;
+
+        synchronized (mQueue) {
+            mError = message;
+        }
+
+        signal();
+    }
+
+    @Override
+    public void request(long n) {
+        if (n <= 0)
+            throw new IllegalArgumentException("request must be positive");
+
+        long current;
+        long next;
+        do {
+            current = mRequested.get();
+            next = current + n;
+
+            // cap to "unbounded"
+            if (next < 0)
+                next = Long.MAX_VALUE;
+        } while (!mRequested.compareAndSet(current, next));
+
+        signal();
+    }
+
+    @Override
+    public void cancel() {
+        if (mCancelled)
+            return;
+
+        mCancelled = true;
+        mHandler.unsubscribe(this);
+
+        synchronized (mQueue) {
+            mQueue.clear();
+
+            if (mScheduledDelivery != null) {
+                mScheduledDelivery.cancel();
+                mScheduledDelivery = null;
+            }
+        }
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    private void signal() {
+        if (mWip.getAndIncrement() == 0)
+            mExecutor.execute(this);
+    }
+
+    /**
+     * Delivery loop. Only one thread at a time runs it
+     */
+    @Override
+    public void run() {
+        int missed = 1;
+
+        while (true) {
+            deliverError();
+
+            while (!mCancelled && mRequested.get() > 0) {
+                final Location location = poll();
+
+                if (location == null)
+                    break;
+
+                if (mRequested.get() != Long.MAX_VALUE)
+                    mRequested.decrementAndGet();
+
+                mSubscriber.onNext(location);
+            }
+
+            missed = mWip.addAndGet(-missed);
+            if (missed == 0)
+                return;
+        }
+    }
+
+    private void deliverError() {
+        final String error;
+
+        synchronized (mQueue) {
+            error = mError;
+            mError = null;
+        }
+
+        if (error != null && !mCancelled)
+            mSubscriber.onError(error);
+    }
+
+    /**
+     * @return the next location to deliver, or null if none is due
+     */
+    private Location poll() {
+        synchronized (mQueue) {
+            if (mQueue.isEmpty())
+                return null;
+
+            if (mStrategy.type == OverflowStrategy.SAMPLE && mLastDelivery != Long.MIN_VALUE) {
+                final long wait = mLastDelivery + mStrategy.value - mScheduler.now();
+
+                if (wait > 0) {
+                    if (mScheduledDelivery == null)
+                        mScheduledDelivery = mScheduler.schedule(mSignal, wait);
+
+                    return null;
+                }
+            }
+
+            if (mStrategy.type == OverflowStrategy.SAMPLE)
+                mLastDelivery = mScheduler.now();
+
+            return mQueue.pollFirst();
+        }
+    }
+}
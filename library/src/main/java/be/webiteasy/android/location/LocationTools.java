@@ -41,6 +41,36 @@ public class LocationTools {
         return location.getLatitude() + "," + location.getLongitude();
     }
 
+    /**
+     * @return the age of the location, in milliseconds
+     */
+    public static long getAge(Location location) {
+        return System.currentTimeMillis() - location.getTime();
+    }
+
+    /**
+     * Check that a location is fresh and accurate enough. A location without accuracy is only
+     * accepted if the accuracy is not constrained.
+     *
+     * @param location    the location to check
+     * @param maxAge      the maximum age of the location, in milliseconds
+     * @param maxAccuracy the maximum accuracy radius of the location, in meters
+     * @return true if the location matches both constraints
+     */
+    public static boolean isQualified(Location location, long maxAge, float maxAccuracy) {
+        return isQualified(location, maxAge, maxAccuracy, System.currentTimeMillis());
+    }
+
+    static boolean isQualified(Location location, long maxAge, float maxAccuracy, long now) {
+        if (now - location.getTime() > maxAge)
+            return false;
+
+        if (maxAccuracy == Float.MAX_VALUE)
+            return true;
+
+        return location.hasAccuracy() && location.getAccuracy() <= maxAccuracy;
+    }
+
     public static double distance(Location location1, Location location2) {
         return distanceDegrees(location1.getLatitude(), location1.getLongitude(),
                 location2.getLatitude(), location2.getLongitude());
@@ -73,9 +103,19 @@ public class LocationTools {
                 || ActivityCompat.checkSelfPermission(context, Manifest.permission.ACCESS_COARSE_LOCATION) == PackageManager.PERMISSION_GRANTED;
     }
 
+    // Resolved once, the support library is an optional dependency
+    private static final boolean ACTIVITY_COMPAT = isAvailable("android.support.v4.app.ActivityCompat");
+
     static boolean hasActivityCompat() {
+        return ACTIVITY_COMPAT;
+    }
+
+    /**
+     * @return true if the class of an optional dependency is in the classpath
+     */
+    static boolean isAvailable(String className) {
         try {
-            Class.forName("android.support.v4.app.ActivityCompat");
+            Class.forName(className);
             return true;
         } catch (ClassNotFoundException ex) {
             return false;
@@ -0,0 +1,200 @@
+package be.webiteasy.android.location;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.location.Location;
+import android.support.annotation.Nullable;
+
+/**
+ * Detects whether the device is moving or stationary. The device is stationary when there was
+ * no evidence of motion for a while : no fix away from the position where it stopped and, if the
+ * accelerometer is used, no acceleration.
+ *
+ * See {@link LocationHandler#setMotionDetector(MotionDetector)} to suspend the active requests
+ * while the device is stationary.
+ */
+public class MotionDetector {
+
+    public static final long DEFAULT_STATIONARY_DELAY = 1000 * 60 * 2;
+
+    /**
+     * Radius, in meters, the fixes of a stationary device stay in
+     */
+    public static final float DEFAULT_RADIUS = 30;
+
+    // Acceleration, in m/s² once the gravity removed, above which the device moves
+    static final float MOTION_ACCELERATION = 0.5f;
+
+    // Smoothing of the accelerometer samples
+    private static final float ACCELERATION_SMOOTHING = 0.2f;
+
+    public interface Listener {
+        void onMotionStateChanged(boolean stationary);
+    }
+
+    private final Scheduler mScheduler;
+
+    private final long mStationaryDelay;
+
+    private final float mRadius;
+
+    private Listener mListener;
+
+    private boolean mStationary = false;
+
+    // Time of the last evidence of motion, on the scheduler clock
+    private long mLastMotion;
+
+    // Where the device was when the last motion was detected
+    private boolean mHasAnchor = false;
+    private double mAnchorLatitude;
+    private double mAnchorLongitude;
+
+    private float mAcceleration = 0;
+
+    private SensorManager mSensorManager;
+
+    private final SensorEventListener mSensorListener = new SensorEventListener() {
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            onAcceleration(event.values[0], event.values[1], event.values[2]);
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        }
+    };
+
+    public MotionDetector() {
+        this(DEFAULT_STATIONARY_DELAY, DEFAULT_RADIUS);
+    }
+
+    /**
+     * @param stationaryDelayMillis the time without motion after which the device is stationary,
+     *                              in milliseconds
+     * @param radiusMeters          the radius the fixes of a stationary device stay in, in meters.
+     *                              Less accurate fixes use their accuracy instead
+     */
+    public MotionDetector(long stationaryDelayMillis, float radiusMeters) {
+        this(stationaryDelayMillis, radiusMeters, Scheduler.SYSTEM);
+    }
+
+    MotionDetector(long stationaryDelayMillis, float radiusMeters, Scheduler scheduler) {
+        if (radiusMeters <= 0)
+            throw new IllegalArgumentException("radius must be positive");
+
+        mStationaryDelay = stationaryDelayMillis;
+        mRadius = radiusMeters;
+        mScheduler = scheduler;
+        mLastMotion = scheduler.now();
+    }
+
+    public synchronized void setListener(@Nullable Listener listener) {
+        mListener = listener;
+    }
+
+    public synchronized boolean isStationary() {
+        return mStationary;
+    }
+
+    /**
+     * Use the accelerometer to detect motion as soon as it starts, even when no fix comes
+     *
+     * @return false if the device has no accelerometer
+     */
+    public synchronized boolean startAccelerometer(Context context) {
+        if (mSensorManager != null)
+            return true;
+
+        final SensorManager sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        final Sensor sensor = sensorManager == null ? null : sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+
+        if (sensor == null)
+            return false;
+
+        sensorManager.registerListener(mSensorListener, sensor, SensorManager.SENSOR_DELAY_NORMAL);
+        mSensorManager = sensorManager;
+        return true;
+    }
+
+    public synchronized void stopAccelerometer() {
+        if (mSensorManager == null)
+            return;
+
+        mSensorManager.unregisterListener(mSensorListener);
+        mSensorManager = null;
+    }
+
+    /**
+     * Feed a fix
+     */
+    public void onLocation(Location location) {
+        final boolean moved;
+
+        synchronized (this) {
+            if (!mHasAnchor) {
+                anchor(location);
+                moved = false;
+            } else {
+                final double distance = LocationTools.distanceDegrees(mAnchorLatitude, mAnchorLongitude,
+                        location.getLatitude(), location.getLongitude());
+                final float radius = location.hasAccuracy() ? Math.max(mRadius, location.getAccuracy()) : mRadius;
+
+                moved = distance > radius;
+
+                if (moved)
+                    anchor(location);
+            }
+        }
+
+        update(moved);
+    }
+
+    /**
+     * Feed an accelerometer sample, in m/s², gravity included
+     */
+    public void onAcceleration(float x, float y, float z) {
+        final boolean moved;
+
+        synchronized (this) {
+            final float deviation = Math.abs((float) Math.sqrt(x * x + y * y + z * z) - SensorManager.GRAVITY_EARTH);
+
+            mAcceleration += ACCELERATION_SMOOTHING * (deviation - mAcceleration);
+            moved = mAcceleration > MOTION_ACCELERATION;
+        }
+
+        update(moved);
+    }
+
+    private void anchor(Location location) {
+        mHasAnchor = true;
+        mAnchorLatitude = location.getLatitude();
+        mAnchorLongitude = location.getLongitude();
+    }
+
+    private void update(boolean moved) {
+        final Listener listener;
+        final boolean stationary;
+
+        synchronized (this) {
+            final long now = mScheduler.now();
+
+            if (moved)
+                mLastMotion = now;
+
+            stationary = now - mLastMotion >= mStationaryDelay;
+
+            if (stationary == mStationary)
+                return;
+
+            mStationary = stationary;
+            listener = mListener;
+        }
+
+        if (listener != null)
+            listener.onMotionStateChanged(stationary);
+    }
+}
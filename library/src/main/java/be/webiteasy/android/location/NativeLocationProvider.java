@@ -6,8 +6,10 @@ import android.location.LocationListener;
 import android.location.LocationManager;
 import android.location.LocationProvider;
 import android.os.Bundle;
+import android.os.Looper;
 import android.util.Log;
 
+import java.util.List;
 
 /**
  * TODO can change passive or not
@@ -18,22 +20,84 @@ public class NativeLocationProvider extends BaseLocationProvider implements Pass
 
     private boolean mUpdateRequired = false;
 
+    // Parameters of the active requests
+    private LocationProfile mProfile = new LocationProfile(1000, 2, LocationHandler.DEFAULT_UPDATE_ACCURACY, 0);
+
+    // Keep the active request after its first fix
+    private boolean mContinuous = false;
+
+    // The thread of the callbacks
+    private final Looper mLooper;
+
+    // Runs the watchdog, the race and the batches on the thread of the callbacks
+    private final Scheduler mScheduler;
+
+    // Expires the active requests giving no fix
+    private final UpdateWatchdog mWatchdog;
+
+    // Races the GPS and the network for the first fix of the one-shot GPS requests
+    private boolean mRaceEnabled = true;
+
+    private final FirstFixRace mRace;
+
+    // Holds the continuous fixes for the profiles with a max wait time
+    private final LocationBatcher mBatcher;
+
+    // Receives the network fixes of the race
+    final LocationListener mNetworkListener = new LocationListener() {
+        @Override
+        public void onLocationChanged(Location location) {
+            mRace.onFix(location, LocationManager.NETWORK_PROVIDER);
+        }
+
+        @Override
+        public void onStatusChanged(String provider, int status, Bundle extras) {
+        }
+
+        @Override
+        public void onProviderEnabled(String provider) {
+        }
+
+        @Override
+        public void onProviderDisabled(String provider) {
+        }
+    };
+
     LocationListener mLocationListener = new LocationListener() {
         @Override
         public void onLocationChanged(Location location) {
             Log.i("EasyLocation","NativeLocationProvider.LocationListner#onLocationChanged("+location+")");
 
-            setLocation(location);
+            if (mRace.isRunning()) {
+                mRace.onFix(location, LocationManager.GPS_PROVIDER);
+                return;
+            }
+
+            if (mContinuous && mUpdateRequired) {
+                mWatchdog.arm();
 
+                if (mBatcher.isBatching())
+                    mBatcher.add(location);
+                else
+                    setLocation(location);
+
+                return;
+            }
+
+            mWatchdog.disarm();
+            mBatcher.flush();
+
+            // back to passive before notifying, so that listeners can require a new update
             try {
                 mLocationManager.removeUpdates(mLocationListener);
-                mLocationManager.requestLocationUpdates(LocationManager.PASSIVE_PROVIDER,
-                        0, 0, mLocationListener);
+                requestPassiveUpdates();
 
                 mUpdateRequired = false;
             } catch (SecurityException e) {
                 setState(STATE_ERROR);
             }
+
+            setLocation(location);
         }
 
         @Override
@@ -66,8 +130,45 @@ public class NativeLocationProvider extends BaseLocationProvider implements Pass
      * @param listener
      */
     public NativeLocationProvider(Context context, Listener listener) {
+        this(context, listener, Looper.getMainLooper());
+    }
+
+    /**
+     * @param looper the looper of the thread receiving the fixes and notifying the listener
+     */
+    public NativeLocationProvider(Context context, Listener listener, Looper looper) {
         setListener(listener);
 
+        mLooper = looper;
+        mScheduler = new HandlerScheduler(looper);
+
+        mWatchdog = new UpdateWatchdog(mScheduler, new Runnable() {
+            @Override
+            public void run() {
+                onUpdateTimeout();
+            }
+        });
+
+        mRace = new FirstFixRace(mScheduler, FirstFixStatistics.SHARED, new FirstFixRace.Callback() {
+            @Override
+            public void onFixDelivered(Location location) {
+                mWatchdog.disarm();
+                setLocation(location);
+            }
+
+            @Override
+            public void onRaceFinished() {
+                finishRace();
+            }
+        });
+
+        mBatcher = new LocationBatcher(mScheduler, new LocationBatcher.Callback() {
+            @Override
+            public void onBatch(List<Location> locations) {
+                setLocations(locations);
+            }
+        });
+
         mLocationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
 
         start();
@@ -84,12 +185,16 @@ public class NativeLocationProvider extends BaseLocationProvider implements Pass
 
         try {
             mLocationManager.removeUpdates(mLocationListener);
-            mLocationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, 1000, 2, mLocationListener);
+            requestActiveUpdates();
 
             Log.i("EasyLocation", "NativeLocationProvider#requireUpdate() started");
 
             setState(STATE_STARTED);
             mUpdateRequired = true;
+            mWatchdog.arm();
+
+            if (mRaceEnabled && !mContinuous && mProfile.needsGps())
+                startRace();
         } catch (SecurityException e) {
             Log.e("EasyLocation", "NativeLocationProvider#requireUpdate() error : "+e);
 
@@ -97,9 +202,191 @@ public class NativeLocationProvider extends BaseLocationProvider implements Pass
         }
     }
 
+    /**
+     * Register the network next to the GPS : indoors, the GPS may take minutes to fix
+     */
+    private void startRace() {
+        try {
+            mLocationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER, mProfile.interval, 0,
+                    mNetworkListener, mLooper);
+        } catch (IllegalArgumentException e) {
+            Log.i("EasyLocation", "NativeLocationProvider#startRace() no network provider");
+        }
+
+        mRace.start(mProfile.accuracy);
+    }
+
+    private void stopRace() {
+        mRace.cancel();
+        mLocationManager.removeUpdates(mNetworkListener);
+    }
+
+    /**
+     * The fixes are accurate enough, or the deadline passed : back to passive
+     */
+    private void finishRace() {
+        Log.i("EasyLocation", "NativeLocationProvider#finishRace()");
+
+        try {
+            mLocationManager.removeUpdates(mNetworkListener);
+            mLocationManager.removeUpdates(mLocationListener);
+            requestPassiveUpdates();
+
+            mUpdateRequired = false;
+        } catch (SecurityException e) {
+            setState(STATE_ERROR);
+        }
+    }
+
+    /**
+     * Race the GPS and the network for the first fix of the GPS requests, enabled by default. The
+     * first fix accurate enough is delivered at once, from either source, then the better fixes
+     * until the accuracy of the profile or the deadline is reached.
+     */
+    public void setFirstFixRaceEnabled(boolean enabled) {
+        mRaceEnabled = enabled;
+    }
+
+    /**
+     * @param firstFixAccuracyMeters a fix this accurate is delivered at once, 200 meters by default
+     * @param deadlineMillis         how long the fixes are improved, in milliseconds, 30 seconds by
+     *                               default
+     */
+    public void setFirstFixRaceThresholds(float firstFixAccuracyMeters, long deadlineMillis) {
+        mRace.setThresholds(firstFixAccuracyMeters, deadlineMillis);
+    }
+
+    @Override
+    public void cancelUpdate() {
+        Log.i("EasyLocation", "NativeLocationProvider#cancelUpdate()");
+
+        mWatchdog.disarm();
+        stopRace();
+        mBatcher.flush();
+
+        if (!mUpdateRequired)
+            return;
+
+        try {
+            mLocationManager.removeUpdates(mLocationListener);
+            requestPassiveUpdates();
+
+            mUpdateRequired = false;
+        } catch (SecurityException e) {
+            Log.e("EasyLocation", "NativeLocationProvider#cancelUpdate() error : " + e);
+
+            setState(STATE_ERROR);
+        }
+    }
+
+    @Override
+    public void setUpdateInterval(long intervalMillis, float smallestDisplacementMeters) {
+        Log.i("EasyLocation", "NativeLocationProvider#setUpdateInterval(" + intervalMillis + ")");
+
+        setProfile(mProfile.withInterval(intervalMillis, smallestDisplacementMeters));
+    }
+
+    @Override
+    public void setUpdateAccuracy(float accuracyMeters) {
+        Log.i("EasyLocation", "NativeLocationProvider#setUpdateAccuracy(" + accuracyMeters + ")");
+
+        setProfile(mProfile.withAccuracy(accuracyMeters));
+    }
+
+    /**
+     * The accuracy is mapped to the GPS up to 100 meters, to the network beyond. The interval
+     * and the smallest displacement are the minimum time and distance of the requests. The
+     * location manager does not batch : with a max wait time, the continuous fixes still wake up
+     * the device one by one, but they are held and delivered together to the listeners.
+     */
+    @Override
+    public void setProfile(LocationProfile profile) {
+        Log.i("EasyLocation", "NativeLocationProvider#setProfile(" + profile + ")");
+
+        if (profile.equals(mProfile))
+            return;
+
+        mProfile = profile;
+        mBatcher.setMaxWaitTime(profile.maxWaitTime);
+
+        updateActiveRequest();
+    }
+
+    @Override
+    public void setContinuous(boolean continuous) {
+        mContinuous = continuous;
+
+        // a continuous request keeps the GPS, without race
+        if (continuous && mRace.isRunning())
+            stopRace();
+    }
+
+    @Override
+    public void setUpdateTimeout(long timeoutMillis) {
+        mWatchdog.setTimeout(timeoutMillis);
+    }
+
+    /**
+     * The active request gave no fix in time : back to passive, the next request retries
+     */
+    private void onUpdateTimeout() {
+        Log.e("EasyLocation", "NativeLocationProvider#onUpdateTimeout()");
+
+        if (!mUpdateRequired)
+            return;
+
+        mBatcher.flush();
+
+        try {
+            stopRace();
+            mLocationManager.removeUpdates(mLocationListener);
+            requestPassiveUpdates();
+
+            mUpdateRequired = false;
+            setState(STATE_TIMEOUT);
+        } catch (SecurityException e) {
+            Log.e("EasyLocation", "NativeLocationProvider#onUpdateTimeout() error : " + e);
+
+            setState(STATE_ERROR);
+        }
+    }
+
+    /**
+     * Apply the parameters to the pending active request, if any
+     */
+    private void updateActiveRequest() {
+        if (!mUpdateRequired)
+            return;
+
+        try {
+            mLocationManager.removeUpdates(mLocationListener);
+            requestActiveUpdates();
+        } catch (SecurityException e) {
+            Log.e("EasyLocation", "NativeLocationProvider#updateActiveRequest() error : " + e);
+
+            setState(STATE_ERROR);
+        }
+    }
+
+    private void requestActiveUpdates() {
+        final String provider = mProfile.needsGps() ? LocationManager.GPS_PROVIDER : LocationManager.NETWORK_PROVIDER;
+
+        mLocationManager.requestLocationUpdates(provider, mProfile.interval, mProfile.smallestDisplacement,
+                mLocationListener, mLooper);
+    }
+
+    private void requestPassiveUpdates() {
+        mLocationManager.requestLocationUpdates(LocationManager.PASSIVE_PROVIDER, 0, 0, mLocationListener, mLooper);
+    }
+
     @Override
     public void stop() {
+        mWatchdog.disarm();
+        mUpdateRequired = false;
+        mBatcher.flush();
+
         try {
+            stopRace();
             mLocationManager.removeUpdates(mLocationListener);
             setState(STATE_STOPPED);
         } catch (SecurityException e) {
@@ -126,7 +413,7 @@ public class NativeLocationProvider extends BaseLocationProvider implements Pass
             }
 
             mLocationManager.removeUpdates(mLocationListener);
-            mLocationManager.requestLocationUpdates(LocationManager.PASSIVE_PROVIDER, 0, 0, mLocationListener);
+            requestPassiveUpdates();
 
             Log.i("EasyLocation", "NativeLocationProvider#start() started");
 
@@ -0,0 +1,54 @@
+package be.webiteasy.android.location;
+
+/**
+ * What a {@link LocationHandler.Subscription} does with the locations produced faster than its
+ * subscriber requests them
+ */
+public final class OverflowStrategy {
+
+    static final int LATEST = 0;
+    static final int BUFFER = 1;
+    static final int SAMPLE = 2;
+
+    final int type;
+
+    // buffer capacity, or sampling interval in milliseconds
+    final long value;
+
+    private OverflowStrategy(int type, long value) {
+        this.type = type;
+        this.value = value;
+    }
+
+    /**
+     * Only keep the latest location not delivered yet
+     */
+    public static OverflowStrategy latest() {
+        return new OverflowStrategy(LATEST, 1);
+    }
+
+    /**
+     * Keep up to capacity locations not delivered yet. When the buffer is full, the oldest
+     * location is dropped.
+     *
+     * @param capacity the maximum count of locations waiting for delivery
+     */
+    public static OverflowStrategy buffer(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive");
+
+        return new OverflowStrategy(BUFFER, capacity);
+    }
+
+    /**
+     * Deliver at most one location per interval : the latest one produced during the interval
+     *
+     * @param intervalMillis the minimum time between two deliveries, in milliseconds
+     */
+    public static OverflowStrategy sample(long intervalMillis) {
+        if (intervalMillis < 0)
+            throw new IllegalArgumentException("interval cannot be negative");
+
+        return new OverflowStrategy(SAMPLE, intervalMillis);
+    }
+}
@@ -9,4 +9,47 @@ public interface PassiveLocationProvider extends LocationProvider {
      *
      */
     void requireUpdate();
+
+    /**
+     * Withdraw the active request started by {@link #requireUpdate()}, if any, and go back to
+     * passive updates
+     */
+    void cancelUpdate();
+
+    /**
+     * Set how often the active requests deliver fixes. A pending request is updated right away
+     *
+     * @param intervalMillis             the interval between two fixes, in milliseconds
+     * @param smallestDisplacementMeters the minimum distance between two fixes, in meters
+     */
+    void setUpdateInterval(long intervalMillis, float smallestDisplacementMeters);
+
+    /**
+     * Set the accuracy the active requests need. The cheapest way to get it is used. A pending
+     * request is updated right away
+     *
+     * @param accuracyMeters the accuracy, in meters
+     */
+    void setUpdateAccuracy(float accuracyMeters);
+
+    /**
+     * Set the interval, the accuracy and the batching of the active requests at once. A pending
+     * request is updated right away
+     */
+    void setProfile(LocationProfile profile);
+
+    /**
+     * Set the budget of an active request : without fix in time, the request expires, the
+     * provider goes back to passive updates and reports {@link #STATE_TIMEOUT}. A continuous
+     * request expires when no fix comes in time.
+     *
+     * @param timeoutMillis the budget, in milliseconds, 0 to never expire the requests
+     */
+    void setUpdateTimeout(long timeoutMillis);
+
+    /**
+     * By default, an active request goes back to passive updates after its first fix. A
+     * continuous request keeps running until {@link #cancelUpdate()}
+     */
+    void setContinuous(boolean continuous);
 }
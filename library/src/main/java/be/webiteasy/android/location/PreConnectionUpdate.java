@@ -0,0 +1,63 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+import android.support.annotation.Nullable;
+
+/**
+ * An update required before the client of a provider is connected. The request is armed in the
+ * watchdog right away, so that it expires even if the client never connects. Once connected, a
+ * last location completes it, otherwise the update is requested from the client.
+ */
+final class PreConnectionUpdate {
+
+    private final UpdateWatchdog mWatchdog;
+
+    private boolean mRequired = false;
+
+    PreConnectionUpdate(UpdateWatchdog watchdog) {
+        mWatchdog = watchdog;
+    }
+
+    void require() {
+        mRequired = true;
+        mWatchdog.arm();
+    }
+
+    boolean isRequired() {
+        return mRequired;
+    }
+
+    /**
+     * The connection of the client was suspended : the update pending at that time is required
+     * again, so that it is requested once reconnected
+     */
+    void onSuspended(boolean updatePending) {
+        if (updatePending)
+            require();
+    }
+
+    /**
+     * Forget the update, the caller disarms the watchdog if the request is over
+     */
+    void clear() {
+        mRequired = false;
+    }
+
+    /**
+     * @param lastLocation the last location known by the connected client, null if none
+     * @return true if the update is still to be requested from the client
+     */
+    boolean onConnected(@Nullable Location lastLocation) {
+        if (!mRequired)
+            return false;
+
+        mRequired = false;
+
+        if (lastLocation == null)
+            return true;
+
+        // the last location completes the request
+        mWatchdog.disarm();
+        return false;
+    }
+}
@@ -0,0 +1,420 @@
+package be.webiteasy.android.location;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The result of an asynchronous operation, such as a location or an address request. A promise
+ * is completed once, with a value or with an error, and can be cancelled. Promises can be
+ * composed with {@link #thenApply(Function)} and {@link #thenCompose(Function)} to build
+ * non-blocking pipelines. Cancelling a composed promise cancels the operations it depends on.
+ *
+ * Unless an {@link Executor} is given, callbacks and functions are run on the thread that
+ * completes the promise, or right away on the calling thread if already completed.
+ *
+ * @param <T> the type of the value
+ */
+public class Promise<T> {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static Executor sMainThread;
+
+    private static final int PENDING = 0;
+    private static final int SUCCEEDED = 1;
+    private static final int FAILED = 2;
+
+    private final Object mLock = new Object();
+
+    private int mState = PENDING;
+
+    private T mValue;
+
+    private Exception mError;
+
+    // Callbacks waiting for the completion, with their executor
+    private List<Callback<? super T>> mCallbacks;
+    private List<Executor> mExecutors;
+
+    // Called when the promise is cancelled, to withdraw the pending operation
+    private Runnable mOnCancel;
+
+    public Promise() {
+    }
+
+    /**
+     * @return a promise already completed with the given value
+     */
+    public static <T> Promise<T> of(@Nullable T value) {
+        final Promise<T> promise = new Promise<>();
+        promise.complete(value);
+        return promise;
+    }
+
+    /**
+     * @return a promise already failed with the given error
+     */
+    public static <T> Promise<T> failed(Exception error) {
+        final Promise<T> promise = new Promise<>();
+        promise.fail(error);
+        return promise;
+    }
+
+    /**
+     * @return an executor running its tasks on the main thread
+     */
+    public static synchronized Executor mainThread() {
+        if (sMainThread == null) {
+            final Handler handler = new Handler(Looper.getMainLooper());
+
+            sMainThread = new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    handler.post(command);
+                }
+            };
+        }
+
+        return sMainThread;
+    }
+
+    /**
+     * Complete the promise with a value
+     *
+     * @return false if the promise was already completed or cancelled
+     */
+    public boolean complete(@Nullable T value) {
+        return settle(SUCCEEDED, value, null, false);
+    }
+
+    /**
+     * Complete the promise with an error
+     *
+     * @return false if the promise was already completed or cancelled
+     */
+    public boolean fail(Exception error) {
+        if (error == null)
+            throw new NullPointerException("error cannot be null");
+
+        return settle(FAILED, null, error, false);
+    }
+
+    /**
+     * Cancel the promise. The pending operation is withdrawn and callbacks get a
+     * {@link CancellationException}
+     *
+     * @return false if the promise was already completed or cancelled
+     */
+    public boolean cancel() {
+        return settle(FAILED, null, new CancellationException(), true);
+    }
+
+    /**
+     * Set the action withdrawing the pending operation when this promise is cancelled. It is run
+     * right away if the promise is already cancelled.
+     */
+    public void setOnCancel(@Nullable Runnable onCancel) {
+        synchronized (mLock) {
+            if (mState == PENDING) {
+                mOnCancel = onCancel;
+                return;
+            }
+        }
+
+        if (onCancel != null && isCancelled())
+            onCancel.run();
+    }
+
+    public boolean isDone() {
+        synchronized (mLock) {
+            return mState != PENDING;
+        }
+    }
+
+    public boolean isCancelled() {
+        synchronized (mLock) {
+            return mState == FAILED && mError instanceof CancellationException;
+        }
+    }
+
+    /**
+     * @return the value, or null if the promise is not completed with a value
+     */
+    @Nullable
+    public T getValue() {
+        synchronized (mLock) {
+            return mValue;
+        }
+    }
+
+    /**
+     * @return the error, or null if the promise did not fail
+     */
+    @Nullable
+    public Exception getError() {
+        synchronized (mLock) {
+            return mError;
+        }
+    }
+
+    /**
+     * Get notified of the completion of the promise
+     */
+    public Promise<T> then(Callback<? super T> callback) {
+        return then(callback, DIRECT);
+    }
+
+    /**
+     * Get notified of the completion of the promise, on the given executor
+     */
+    public Promise<T> then(final Callback<? super T> callback, final Executor executor) {
+        synchronized (mLock) {
+            if (mState == PENDING) {
+                if (mCallbacks == null) {
+                    mCallbacks = new ArrayList<>(2);
+                    mExecutors = new ArrayList<>(2);
+                }
+
+                mCallbacks.add(callback);
+                mExecutors.add(executor);
+
+                return this;
+            }
+        }
+
+        notify(callback, executor);
+
+        return this;
+    }
+
+    /**
+     * @return a promise completed with the result of the function applied to the value of this one
+     */
+    public <R> Promise<R> thenApply(Function<? super T, ? extends R> function) {
+        return thenApply(function, DIRECT);
+    }
+
+    /**
+     * @return a promise completed with the result of the function, run on the given executor,
+     * applied to the value of this one
+     */
+    public <R> Promise<R> thenApply(final Function<? super T, ? extends R> function, Executor executor) {
+        final Promise<R> next = derive();
+
+        then(new Callback<T>() {
+            @Override
+            public void onSuccess(T value) {
+                if (next.isDone())
+                    return;
+
+                final R result;
+                try {
+                    result = function.apply(value);
+                } catch (Exception e) {
+                    next.fail(e);
+                    return;
+                }
+
+                next.complete(result);
+            }
+
+            @Override
+            public void onError(Exception error) {
+                next.fail(error);
+            }
+        }, executor);
+
+        return next;
+    }
+
+    /**
+     * @return a promise completed with the promise returned by the function applied to the value
+     * of this one
+     */
+    public <R> Promise<R> thenCompose(Function<? super T, Promise<R>> function) {
+        return thenCompose(function, DIRECT);
+    }
+
+    /**
+     * @return a promise completed with the promise returned by the function, run on the given
+     * executor, applied to the value of this one
+     */
+    public <R> Promise<R> thenCompose(final Function<? super T, Promise<R>> function, Executor executor) {
+        final Promise<R> next = derive();
+
+        then(new Callback<T>() {
+            @Override
+            public void onSuccess(T value) {
+                if (next.isDone())
+                    return;
+
+                final Promise<R> inner;
+                try {
+                    inner = function.apply(value);
+                } catch (Exception e) {
+                    next.fail(e);
+                    return;
+                }
+
+                if (inner == null) {
+                    next.complete(null);
+                    return;
+                }
+
+                next.setOnCancel(new Runnable() {
+                    @Override
+                    public void run() {
+                        inner.cancel();
+                    }
+                });
+
+                inner.then(new Callback<R>() {
+                    @Override
+                    public void onSuccess(R value) {
+                        next.complete(value);
+                    }
+
+                    @Override
+                    public void onError(Exception error) {
+                        next.fail(error);
+                    }
+                });
+            }
+
+            @Override
+            public void onError(Exception error) {
+                next.fail(error);
+            }
+        }, executor);
+
+        return next;
+    }
+
+    /**
+     * Fail this promise with a {@link TimeoutException} if it is not completed within the given
+     * delay. The pending operation is then withdrawn as if the promise was cancelled.
+     *
+     * @param timeoutMillis the delay, in milliseconds
+     * @return this promise
+     */
+    public Promise<T> timeout(long timeoutMillis) {
+        return timeout(timeoutMillis, Scheduler.SYSTEM);
+    }
+
+    Promise<T> timeout(long timeoutMillis, Scheduler scheduler) {
+        final Scheduler.Cancellable task = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                settle(FAILED, null, new TimeoutException(), true);
+            }
+        }, timeoutMillis);
+
+        then(new Callback<T>() {
+            @Override
+            public void onSuccess(T value) {
+                task.cancel();
+            }
+
+            @Override
+            public void onError(Exception error) {
+                task.cancel();
+            }
+        });
+
+        return this;
+    }
+
+    /**
+     * @return a pending promise, whose cancellation cancels this one
+     */
+    private <R> Promise<R> derive() {
+        final Promise<R> next = new Promise<>();
+        next.setOnCancel(new Runnable() {
+            @Override
+            public void run() {
+                cancel();
+            }
+        });
+        return next;
+    }
+
+    /**
+     * @param withdraw true to run the cancellation action of the pending operation
+     */
+    private boolean settle(int state, T value, Exception error, boolean withdraw) {
+        final List<Callback<? super T>> callbacks;
+        final List<Executor> executors;
+        final Runnable onCancel;
+
+        synchronized (mLock) {
+            if (mState != PENDING)
+                return false;
+
+            mState = state;
+            mValue = value;
+            mError = error;
+
+            callbacks = mCallbacks;
+            executors = mExecutors;
+            onCancel = mOnCancel;
+            mCallbacks = null;
+            mExecutors = null;
+            mOnCancel = null;
+        }
+
+        if (withdraw && onCancel != null)
+            onCancel.run();
+
+        if (callbacks != null) {
+            for (int i = 0; i < callbacks.size(); i++) {
+                notify(callbacks.get(i), executors.get(i));
+            }
+        }
+
+        return true;
+    }
+
+    private void notify(final Callback<? super T> callback, Executor executor) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final int state;
+                final T value;
+                final Exception error;
+
+                synchronized (mLock) {
+                    state = mState;
+                    value = mValue;
+                    error = mError;
+                }
+
+                if (state == SUCCEEDED)
+                    callback.onSuccess(value);
+                else
+                    callback.onError(error);
+            }
+        });
+    }
+
+    public interface Callback<T> {
+        void onSuccess(@Nullable T value);
+
+        void onError(Exception error);
+    }
+
+    public interface Function<T, R> {
+        R apply(@Nullable T value) throws Exception;
+    }
+}
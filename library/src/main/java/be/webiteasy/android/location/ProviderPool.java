@@ -0,0 +1,408 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process-wide pool of the providers, keyed by provider type and reference-counted : every
+ * {@link LocationHandler} using the same type of provider shares a single instance, so N handlers
+ * do not mean N location sessions. Each handler gets its own lease on the shared provider : the
+ * fixes are multicast to every lease, the requests of the leases are merged, and the provider is
+ * stopped when the last lease is released. Every lease gets its own copy of the fixes, as the
+ * filters of a handler may rewrite them, see {@link KalmanLocationFilter}.
+ */
+final class ProviderPool {
+
+    static final String SUPERVISED = "supervised";
+    static final String FUSION = "fusion";
+
+    static final ProviderPool SHARED = new ProviderPool();
+
+    // Shared providers by type, guarded by itself
+    private final Map<String, Entry> mEntries = new HashMap<>();
+
+    /**
+     * @param type    the type of the provider
+     * @param factory builds the provider if none of this type is shared yet
+     * @return a new lease on the shared provider, released by {@link LocationProvider#stop()}
+     */
+    PassiveLocationProvider acquire(String type, SupervisedLocationProvider.Factory factory) {
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(type);
+
+            if (entry == null) {
+                Log.i("EasyLocation", "ProviderPool#acquire(" + type + ") new provider");
+
+                entry = new Entry(type, factory.create());
+                mEntries.put(type, entry);
+            }
+
+            return entry.lease();
+        }
+    }
+
+    /**
+     * @return the count of leases on the provider of this type
+     */
+    int getReferenceCount(String type) {
+        synchronized (mEntries) {
+            final Entry entry = mEntries.get(type);
+
+            return entry == null ? 0 : entry.mLeases.size();
+        }
+    }
+
+    private void release(Entry entry, Lease lease) {
+        synchronized (mEntries) {
+            if (!entry.mLeases.remove(lease) || !entry.mLeases.isEmpty())
+                return;
+
+            Log.i("EasyLocation", "ProviderPool#release(" + entry.mType + ") stop provider");
+
+            mEntries.remove(entry.mType);
+        }
+
+        // out of the lock : the provider has its own
+        entry.mProvider.setListener(null);
+        BaseLocationProvider.release(entry.mProvider);
+    }
+
+    /**
+     * A shared provider and its leases
+     */
+    private final class Entry implements LocationProvider.BatchListener {
+
+        private final String mType;
+
+        private final PassiveLocationProvider mProvider;
+
+        private final ListenerSet<Lease> mLeases = new ListenerSet<>(Lease.class);
+
+        // Serializes the calls to the provider, so that it ends with the last merged request
+        private final Object mApplyLock = new Object();
+
+        // What was applied to the provider, guarded by this
+        private LocationProfile mProfile;
+        private long mTimeout = -1;
+        private boolean mContinuous = false;
+        private boolean mRequired = false;
+
+        Entry(String type, PassiveLocationProvider provider) {
+            mType = type;
+            mProvider = provider;
+
+            provider.setListener(this);
+        }
+
+        Lease lease() {
+            final Lease lease = new Lease(this);
+            mLeases.add(lease);
+
+            return lease;
+        }
+
+        /**
+         * Merge the requests of the leases : the provider runs an active request while one of
+         * them needs it, with a profile satisfying all of them, see {@link LocationProfile#merge}.
+         * The merged request is computed under the lock of the entry, but applied once it is
+         * released : the provider notifies the entry under its own lock.
+         */
+        void apply() {
+            synchronized (mApplyLock) {
+                LocationProfile profile = null;
+                long timeout = -1;
+                boolean continuous = false;
+                boolean required = false;
+
+                final boolean timeoutChanged;
+                final boolean profileChanged;
+                final boolean continuousChanged;
+                final boolean requires;
+                final boolean cancels;
+
+                synchronized (this) {
+                    // the longest budget, 0 being unlimited
+                    for (Lease lease : mLeases.snapshot()) {
+                        if (lease.mTimeout < 0)
+                            continue;
+
+                        if (lease.mTimeout == 0 || timeout == 0)
+                            timeout = 0;
+                        else
+                            timeout = Math.max(timeout, lease.mTimeout);
+                    }
+
+                    for (Lease lease : mLeases.snapshot()) {
+                        if (!lease.mRequired)
+                            continue;
+
+                        required = true;
+                        continuous |= lease.mContinuous;
+
+                        if (lease.mProfile != null)
+                            profile = profile == null ? lease.mProfile : profile.merge(lease.mProfile);
+                    }
+
+                    timeoutChanged = timeout >= 0 && timeout != mTimeout;
+                    if (timeoutChanged)
+                        mTimeout = timeout;
+
+                    profileChanged = profile != null && !profile.equals(mProfile);
+                    if (profileChanged)
+                        mProfile = profile;
+
+                    continuousChanged = continuous != mContinuous;
+                    mContinuous = continuous;
+
+                    requires = required && !mRequired;
+                    cancels = !required && mRequired;
+
+                    // before calling the provider : a fix delivered meanwhile completes the request
+                    mRequired = required;
+                }
+
+                if (timeoutChanged)
+                    mProvider.setUpdateTimeout(timeout);
+
+                if (profileChanged)
+                    mProvider.setProfile(profile);
+
+                if (continuousChanged)
+                    mProvider.setContinuous(continuous);
+
+                if (requires)
+                    mProvider.requireUpdate();
+                else if (cancels)
+                    mProvider.cancelUpdate();
+            }
+        }
+
+        @Override
+        public void onLocationChanged(Location location, LocationProvider locationProvider) {
+            completeRequests();
+
+            for (Lease lease : mLeases.snapshot()) {
+                final LocationProvider.Listener listener = lease.mListener;
+
+                if (listener != null)
+                    listener.onLocationChanged(new Location(location), lease);
+            }
+        }
+
+        @Override
+        public void onLocationsChanged(List<Location> locations, LocationProvider locationProvider) {
+            completeRequests();
+
+            for (Lease lease : mLeases.snapshot()) {
+                final LocationProvider.Listener listener = lease.mListener;
+
+                if (listener != null)
+                    BaseLocationProvider.dispatchLocations(listener, copy(locations), lease);
+            }
+        }
+
+        private List<Location> copy(List<Location> locations) {
+            final List<Location> copies = new ArrayList<>(locations.size());
+
+            for (Location location : locations)
+                copies.add(new Location(location));
+
+            return copies;
+        }
+
+        /**
+         * The one-shot requests complete with their first fix
+         */
+        private synchronized void completeRequests() {
+            for (Lease lease : mLeases.snapshot()) {
+                if (!lease.mContinuous)
+                    lease.mRequired = false;
+            }
+
+            if (!mContinuous)
+                mRequired = false;
+        }
+
+        @Override
+        public void onProviderStateChange(int state, LocationProvider locationProvider) {
+            // the provider gave up the request, the next one retries
+            if (state == LocationProvider.STATE_TIMEOUT) {
+                synchronized (this) {
+                    for (Lease lease : mLeases.snapshot())
+                        lease.mRequired = false;
+
+                    mRequired = false;
+                }
+            }
+
+            for (Lease lease : mLeases.snapshot()) {
+                final LocationProvider.Listener listener = lease.mListener;
+
+                if (listener != null)
+                    listener.onProviderStateChange(state, lease);
+            }
+        }
+    }
+
+    /**
+     * The view of one handler on a shared provider
+     */
+    private final class Lease implements PassiveLocationProvider {
+
+        private final Entry mEntry;
+
+        private volatile LocationProvider.Listener mListener;
+
+        // What this handler asks for, guarded by mEntry, applied out of its lock
+        private boolean mRequired = false;
+        private boolean mContinuous = false;
+        private LocationProfile mProfile;
+        private long mTimeout = -1;
+
+        private volatile boolean mReleased = false;
+
+        Lease(Entry entry) {
+            mEntry = entry;
+        }
+
+        @Override
+        public void requireUpdate() {
+            if (mReleased)
+                return;
+
+            synchronized (mEntry) {
+                mRequired = true;
+            }
+
+            mEntry.apply();
+        }
+
+        @Override
+        public void cancelUpdate() {
+            if (mReleased)
+                return;
+
+            synchronized (mEntry) {
+                mRequired = false;
+            }
+
+            mEntry.apply();
+        }
+
+        @Override
+        public void setUpdateInterval(long intervalMillis, float smallestDisplacementMeters) {
+            if (mReleased)
+                return;
+
+            final LocationProfile profile;
+
+            synchronized (mEntry) {
+                profile = getProfile().withInterval(intervalMillis, smallestDisplacementMeters);
+            }
+
+            setProfile(profile);
+        }
+
+        @Override
+        public void setUpdateAccuracy(float accuracyMeters) {
+            if (mReleased)
+                return;
+
+            final LocationProfile profile;
+
+            synchronized (mEntry) {
+                profile = getProfile().withAccuracy(accuracyMeters);
+            }
+
+            setProfile(profile);
+        }
+
+        @Override
+        public void setUpdateTimeout(long timeoutMillis) {
+            if (mReleased)
+                return;
+
+            synchronized (mEntry) {
+                mTimeout = timeoutMillis;
+            }
+
+            mEntry.apply();
+        }
+
+        @Override
+        public void setProfile(LocationProfile profile) {
+            if (mReleased)
+                return;
+
+            synchronized (mEntry) {
+                mProfile = profile;
+            }
+
+            mEntry.apply();
+        }
+
+        private LocationProfile getProfile() {
+            return mProfile != null ? mProfile : LocationProfile.HIGH_ACCURACY;
+        }
+
+        @Override
+        public void setContinuous(boolean continuous) {
+            if (mReleased)
+                return;
+
+            synchronized (mEntry) {
+                mContinuous = continuous;
+            }
+
+            mEntry.apply();
+        }
+
+        @Nullable
+        @Override
+        public Location getLocation() {
+            return mEntry.mProvider.getLocation();
+        }
+
+        @Override
+        public int getState() {
+            return mReleased ? STATE_STOPPED : mEntry.mProvider.getState();
+        }
+
+        @Override
+        public void setListener(Listener l) {
+            mListener = l;
+        }
+
+        /**
+         * The shared provider is already running
+         */
+        @Override
+        public void start() {
+        }
+
+        /**
+         * Release the lease : the shared provider stops with its last lease
+         */
+        @Override
+        public void stop() {
+            if (mReleased)
+                return;
+
+            mReleased = true;
+
+            synchronized (mEntry) {
+                mRequired = false;
+            }
+
+            mEntry.apply();
+
+            release(mEntry, this);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package be.webiteasy.android.location;
+
+/**
+ * Clock and delayed task runner used by time based components of the library. The system
+ * implementation relies on a single background thread, tests can provide a fake implementation
+ * to control the time.
+ */
+interface Scheduler {
+
+    Scheduler SYSTEM = new SystemScheduler();
+
+    /**
+     * @return a monotonic time, in milliseconds
+     */
+    long now();
+
+    /**
+     * Run a task after the given delay
+     *
+     * @param task        the task to run
+     * @param delayMillis the delay, in milliseconds
+     * @return a handle to cancel the task
+     */
+    Cancellable schedule(Runnable task, long delayMillis);
+
+    interface Cancellable {
+        void cancel();
+    }
+}
@@ -0,0 +1,568 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a primary provider, such as the {@link GoogleLocationProvider}, and replaces it by a
+ * fallback provider when it fails. While failed over, a new primary provider is probed
+ * periodically, with an increasing interval : as soon as it works again, it replaces the
+ * fallback. The health of both providers is tracked, see {@link #getPrimaryHealth()}.
+ *
+ * The listener is never called with the lock of the supervisor held : the notifications are
+ * queued and delivered once it is released, so that the listener can call other locked objects,
+ * such as a {@link ProviderPool} entry, without lock-order inversion.
+ */
+public class SupervisedLocationProvider implements PassiveLocationProvider {
+
+    public static final long DEFAULT_PROBE_INTERVAL = 1000 * 30;
+
+    /**
+     * Creates the supervised providers. A failed provider is never reused, a new one is created
+     */
+    public interface Factory {
+        PassiveLocationProvider create();
+    }
+
+    private final Factory mPrimaryFactory;
+
+    private final Factory mFallbackFactory;
+
+    private final Scheduler mScheduler;
+
+    private final long mProbeInterval;
+
+    private final Health mPrimaryHealth;
+
+    private final Health mFallbackHealth;
+
+    private Listener mListener;
+
+    private PassiveLocationProvider mCurrent;
+
+    private boolean mFailedOver = false;
+
+    // The primary provider being probed, while failed over
+    private PassiveLocationProvider mProbe;
+
+    private Scheduler.Cancellable mScheduledProbe;
+
+    private long mNextProbeDelay;
+
+    private boolean mUpdateRequired = false;
+
+    private int mState = STATE_INITIALIZING;
+
+    // Parameters of the active requests, applied to the new providers, if set
+    private LocationProfile mProfile;
+    private boolean mContinuous = false;
+    private long mUpdateTimeout = -1;
+
+    // Notifications of the listener, delivered once the lock is released, guarded by this
+    private final List<Runnable> mNotifications = new ArrayList<>();
+    private boolean mNotifying = false;
+
+    private final Listener mCurrentListener = new BatchListener() {
+        @Override
+        public void onLocationChanged(Location location, LocationProvider locationProvider) {
+            onCurrentLocation(location, locationProvider);
+            deliverNotifications();
+        }
+
+        @Override
+        public void onLocationsChanged(List<Location> locations, LocationProvider locationProvider) {
+            onCurrentLocations(locations, locationProvider);
+            deliverNotifications();
+        }
+
+        @Override
+        public void onProviderStateChange(int state, LocationProvider locationProvider) {
+            onCurrentState(state, locationProvider);
+            deliverNotifications();
+        }
+    };
+
+    private final Listener mProbeListener = new Listener() {
+        @Override
+        public void onLocationChanged(Location location, LocationProvider locationProvider) {
+            onProbeLocation(location, locationProvider);
+            deliverNotifications();
+        }
+
+        @Override
+        public void onProviderStateChange(int state, LocationProvider locationProvider) {
+            onProbeState(state, locationProvider);
+            deliverNotifications();
+        }
+    };
+
+    private final Runnable mProbeTask = new Runnable() {
+        @Override
+        public void run() {
+            probe();
+            deliverNotifications();
+        }
+    };
+
+    SupervisedLocationProvider(Factory primary, Factory fallback, Scheduler scheduler, long probeInterval) {
+        if (primary == null || fallback == null)
+            throw new NullPointerException("Factories cannot be null");
+
+        mPrimaryFactory = primary;
+        mFallbackFactory = fallback;
+        mScheduler = scheduler;
+        mProbeInterval = probeInterval;
+        mNextProbeDelay = probeInterval;
+        mPrimaryHealth = new Health(scheduler);
+        mFallbackHealth = new Health(scheduler);
+
+        synchronized (this) {
+            useCreated(mPrimaryFactory.create());
+        }
+
+        deliverNotifications();
+    }
+
+    /**
+     * @return the health of the primary provider, over all its instances
+     */
+    public Health getPrimaryHealth() {
+        return mPrimaryHealth;
+    }
+
+    public Health getFallbackHealth() {
+        return mFallbackHealth;
+    }
+
+    /**
+     * @return true if the fallback provider is in use
+     */
+    public synchronized boolean isFailedOver() {
+        return mFailedOver;
+    }
+
+    @Nullable
+    @Override
+    public synchronized Location getLocation() {
+        return mCurrent.getLocation();
+    }
+
+    @Override
+    public synchronized int getState() {
+        return mState;
+    }
+
+    @Override
+    public synchronized void setListener(Listener l) {
+        mListener = l;
+    }
+
+    @Override
+    public void requireUpdate() {
+        synchronized (this) {
+            mUpdateRequired = true;
+            mCurrent.requireUpdate();
+        }
+
+        deliverNotifications();
+    }
+
+    @Override
+    public void cancelUpdate() {
+        synchronized (this) {
+            mUpdateRequired = false;
+            mCurrent.cancelUpdate();
+        }
+
+        deliverNotifications();
+    }
+
+    @Override
+    public void setUpdateInterval(long intervalMillis, float smallestDisplacementMeters) {
+        synchronized (this) {
+            setProfile(getProfile().withInterval(intervalMillis, smallestDisplacementMeters));
+        }
+
+        deliverNotifications();
+    }
+
+    @Override
+    public void setUpdateAccuracy(float accuracyMeters) {
+        synchronized (this) {
+            setProfile(getProfile().withAccuracy(accuracyMeters));
+        }
+
+        deliverNotifications();
+    }
+
+    @Override
+    public void setUpdateTimeout(long timeoutMillis) {
+        synchronized (this) {
+            mUpdateTimeout = timeoutMillis;
+            mCurrent.setUpdateTimeout(timeoutMillis);
+        }
+
+        deliverNotifications();
+    }
+
+    @Override
+    public void setProfile(LocationProfile profile) {
+        synchronized (this) {
+            mProfile = profile;
+            mCurrent.setProfile(profile);
+        }
+
+        deliverNotifications();
+    }
+
+    private LocationProfile getProfile() {
+        return mProfile != null ? mProfile : LocationProfile.HIGH_ACCURACY;
+    }
+
+    @Override
+    public void setContinuous(boolean continuous) {
+        synchronized (this) {
+            mContinuous = continuous;
+            mCurrent.setContinuous(continuous);
+        }
+
+        deliverNotifications();
+    }
+
+    @Override
+    public void start() {
+        synchronized (this) {
+            mCurrent.start();
+
+            if (mFailedOver && mScheduledProbe == null && mProbe == null)
+                scheduleProbe();
+        }
+
+        deliverNotifications();
+    }
+
+    /**
+     * Stop the current provider and the probes, releasing their sessions
+     */
+    @Override
+    public void stop() {
+        synchronized (this) {
+            cancelProbe();
+            BaseLocationProvider.release(mCurrent);
+        }
+
+        deliverNotifications();
+    }
+
+    private void use(PassiveLocationProvider provider) {
+        mCurrent = provider;
+        provider.setListener(mCurrentListener);
+
+        if (mProfile != null)
+            provider.setProfile(mProfile);
+
+        provider.setContinuous(mContinuous);
+
+        if (mUpdateTimeout >= 0)
+            provider.setUpdateTimeout(mUpdateTimeout);
+
+        if (mUpdateRequired)
+            provider.requireUpdate();
+
+        // some providers start in their constructor
+        onCurrentState(provider.getState(), provider);
+    }
+
+    /**
+     * Use a new provider. Some start in their constructor : their last known fix went to no
+     * listener, it is forwarded
+     */
+    private void useCreated(PassiveLocationProvider provider) {
+        use(provider);
+
+        final Location location = provider.getLocation();
+        if (location != null && provider == mCurrent)
+            notifyLocation(location);
+    }
+
+    private static void discard(PassiveLocationProvider provider) {
+        provider.setListener(null);
+        BaseLocationProvider.release(provider);
+    }
+
+    private synchronized void onCurrentLocation(final Location location, LocationProvider source) {
+        if (source != mCurrent)
+            return;
+
+        if (!mContinuous)
+            mUpdateRequired = false;
+
+        health(source).onFix();
+
+        notifyLocation(location);
+    }
+
+    private void notifyLocation(final Location location) {
+        mNotifications.add(new Runnable() {
+            @Override
+            public void run() {
+                final Listener listener = getListener();
+
+                if (listener != null)
+                    listener.onLocationChanged(location, SupervisedLocationProvider.this);
+            }
+        });
+    }
+
+    private synchronized void onCurrentLocations(final List<Location> locations, LocationProvider source) {
+        if (source != mCurrent)
+            return;
+
+        if (!mContinuous)
+            mUpdateRequired = false;
+
+        health(source).onFix();
+
+        mNotifications.add(new Runnable() {
+            @Override
+            public void run() {
+                BaseLocationProvider.dispatchLocations(getListener(), locations, SupervisedLocationProvider.this);
+            }
+        });
+    }
+
+    private synchronized void onCurrentState(int state, LocationProvider source) {
+        if (source != mCurrent)
+            return;
+
+        if (state == STATE_ERROR || state == STATE_DOWN) {
+            health(source).onError();
+
+            if (!mFailedOver) {
+                failOver();
+                return;
+            }
+        }
+
+        // a timeout is not a failure, the request is given up
+        if (state == STATE_TIMEOUT)
+            mUpdateRequired = false;
+
+        setState(state);
+    }
+
+    private Health health(LocationProvider source) {
+        return mFailedOver && source == mCurrent ? mFallbackHealth : mPrimaryHealth;
+    }
+
+    private void failOver() {
+        Log.e("EasyLocation", "SupervisedLocationProvider#failOver()");
+
+        discard(mCurrent);
+
+        mFailedOver = true;
+        mNextProbeDelay = mProbeInterval;
+        scheduleProbe();
+
+        useCreated(mFallbackFactory.create());
+    }
+
+    private void failBack(PassiveLocationProvider probe) {
+        Log.i("EasyLocation", "SupervisedLocationProvider#failBack()");
+
+        discard(mCurrent);
+
+        mProbe = null;
+        mFailedOver = false;
+
+        use(probe);
+    }
+
+    private void scheduleProbe() {
+        mScheduledProbe = mScheduler.schedule(mProbeTask, mNextProbeDelay);
+        mNextProbeDelay = Math.min(mNextProbeDelay * 2, LocationHandler.MAX_UPDATE_PERIOD);
+    }
+
+    private void cancelProbe() {
+        if (mScheduledProbe != null) {
+            mScheduledProbe.cancel();
+            mScheduledProbe = null;
+        }
+
+        if (mProbe != null) {
+            discard(mProbe);
+            mProbe = null;
+        }
+    }
+
+    private synchronized void probe() {
+        mScheduledProbe = null;
+
+        if (!mFailedOver)
+            return;
+
+        // the previous probe did not answer in time
+        if (mProbe != null)
+            discard(mProbe);
+
+        Log.i("EasyLocation", "SupervisedLocationProvider#probe()");
+
+        mProbe = mPrimaryFactory.create();
+        mProbe.setListener(mProbeListener);
+
+        // schedule the next probe first, in case this one never answers
+        scheduleProbe();
+
+        onProbeState(mProbe.getState(), mProbe);
+    }
+
+    private synchronized void onProbeState(int state, LocationProvider source) {
+        if (source != mProbe)
+            return;
+
+        if (state == STATE_STARTED) {
+            cancelProbeTask();
+            failBack(mProbe);
+        } else if (state == STATE_ERROR || state == STATE_DOWN) {
+            mPrimaryHealth.onError();
+
+            discard(mProbe);
+            mProbe = null;
+        }
+    }
+
+    private synchronized void onProbeLocation(Location location, LocationProvider source) {
+        if (source != mProbe)
+            return;
+
+        cancelProbeTask();
+        failBack(mProbe);
+
+        onCurrentLocation(location, source);
+    }
+
+    private void cancelProbeTask() {
+        if (mScheduledProbe != null) {
+            mScheduledProbe.cancel();
+            mScheduledProbe = null;
+        }
+    }
+
+    private void setState(final int state) {
+        if (mState == state)
+            return;
+
+        mState = state;
+
+        mNotifications.add(new Runnable() {
+            @Override
+            public void run() {
+                final Listener listener = getListener();
+
+                if (listener != null)
+                    listener.onProviderStateChange(state, SupervisedLocationProvider.this);
+            }
+        });
+    }
+
+    private synchronized Listener getListener() {
+        return mListener;
+    }
+
+    /**
+     * Deliver the queued notifications, outside of the lock. Nested calls, and calls from other
+     * threads while a delivery is running, leave them to the running delivery, so that they keep
+     * their order.
+     */
+    private void deliverNotifications() {
+        if (Thread.holdsLock(this))
+            return;
+
+        synchronized (this) {
+            if (mNotifying || mNotifications.isEmpty())
+                return;
+
+            mNotifying = true;
+        }
+
+        boolean delivered = false;
+        try {
+            while (true) {
+                final Runnable notification;
+
+                synchronized (this) {
+                    if (mNotifications.isEmpty()) {
+                        mNotifying = false;
+                        delivered = true;
+                        return;
+                    }
+
+                    notification = mNotifications.remove(0);
+                }
+
+                notification.run();
+            }
+        } finally {
+            if (!delivered) {
+                synchronized (this) {
+                    mNotifying = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Error and fix counts of a provider, over all its instances
+     */
+    public static final class Health {
+
+        private final Scheduler mScheduler;
+
+        private int mErrors = 0;
+
+        private int mFixes = 0;
+
+        private long mLastFix = -1;
+
+        Health(Scheduler scheduler) {
+            mScheduler = scheduler;
+        }
+
+        synchronized void onError() {
+            mErrors++;
+        }
+
+        synchronized void onFix() {
+            mFixes++;
+            mLastFix = mScheduler.now();
+        }
+
+        public synchronized int getErrors() {
+            return mErrors;
+        }
+
+        public synchronized int getFixes() {
+            return mFixes;
+        }
+
+        /**
+         * @return the share of the errors among the errors and fixes, 0 if none
+         */
+        public synchronized float getErrorRate() {
+            final int total = mErrors + mFixes;
+
+            return total == 0 ? 0 : (float) mErrors / total;
+        }
+
+        /**
+         * @return the time since the last fix, in milliseconds, or -1 if none
+         */
+        public synchronized long getTimeSinceLastFix() {
+            return mLastFix < 0 ? -1 : mScheduler.now() - mLastFix;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package be.webiteasy.android.location;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Scheduler} backed by {@link SystemClock#elapsedRealtime()} and a single daemon thread
+ */
+class SystemScheduler implements Scheduler {
+
+    private ScheduledThreadPoolExecutor mExecutor;
+
+    @Override
+    public long now() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    @Override
+    public Cancellable schedule(Runnable task, long delayMillis) {
+        final ScheduledFuture<?> future = getExecutor().schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+
+        return new Cancellable() {
+            @Override
+            public void cancel() {
+                future.cancel(false);
+            }
+        };
+    }
+
+    private synchronized ScheduledThreadPoolExecutor getExecutor() {
+        if (mExecutor == null) {
+            mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "EasyLocation-scheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return mExecutor;
+    }
+}
@@ -0,0 +1,85 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+import android.support.annotation.Nullable;
+
+/**
+ * Rejects the fixes implying a physically implausible speed from the current location, such as
+ * the jumps of the cell based network fixes. A rejected fix is quarantined : if enough following
+ * fixes are consistent with it, the user really moved and the last one is accepted.
+ */
+public class TeleportFilter implements LocationHandler.Filter {
+
+    /**
+     * 360 km/h, in meters per second
+     */
+    public static final float DEFAULT_MAX_SPEED = 100f;
+
+    public static final int DEFAULT_CONFIRMATIONS = 3;
+
+    private final float mMaxSpeed;
+
+    private final int mConfirmations;
+
+    // Count of consistent quarantined fixes, and the last of them
+    private int mQuarantined = 0;
+    private double mQuarantineLatitude;
+    private double mQuarantineLongitude;
+    private long mQuarantineTime;
+
+    public TeleportFilter() {
+        this(DEFAULT_MAX_SPEED, DEFAULT_CONFIRMATIONS);
+    }
+
+    /**
+     * @param maxSpeed      the maximum plausible speed, in meters per second
+     * @param confirmations the count of consistent implausible fixes after which the position is
+     *                      accepted
+     */
+    public TeleportFilter(float maxSpeed, int confirmations) {
+        if (maxSpeed <= 0)
+            throw new IllegalArgumentException("max speed must be positive");
+
+        if (confirmations < 1)
+            throw new IllegalArgumentException("confirmations must be positive");
+
+        mMaxSpeed = maxSpeed;
+        mConfirmations = confirmations;
+    }
+
+    @Nullable
+    @Override
+    public synchronized Location filter(Location candidate, @Nullable Location current) {
+        if (current == null || isPlausible(current.getLatitude(), current.getLongitude(),
+                current.getTime(), candidate)) {
+            mQuarantined = 0;
+            return candidate;
+        }
+
+        if (mQuarantined > 0 && isPlausible(mQuarantineLatitude, mQuarantineLongitude,
+                mQuarantineTime, candidate)) {
+            mQuarantined++;
+        } else {
+            mQuarantined = 1;
+        }
+
+        if (mQuarantined >= mConfirmations) {
+            mQuarantined = 0;
+            return candidate;
+        }
+
+        mQuarantineLatitude = candidate.getLatitude();
+        mQuarantineLongitude = candidate.getLongitude();
+        mQuarantineTime = candidate.getTime();
+
+        return null;
+    }
+
+    private boolean isPlausible(double latitude, double longitude, long time, Location candidate) {
+        final double distance = LocationTools.distanceDegrees(latitude, longitude,
+                candidate.getLatitude(), candidate.getLongitude());
+        final long elapsed = Math.max(1, candidate.getTime() - time);
+
+        return distance * 1000 / elapsed <= mMaxSpeed;
+    }
+}
@@ -0,0 +1,59 @@
+package be.webiteasy.android.location;
+
+/**
+ * Time-to-first-fix statistics of one source, such as the GPS or the network provider, measured
+ * from the start of the active requests
+ */
+public final class TimeToFirstFix {
+
+    private int mCount = 0;
+
+    private long mLast = -1;
+
+    private long mBest = -1;
+
+    private long mTotal = 0;
+
+    synchronized void record(long millis) {
+        mCount++;
+        mLast = millis;
+        mTotal += millis;
+
+        if (mBest < 0 || millis < mBest)
+            mBest = millis;
+    }
+
+    /**
+     * @return the count of requests this source gave a fix to
+     */
+    public synchronized int getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the time to first fix of the last request, in milliseconds, -1 if none
+     */
+    public synchronized long getLast() {
+        return mLast;
+    }
+
+    /**
+     * @return the shortest time to first fix, in milliseconds, -1 if none
+     */
+    public synchronized long getBest() {
+        return mBest;
+    }
+
+    /**
+     * @return the average time to first fix, in milliseconds, -1 if none
+     */
+    public synchronized long getAverage() {
+        return mCount == 0 ? -1 : mTotal / mCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TimeToFirstFix{" + mCount + " fixes, last " + mLast + " ms, best " + mBest
+                + " ms, average " + getAverage() + " ms}";
+    }
+}
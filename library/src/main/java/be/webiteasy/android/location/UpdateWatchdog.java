@@ -0,0 +1,91 @@
+package be.webiteasy.android.location;
+
+/**
+ * Expires an active request that delivers no fix within its budget, such as a GPS request
+ * indoors, so that a provider never stays stuck in a power hungry mode. The providers arm it with
+ * each request, disarm it when the request completes, and go back to passive updates on timeout.
+ */
+final class UpdateWatchdog {
+
+    private final Scheduler mScheduler;
+
+    private final Runnable mOnTimeout;
+
+    private long mTimeout = LocationHandler.DEFAULT_UPDATE_TIMEOUT;
+
+    private Scheduler.Cancellable mScheduled;
+
+    // Incremented by each arm and disarm, so that a late expiry of a previous request is ignored
+    private long mGeneration = 0;
+
+    /**
+     * @param scheduler runs the expiry, on the thread of the provider callbacks
+     * @param onTimeout called when the budget is spent without fix
+     */
+    UpdateWatchdog(Scheduler scheduler, Runnable onTimeout) {
+        mScheduler = scheduler;
+        mOnTimeout = onTimeout;
+    }
+
+    /**
+     * @param timeoutMillis the budget of a request, in milliseconds, 0 to never expire it. An armed
+     *                      watchdog restarts with the new budget
+     */
+    synchronized void setTimeout(long timeoutMillis) {
+        if (timeoutMillis < 0)
+            throw new IllegalArgumentException("timeout cannot be negative");
+
+        mTimeout = timeoutMillis;
+
+        if (mScheduled != null)
+            arm();
+    }
+
+    synchronized long getTimeout() {
+        return mTimeout;
+    }
+
+    /**
+     * Start the budget of a request, or restart it, for instance after a fix of a continuous
+     * request
+     */
+    synchronized void arm() {
+        disarm();
+
+        if (mTimeout == 0)
+            return;
+
+        final long generation = mGeneration;
+
+        mScheduled = mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                expire(generation);
+            }
+        }, mTimeout);
+    }
+
+    synchronized void disarm() {
+        mGeneration++;
+
+        if (mScheduled != null) {
+            mScheduled.cancel();
+            mScheduled = null;
+        }
+    }
+
+    synchronized boolean isArmed() {
+        return mScheduled != null;
+    }
+
+    private void expire(long generation) {
+        synchronized (this) {
+            if (generation != mGeneration || mScheduled == null)
+                return;
+
+            mScheduled = null;
+        }
+
+        mOnTimeout.run();
+    }
+}
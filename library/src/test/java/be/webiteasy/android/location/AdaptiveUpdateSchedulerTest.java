@@ -0,0 +1,186 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class AdaptiveUpdateSchedulerTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final FakeScheduler mScheduler = new FakeScheduler();
+
+    private final FakeLocationProvider mProvider = new FakeLocationProvider();
+
+    private final LocationHandler mHandler = new LocationHandler(mProvider);
+
+    private long mTime = 0;
+
+    private double mLatitude = 50;
+
+    /**
+     * Emit a fix after the given time, having moved the given distance to the north
+     */
+    private void move(long elapsed, double meters, boolean reportSpeed) {
+        mTime += elapsed;
+        mLatitude += meters / (6371000 * Math.PI / 180);
+
+        Location location = new Location("gps");
+        location.setTime(mTime);
+        location.setLatitude(mLatitude);
+        location.setLongitude(4.5);
+        location.setAccuracy(5);
+
+        if (reportSpeed)
+            location.setSpeed((float) (meters * 1000 / elapsed));
+
+        mProvider.emit(location);
+    }
+
+    @Test
+    public void startRequiresAnUpdateAndPolls() throws Exception {
+        AdaptiveUpdateScheduler scheduler = new AdaptiveUpdateScheduler(mHandler, mScheduler);
+        scheduler.start();
+
+        assertEquals(1, mProvider.updateRequests);
+        assertEquals(AdaptiveUpdateScheduler.DEFAULT_INTERVAL, mProvider.updateInterval);
+
+        // no fix : polls again after the interval
+        mScheduler.advance(AdaptiveUpdateScheduler.DEFAULT_INTERVAL);
+        assertEquals(2, mProvider.updateRequests);
+
+        scheduler.stop();
+        mScheduler.advance(LocationHandler.MAX_UPDATE_PERIOD);
+        assertEquals(2, mProvider.updateRequests);
+        assertEquals(0, mScheduler.pendingTasks());
+    }
+
+    @Test
+    public void pollsTightlyWhenMovingFast() throws Exception {
+        AdaptiveUpdateScheduler scheduler = new AdaptiveUpdateScheduler(mHandler, mScheduler);
+        scheduler.start();
+
+        // 25 m/s : 50 meters every 2 seconds
+        move(4000, 100, true);
+        assertEquals(2000, scheduler.getInterval());
+        assertEquals(2000, mProvider.updateInterval);
+        assertEquals(25, mProvider.smallestDisplacement, 0);
+
+        // 100 m/s : bounded by the minimum interval
+        move(2000, 200, true);
+        assertEquals(AdaptiveUpdateScheduler.MIN_INTERVAL, scheduler.getInterval());
+
+        // walking, without reported speed : 1.25 m/s
+        move(4000, 5, false);
+        assertEquals(40000, scheduler.getInterval(), 100);
+    }
+
+    @Test
+    public void backsOffExponentiallyWhenStationary() throws Exception {
+        AdaptiveUpdateScheduler scheduler = new AdaptiveUpdateScheduler(mHandler, mScheduler);
+        scheduler.start();
+
+        long expected = AdaptiveUpdateScheduler.DEFAULT_INTERVAL;
+        for (int i = 0; i < 20; i++) {
+            move(scheduler.getInterval(), 0, true);
+
+            expected = Math.min(expected * 2, LocationHandler.MAX_UPDATE_PERIOD);
+            assertEquals(expected, scheduler.getInterval());
+        }
+
+        assertEquals(LocationHandler.MAX_UPDATE_PERIOD, mProvider.updateInterval);
+        assertEquals(0, mProvider.smallestDisplacement, 0);
+
+        // moving again : back to a tight interval
+        move(60000, 600, true);
+        assertEquals(5000, scheduler.getInterval());
+    }
+
+    @Test
+    public void nextPollIsOneIntervalAfterTheFix() throws Exception {
+        AdaptiveUpdateScheduler scheduler = new AdaptiveUpdateScheduler(mHandler, mScheduler);
+        scheduler.start();
+
+        mScheduler.advance(1000);
+        move(1000, 0, true);
+        assertEquals(8000, scheduler.getInterval());
+        assertEquals(1, mProvider.updateRequests);
+
+        mScheduler.advance(7999);
+        assertEquals(1, mProvider.updateRequests);
+        mScheduler.advance(1);
+        assertEquals(2, mProvider.updateRequests);
+    }
+
+    @Test
+    public void maxIntervalBoundsTheBackOff() throws Exception {
+        AdaptiveUpdateScheduler scheduler = new AdaptiveUpdateScheduler(mHandler, mScheduler);
+        scheduler.start();
+
+        for (int i = 0; i < 10; i++) {
+            move(1000, 0, true);
+        }
+        assertEquals(LocationHandler.MAX_UPDATE_PERIOD, scheduler.getInterval());
+
+        scheduler.setMaxInterval(30000);
+        assertEquals(30000, scheduler.getInterval());
+        assertEquals(30000, mProvider.updateInterval);
+
+        move(1000, 0, true);
+        assertEquals(30000, scheduler.getInterval());
+    }
+
+    @Test
+    public void trackingIsMergedWithTheRequirementsOfTheSubscribers() throws Exception {
+        mHandler.subscribe(new LocationHandler.Subscriber() {
+            @Override
+            public void onSubscribe(LocationHandler.Subscription s) {
+                s.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(Location location) {
+            }
+
+            @Override
+            public void onError(String message) {
+            }
+        }, OverflowStrategy.latest(), new LocationRequirements(10000, 50, 60000), DIRECT);
+        assertTrue(mProvider.continuous);
+
+        AdaptiveUpdateScheduler scheduler = new AdaptiveUpdateScheduler(mHandler, mScheduler);
+        scheduler.start();
+        assertEquals(AdaptiveUpdateScheduler.DEFAULT_INTERVAL, mProvider.updateInterval);
+
+        // moving fast : the tracking needs more fixes than the subscriber
+        move(4000, 100, true);
+        assertEquals(2000, mProvider.updateInterval);
+        assertEquals(LocationHandler.DEFAULT_UPDATE_ACCURACY, mProvider.updateAccuracy, 0);
+
+        // stationary : the subscriber still gets its fixes
+        for (int i = 0; i < 5; i++) {
+            move(scheduler.getInterval(), 0, true);
+        }
+        assertTrue(scheduler.getInterval() > 10000);
+        assertEquals(10000, mProvider.updateInterval);
+
+        scheduler.stop();
+        assertEquals(10000, mProvider.updateInterval);
+        assertEquals(50, mProvider.updateAccuracy, 0);
+        assertTrue(mProvider.continuous);
+    }
+}
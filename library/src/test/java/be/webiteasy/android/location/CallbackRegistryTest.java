@@ -0,0 +1,347 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class CallbackRegistryTest {
+
+    private static Location fix(long age, float accuracy) {
+        return Fixes.fix(System.currentTimeMillis() - age, accuracy);
+    }
+
+    @Test
+    public void dispatchCompletesEachRegistrationOnce() throws Exception {
+        CallbackRegistry registry = new CallbackRegistry();
+        CountingCallback callback = new CountingCallback();
+
+        registry.register(callback);
+        registry.register(callback);
+
+        assertEquals(2, registry.dispatch(null));
+        assertEquals(0, registry.dispatch(null));
+        assertEquals(2, callback.updates.get());
+        assertTrue(registry.isEmpty());
+    }
+
+    @Test
+    public void cancelledRegistrationIsNotCalled() throws Exception {
+        CallbackRegistry registry = new CallbackRegistry();
+        CountingCallback cancelled = new CountingCallback();
+        CountingCallback kept = new CountingCallback();
+
+        CallbackRegistry.Registration registration = registry.register(cancelled);
+        registry.register(kept);
+
+        assertTrue(registration.cancel());
+        assertFalse(registration.cancel());
+        assertFalse(registration.isPending());
+
+        registry.dispatch(null);
+
+        assertEquals(0, cancelled.updates.get());
+        assertEquals(1, kept.updates.get());
+    }
+
+    @Test
+    public void cancelByCallback() throws Exception {
+        CallbackRegistry registry = new CallbackRegistry();
+        CountingCallback callback = new CountingCallback();
+
+        registry.register(callback);
+
+        assertTrue(registry.cancel(callback));
+        assertFalse(registry.cancel(callback));
+        assertTrue(registry.isEmpty());
+    }
+
+    @Test
+    public void constrainedRegistrationWaitsForQualifiedLocation() throws Exception {
+        CallbackRegistry registry = new CallbackRegistry();
+        CountingCallback constrained = new CountingCallback();
+        CountingCallback any = new CountingCallback();
+
+        registry.register(constrained, 60000, 20);
+        registry.register(any);
+
+        // too old
+        assertEquals(1, registry.dispatch(fix(5 * 60000, 5)));
+        assertEquals(1, any.updates.get());
+        assertEquals(0, constrained.updates.get());
+
+        // not accurate enough
+        assertEquals(0, registry.dispatch(fix(1000, 150)));
+        assertEquals(0, constrained.updates.get());
+
+        // no accuracy
+        Location noAccuracy = fix(1000, 0);
+        noAccuracy.removeAccuracy();
+        assertEquals(0, registry.dispatch(noAccuracy));
+
+        assertEquals(1, registry.dispatch(fix(1000, 12)));
+        assertEquals(1, constrained.updates.get());
+        assertTrue(registry.isEmpty());
+    }
+
+    @Test
+    public void timeoutIsCancelledByDispatch() throws Exception {
+        FakeScheduler scheduler = new FakeScheduler();
+        CallbackRegistry registry = new CallbackRegistry();
+        final CountingCallback callback = new CountingCallback();
+
+        final CallbackRegistry.Registration registration = registry.register(callback);
+        registration.setTimeout(scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (registration.cancel())
+                    callback.onError(null);
+            }
+        }, 5000));
+
+        registry.dispatch(null);
+        assertEquals(0, scheduler.pendingTasks());
+
+        scheduler.advance(10000);
+        assertEquals(1, callback.updates.get());
+        assertEquals(0, callback.errors.get());
+    }
+
+    @Test
+    public void timeoutCompletesPendingRegistration() throws Exception {
+        FakeScheduler scheduler = new FakeScheduler();
+        CallbackRegistry registry = new CallbackRegistry();
+        final CountingCallback callback = new CountingCallback();
+
+        final CallbackRegistry.Registration registration = registry.register(callback);
+        registration.setTimeout(scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (registration.cancel())
+                    callback.onError(null);
+            }
+        }, 5000));
+
+        scheduler.advance(5000);
+        assertEquals(1, callback.errors.get());
+        assertTrue(registry.isEmpty());
+
+        // a late fix does not reach the expired registration
+        assertEquals(0, registry.dispatch(null));
+        assertEquals(0, callback.updates.get());
+    }
+
+    @Test
+    public void clearedReferencesArePruned() throws Exception {
+        CallbackRegistry registry = new CallbackRegistry();
+
+        for (int i = 0; i < 100; i++) {
+            registry.register(new CountingCallback());
+        }
+
+        for (int i = 0; i < 50 && registry.size() > 0; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void promisePipelineSurvivesGarbageCollection() throws Exception {
+        CallbackRegistry registry = new CallbackRegistry();
+        AtomicReference<String> provider = new AtomicReference<>();
+
+        // no promise is kept, as with getLocationAsync(true).thenApply(...).then(...)
+        startPipeline(registry, provider);
+
+        for (int i = 0; i < 20; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, registry.dispatch(new Location("gps")));
+        assertEquals("gps", provider.get());
+    }
+
+    @Test
+    public void completedPromiseCallbackIsCollected() throws Exception {
+        CallbackRegistry registry = new CallbackRegistry();
+        Promise<Location> promise = new Promise<>();
+        WeakReference<EasyLocation.Callback> callback = new WeakReference<>(EasyLocation.promiseCallback(promise));
+        registry.register(callback.get());
+
+        registry.dispatch(null);
+
+        for (int i = 0; i < 50 && callback.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+
+        assertNull(callback.get());
+    }
+
+    private static void startPipeline(CallbackRegistry registry, final AtomicReference<String> provider) {
+        Promise<Location> promise = new Promise<>();
+        registry.register(EasyLocation.promiseCallback(promise));
+
+        promise.thenApply(new Promise.Function<Location, String>() {
+            @Override
+            public String apply(Location value) {
+                return value.getProvider();
+            }
+        }).then(new Promise.Callback<String>() {
+            @Override
+            public void onSuccess(String value) {
+                provider.set(value);
+            }
+
+            @Override
+            public void onError(Exception error) {
+            }
+        });
+    }
+
+    @Test
+    public void slowCallbackDoesNotBlockRegistration() throws Exception {
+        final CallbackRegistry registry = new CallbackRegistry();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final EasyLocation.Callback slow = new CountingCallback() {
+            @Override
+            public void onLocationUpdated(Location location) {
+                entered.countDown();
+
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        };
+        registry.register(slow);
+
+        Thread dispatcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                registry.dispatch(null);
+            }
+        });
+        dispatcher.start();
+
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        // the dispatch is in progress, registering must not wait for it
+        final CountingCallback next = new CountingCallback();
+        long start = System.nanoTime();
+        registry.register(next);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+
+        release.countDown();
+        dispatcher.join();
+
+        assertEquals(1, registry.dispatch(null));
+        assertEquals(1, next.updates.get());
+    }
+
+    /**
+     * Many threads register callbacks while fixes arrive. Every callback must be called exactly
+     * once. Prints the registration throughput.
+     */
+    @Test
+    public void contentionBenchmark() throws Exception {
+        final CallbackRegistry registry = new CallbackRegistry();
+        final int threads = 8;
+        final int perThread = 20000;
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicInteger dispatched = new AtomicInteger();
+
+        final List<CountingCallback> callbacks = new ArrayList<>();
+        for (int i = 0; i < threads * perThread; i++) {
+            callbacks.add(new CountingCallback());
+        }
+
+        Thread fixes = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (running.get()) {
+                    dispatched.addAndGet(registry.dispatch(null));
+                }
+            }
+        });
+
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> requesters = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int offset = t * perThread;
+
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    for (int i = 0; i < perThread; i++) {
+                        registry.register(callbacks.get(offset + i));
+                    }
+                }
+            });
+            thread.start();
+            requesters.add(thread);
+        }
+
+        fixes.start();
+        long begin = System.nanoTime();
+        start.countDown();
+
+        for (Thread thread : requesters) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        running.set(false);
+        fixes.join();
+        dispatched.addAndGet(registry.dispatch(null));
+
+        assertEquals(threads * perThread, dispatched.get());
+        for (CountingCallback callback : callbacks) {
+            assertEquals(1, callback.updates.get());
+        }
+
+        System.out.println("CallbackRegistry : " + (threads * perThread) + " registrations from "
+                + threads + " threads in " + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms");
+    }
+
+    private static class CountingCallback implements EasyLocation.Callback {
+        final AtomicInteger updates = new AtomicInteger();
+        final AtomicInteger errors = new AtomicInteger();
+
+        @Override
+        public void onLocationUpdated(Location location) {
+            updates.incrementAndGet();
+        }
+
+        @Override
+        public void onError(Location location) {
+            errors.incrementAndGet();
+        }
+    }
+}
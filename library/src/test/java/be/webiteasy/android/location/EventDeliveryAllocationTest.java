@@ -0,0 +1,145 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Counts the bytes allocated by the current thread to check that delivering a location does not
+ * allocate in steady state.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class EventDeliveryAllocationTest {
+
+    private static final int FIXES = 20000;
+
+    // tolerance for the measurement itself
+    private static final long SLACK_BYTES = 1024;
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        final Object bean = ManagementFactory.getThreadMXBean();
+
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+
+        final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        return threadBean;
+    }
+
+    private static Location[] fixes(int count, long firstTime) {
+        final Location[] fixes = new Location[count];
+
+        for (int i = 0; i < count; i++) {
+            fixes[i] = new Location("gps");
+            fixes[i].setTime(firstTime + i);
+        }
+
+        return fixes;
+    }
+
+    @Test
+    public void eventIsReusedAndReadsCurrentLocation() throws Exception {
+        LocationHandler handler = new LocationHandler(new FakeLocationProvider());
+        RecordingListener listener = new RecordingListener();
+        handler.addLocationListener(listener);
+
+        Location[] fixes = fixes(2, 1000);
+        handler.setLocation(fixes[0]);
+        handler.setLocation(fixes[1]);
+
+        assertEquals(2, listener.events.size());
+        assertSame(listener.events.get(0), listener.events.get(1));
+        assertSame(fixes[1], listener.events.get(0).getLocation());
+        assertSame(handler, listener.events.get(0).getLocationService());
+    }
+
+    @Test
+    public void locationChangeAllocatesNothing() throws Exception {
+        com.sun.management.ThreadMXBean bean = threadBean();
+        long thread = Thread.currentThread().getId();
+
+        LocationHandler handler = new LocationHandler(new FakeLocationProvider());
+        CountingListener first = new CountingListener();
+        CountingListener second = new CountingListener();
+        handler.addLocationListener(first);
+        handler.addLocationListener(second);
+
+        // warm up, so that class loading and compilation are not measured
+        for (Location fix : fixes(FIXES, 1)) {
+            handler.setLocation(fix);
+        }
+
+        Location[] fixes = fixes(FIXES, 1 + FIXES);
+
+        long before = bean.getThreadAllocatedBytes(thread);
+        for (Location fix : fixes) {
+            handler.setLocation(fix);
+        }
+        long allocated = bean.getThreadAllocatedBytes(thread) - before;
+
+        assertEquals(2 * FIXES, first.changes);
+        assertEquals(2 * FIXES, second.changes);
+        System.out.println("LocationHandler : " + allocated + " bytes allocated for " + FIXES + " fixes");
+        assertTrue("allocated " + allocated + " bytes", allocated < SLACK_BYTES);
+    }
+
+    @Test
+    public void emptyCallbackDispatchAllocatesNothing() throws Exception {
+        com.sun.management.ThreadMXBean bean = threadBean();
+        long thread = Thread.currentThread().getId();
+
+        CallbackRegistry registry = new CallbackRegistry();
+        Location fix = fixes(1, 1)[0];
+
+        for (int i = 0; i < FIXES; i++) {
+            registry.dispatch(fix);
+        }
+
+        long before = bean.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < FIXES; i++) {
+            registry.dispatch(fix);
+        }
+        long allocated = bean.getThreadAllocatedBytes(thread) - before;
+
+        assertTrue("allocated " + allocated + " bytes", allocated < SLACK_BYTES);
+    }
+
+    private static class CountingListener implements LocationHandler.Listener {
+        int changes = 0;
+
+        @Override
+        public void onLocationChanged(LocationHandler.LocationChangedEvent event) {
+            changes++;
+        }
+
+        @Override
+        public void onLocationError(LocationHandler.LocationErrorEvent event) {
+        }
+    }
+
+    private static class RecordingListener implements LocationHandler.Listener {
+        final List<LocationHandler.LocationChangedEvent> events = new ArrayList<>();
+
+        @Override
+        public void onLocationChanged(LocationHandler.LocationChangedEvent event) {
+            events.add(event);
+        }
+
+        @Override
+        public void onLocationError(LocationHandler.LocationErrorEvent event) {
+        }
+    }
+}
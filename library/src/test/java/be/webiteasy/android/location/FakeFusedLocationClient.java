@@ -0,0 +1,113 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link FusedLocationClient} driven by the tests : the request of the callback is recorded, fixes
+ * are pushed with {@link #emit(Location...)} and the last location with
+ * {@link #answerLastLocation(Location)}. The requests are accepted at once, unless they are
+ * deferred, see {@link #answerRequests()}, or refused with {@link #requestFailure}.
+ */
+class FakeFusedLocationClient implements FusedLocationClient {
+
+    private UpdateCallback mCallback;
+
+    private LastLocationCallback mLastLocationCallback;
+
+    // Profile of the current request, null for the passive updates
+    LocationProfile profile;
+
+    boolean requesting = false;
+
+    int requests = 0;
+
+    boolean permissionDenied = false;
+
+    // Answers the requests with this failure, if set
+    Exception requestFailure;
+
+    // Keeps the requests unanswered until answerRequests()
+    boolean deferAnswers = false;
+
+    private final List<RequestCallback> mPendingAnswers = new ArrayList<>();
+
+    @Override
+    public void getLastLocation(LastLocationCallback callback) {
+        if (permissionDenied)
+            throw new SecurityException("denied");
+
+        mLastLocationCallback = callback;
+    }
+
+    @Override
+    public void requestLocationUpdates(@Nullable LocationProfile profile, UpdateCallback callback,
+                                       RequestCallback result) {
+        if (permissionDenied)
+            throw new SecurityException("denied");
+
+        mCallback = callback;
+        this.profile = profile;
+        requesting = true;
+        requests++;
+
+        mPendingAnswers.add(result);
+
+        if (!deferAnswers)
+            answerRequests();
+    }
+
+    void answerRequests() {
+        final List<RequestCallback> answers = new ArrayList<>(mPendingAnswers);
+        mPendingAnswers.clear();
+
+        for (RequestCallback answer : answers) {
+            if (requestFailure == null) {
+                answer.onSuccess();
+            } else {
+                requesting = false;
+                answer.onFailure(requestFailure);
+            }
+        }
+    }
+
+    @Override
+    public void removeLocationUpdates(UpdateCallback callback) {
+        requesting = false;
+        profile = null;
+    }
+
+    boolean isActive() {
+        return requesting && profile != null;
+    }
+
+    void emit(Location... locations) {
+        if (requesting)
+            mCallback.onLocations(Arrays.asList(locations));
+    }
+
+    void emitBatch(List<Location> locations) {
+        if (requesting)
+            mCallback.onLocations(locations);
+    }
+
+    void failLastLocation(Exception e) {
+        final LastLocationCallback callback = mLastLocationCallback;
+        mLastLocationCallback = null;
+
+        if (callback != null)
+            callback.onFailure(e);
+    }
+
+    void answerLastLocation(@Nullable Location location) {
+        final LastLocationCallback callback = mLastLocationCallback;
+        mLastLocationCallback = null;
+
+        if (callback != null)
+            callback.onLastLocation(location);
+    }
+}
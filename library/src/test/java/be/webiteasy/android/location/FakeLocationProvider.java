@@ -0,0 +1,120 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+
+import java.util.List;
+
+/**
+ * {@link PassiveLocationProvider} driven by the tests : fixes are pushed with
+ * {@link #emit(Location)} and the active requests and the releases are counted.
+ */
+class FakeLocationProvider implements PassiveLocationProvider, LocationProvider.Releasable {
+
+    private Listener mListener;
+
+    private Location mLocation;
+
+    private int mState = STATE_INITIALIZING;
+
+    int updateRequests = 0;
+    int cancelRequests = 0;
+    int releases = 0;
+
+    long updateInterval = -1;
+    float smallestDisplacement = -1;
+    float updateAccuracy = -1;
+    long maxWaitTime = -1;
+    long updateTimeout = -1;
+    boolean continuous = false;
+
+    void emit(Location location) {
+        mLocation = location;
+
+        if (mListener != null)
+            mListener.onLocationChanged(location, this);
+    }
+
+    void emitBatch(List<Location> locations) {
+        mLocation = locations.get(locations.size() - 1);
+
+        if (mListener instanceof BatchListener)
+            ((BatchListener) mListener).onLocationsChanged(locations, this);
+    }
+
+    void setState(int state) {
+        mState = state;
+
+        if (mListener != null)
+            mListener.onProviderStateChange(state, this);
+    }
+
+    @Override
+    public void requireUpdate() {
+        updateRequests++;
+    }
+
+    @Override
+    public void cancelUpdate() {
+        cancelRequests++;
+    }
+
+    @Override
+    public void setUpdateInterval(long intervalMillis, float smallestDisplacementMeters) {
+        updateInterval = intervalMillis;
+        smallestDisplacement = smallestDisplacementMeters;
+    }
+
+    @Override
+    public void setUpdateAccuracy(float accuracyMeters) {
+        updateAccuracy = accuracyMeters;
+    }
+
+    @Override
+    public void setProfile(LocationProfile profile) {
+        updateInterval = profile.interval;
+        smallestDisplacement = profile.smallestDisplacement;
+        updateAccuracy = profile.accuracy;
+        maxWaitTime = profile.maxWaitTime;
+    }
+
+    @Override
+    public void setUpdateTimeout(long timeoutMillis) {
+        updateTimeout = timeoutMillis;
+    }
+
+    @Override
+    public void setContinuous(boolean continuous) {
+        this.continuous = continuous;
+    }
+
+    @Override
+    public Location getLocation() {
+        return mLocation;
+    }
+
+    @Override
+    public int getState() {
+        return mState;
+    }
+
+    @Override
+    public void setListener(Listener l) {
+        mListener = l;
+    }
+
+    @Override
+    public void start() {
+        mState = STATE_STARTED;
+    }
+
+    @Override
+    public void stop() {
+        mState = STATE_STOPPED;
+    }
+
+    @Override
+    public void release() {
+        releases++;
+        stop();
+    }
+}
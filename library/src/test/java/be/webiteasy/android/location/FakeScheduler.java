@@ -0,0 +1,79 @@
+package be.webiteasy.android.location;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Deterministic {@link Scheduler} : the time only moves when {@link #advance(long)} is called and
+ * due tasks are run on the calling thread.
+ */
+class FakeScheduler implements Scheduler {
+
+    private final List<Task> mTasks = new ArrayList<>();
+
+    private long mNow;
+
+    @Override
+    public synchronized long now() {
+        return mNow;
+    }
+
+    @Override
+    public synchronized Cancellable schedule(Runnable task, long delayMillis) {
+        final Task t = new Task(task, mNow + Math.max(0, delayMillis));
+        mTasks.add(t);
+        return t;
+    }
+
+    /**
+     * Move the clock forward and run the tasks that are due, in time order
+     */
+    void advance(long millis) {
+        final long target;
+        synchronized (this) {
+            target = mNow + millis;
+        }
+
+        while (true) {
+            Task next = null;
+
+            synchronized (this) {
+                for (Task t : mTasks) {
+                    if (t.time <= target && (next == null || t.time < next.time))
+                        next = t;
+                }
+
+                if (next == null) {
+                    mNow = target;
+                    return;
+                }
+
+                mTasks.remove(next);
+                mNow = next.time;
+            }
+
+            next.runnable.run();
+        }
+    }
+
+    synchronized int pendingTasks() {
+        return mTasks.size();
+    }
+
+    private class Task implements Cancellable {
+        final Runnable runnable;
+        final long time;
+
+        Task(Runnable runnable, long time) {
+            this.runnable = runnable;
+            this.time = time;
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (FakeScheduler.this) {
+                mTasks.remove(this);
+            }
+        }
+    }
+}
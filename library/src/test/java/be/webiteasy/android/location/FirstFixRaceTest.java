@@ -0,0 +1,189 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static be.webiteasy.android.location.Fixes.fix;
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class FirstFixRaceTest {
+
+    private static final String GPS = "gps";
+    private static final String NETWORK = "network";
+
+    private final FakeScheduler mScheduler = new FakeScheduler();
+
+    private final List<Location> mDelivered = new ArrayList<>();
+
+    private int mFinished = 0;
+
+    private final FirstFixStatistics mStatistics = new FirstFixStatistics();
+
+    private final FirstFixRace mRace = new FirstFixRace(mScheduler, mStatistics, new FirstFixRace.Callback() {
+        @Override
+        public void onFixDelivered(Location location) {
+            mDelivered.add(location);
+        }
+
+        @Override
+        public void onRaceFinished() {
+            mFinished++;
+        }
+    });
+
+    @Test
+    public void firstAccurateEnoughFixIsDeliveredAtOnce() {
+        mRace.start(10);
+
+        mScheduler.advance(2000);
+        Location network = fix(NETWORK, 0, 40);
+        mRace.onFix(network, NETWORK);
+
+        assertEquals(1, mDelivered.size());
+        assertSame(network, mDelivered.get(0));
+        assertEquals(0, mFinished);
+        assertTrue(mRace.isRunning());
+    }
+
+    @Test
+    public void raceFinishesWithTheTargetAccuracy() {
+        mRace.start(10);
+
+        mRace.onFix(fix(NETWORK, 0, 40), NETWORK);
+        mRace.onFix(fix(NETWORK, 0, 50), NETWORK);
+        mRace.onFix(fix(GPS, 0, 25), GPS);
+        mRace.onFix(fix(GPS, 0, 8), GPS);
+
+        assertEquals(3, mDelivered.size());
+        assertEquals(8, mDelivered.get(2).getAccuracy(), 0);
+        assertEquals(1, mFinished);
+        assertFalse(mRace.isRunning());
+
+        mRace.onFix(fix(GPS, 0, 3), GPS);
+        assertEquals(3, mDelivered.size());
+        assertEquals(0, mScheduler.pendingTasks());
+    }
+
+    @Test
+    public void deadlineEndsTheImprovements() {
+        mRace.start(10);
+        mRace.onFix(fix(NETWORK, 0, 40), NETWORK);
+
+        mScheduler.advance(FirstFixRace.DEFAULT_DEADLINE);
+
+        assertEquals(1, mFinished);
+        assertEquals(1, mDelivered.size());
+    }
+
+    @Test
+    public void deadlineDeliversTheBestInaccurateFix() {
+        mRace.start(10);
+        mRace.onFix(fix(NETWORK, 0, 2000), NETWORK);
+        mRace.onFix(fix(NETWORK, 0, 900), NETWORK);
+        mRace.onFix(fix(NETWORK, 0, 1500), NETWORK);
+        assertEquals(0, mDelivered.size());
+
+        mScheduler.advance(FirstFixRace.DEFAULT_DEADLINE);
+
+        assertEquals(1, mDelivered.size());
+        assertEquals(900, mDelivered.get(0).getAccuracy(), 0);
+        assertEquals(1, mFinished);
+    }
+
+    @Test
+    public void raceWithoutFixGoesOnAfterTheDeadline() {
+        mRace.start(10);
+
+        mScheduler.advance(FirstFixRace.DEFAULT_DEADLINE * 2);
+
+        assertEquals(0, mFinished);
+        assertTrue(mRace.isRunning());
+    }
+
+    @Test
+    public void thresholdsAreConfigurable() {
+        mRace.setThresholds(50, 5000);
+        mRace.start(10);
+
+        mRace.onFix(fix(NETWORK, 0, 60), NETWORK);
+        assertEquals(0, mDelivered.size());
+
+        mScheduler.advance(5000);
+        assertEquals(1, mDelivered.size());
+        assertEquals(1, mFinished);
+    }
+
+    @Test
+    public void timeToFirstFixIsRecordedBySource() {
+        mRace.start(10);
+        mScheduler.advance(3000);
+        mRace.onFix(fix(NETWORK, 0, 40), NETWORK);
+        mScheduler.advance(1000);
+        mRace.onFix(fix(NETWORK, 0, 30), NETWORK);
+        mScheduler.advance(20000);
+        mRace.onFix(fix(GPS, 0, 5), GPS);
+
+        mRace.start(10);
+        mScheduler.advance(1000);
+        mRace.onFix(fix(NETWORK, 0, 40), NETWORK);
+        mRace.cancel();
+
+        TimeToFirstFix network = mStatistics.get(NETWORK);
+        assertEquals(2, network.getCount());
+        assertEquals(1000, network.getLast());
+        assertEquals(1000, network.getBest());
+        assertEquals(2000, network.getAverage());
+
+        TimeToFirstFix gps = mStatistics.get(GPS);
+        assertEquals(1, gps.getCount());
+        assertEquals(24000, gps.getLast());
+    }
+
+    @Test
+    public void cancelledRaceIgnoresFixes() {
+        mRace.start(10);
+        mRace.cancel();
+
+        mRace.onFix(fix(GPS, 0, 5), GPS);
+        mScheduler.advance(FirstFixRace.DEFAULT_DEADLINE);
+
+        assertEquals(0, mDelivered.size());
+        assertEquals(0, mFinished);
+        assertNull(mStatistics.get(GPS));
+    }
+
+    @Test
+    public void statisticsOutliveTheRace() {
+        mRace.start(10);
+        mScheduler.advance(3000);
+        mRace.onFix(fix(GPS, 0, 5), GPS);
+
+        // the provider is replaced, as on fail-over
+        FirstFixRace next = new FirstFixRace(mScheduler, mStatistics, new FirstFixRace.Callback() {
+            @Override
+            public void onFixDelivered(Location location) {
+            }
+
+            @Override
+            public void onRaceFinished() {
+            }
+        });
+        next.start(10);
+        mScheduler.advance(1000);
+        next.onFix(fix(GPS, 0, 5), GPS);
+
+        TimeToFirstFix gps = mStatistics.get(GPS);
+        assertEquals(2, gps.getCount());
+        assertEquals(1000, gps.getBest());
+        assertEquals(2000, gps.getAverage());
+    }
+}
@@ -0,0 +1,39 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+
+/**
+ * The fixes given to the handlers and the providers in the tests, from the GPS unless stated
+ * otherwise.
+ */
+final class Fixes {
+
+    private Fixes() {
+    }
+
+    static Location fix(long time) {
+        Location location = new Location("gps");
+        location.setTime(time);
+        return location;
+    }
+
+    static Location fix(long time, float accuracy) {
+        Location location = fix(time);
+        location.setAccuracy(accuracy);
+        return location;
+    }
+
+    static Location fix(String provider, long time, float accuracy) {
+        Location location = new Location(provider);
+        location.setTime(time);
+        location.setAccuracy(accuracy);
+        return location;
+    }
+
+    static Location fix(long time, double latitude, double longitude, float accuracy) {
+        Location location = fix(time, accuracy);
+        location.setLatitude(latitude);
+        location.setLongitude(longitude);
+        return location;
+    }
+}
@@ -0,0 +1,252 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static be.webiteasy.android.location.Fixes.fix;
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class FusedClientLocationProviderTest {
+
+    private final FakeFusedLocationClient mClient = new FakeFusedLocationClient();
+
+    private final FakeScheduler mScheduler = new FakeScheduler();
+
+    private final List<Location> mLocations = new ArrayList<>();
+
+    private final List<List<Location>> mBatches = new ArrayList<>();
+
+    private final List<Integer> mStates = new ArrayList<>();
+
+    private final LocationProvider.BatchListener mListener = new LocationProvider.BatchListener() {
+        @Override
+        public void onLocationsChanged(List<Location> locations, LocationProvider locationProvider) {
+            mBatches.add(locations);
+        }
+
+        @Override
+        public void onLocationChanged(Location location, LocationProvider locationProvider) {
+            mLocations.add(location);
+        }
+
+        @Override
+        public void onProviderStateChange(int state, LocationProvider locationProvider) {
+            mStates.add(state);
+        }
+    };
+
+    private FusedClientLocationProvider newProvider() {
+        return new FusedClientLocationProvider(mClient, mListener, mScheduler);
+    }
+
+    @Test
+    public void passiveUpdatesAndLastLocationStartAtOnce() {
+        FusedClientLocationProvider provider = newProvider();
+
+        assertEquals(LocationProvider.STATE_STARTED, provider.getState());
+        assertTrue(mClient.requesting);
+        assertFalse(mClient.isActive());
+
+        mClient.answerLastLocation(fix(10));
+
+        assertEquals(1, mLocations.size());
+        assertEquals(10, provider.getLocation().getTime());
+    }
+
+    @Test
+    public void olderLastLocationDoesNotReplaceAFix() {
+        FusedClientLocationProvider provider = newProvider();
+
+        mClient.emit(fix(20));
+        mClient.answerLastLocation(fix(10));
+
+        assertEquals(1, mLocations.size());
+        assertEquals(20, provider.getLocation().getTime());
+    }
+
+    @Test
+    public void requireUpdateIsRequestedWithoutConnection() {
+        FusedClientLocationProvider provider = newProvider();
+        provider.setProfile(LocationProfile.BALANCED);
+
+        provider.requireUpdate();
+
+        assertTrue(mClient.isActive());
+        assertEquals(LocationProfile.BALANCED, mClient.profile);
+
+        // a pending request is not requested twice
+        provider.requireUpdate();
+        assertEquals(2, mClient.requests);
+    }
+
+    @Test
+    public void oneShotRequestGoesBackToPassiveOnItsFix() {
+        FusedClientLocationProvider provider = newProvider();
+        provider.requireUpdate();
+
+        mClient.emit(fix(1));
+
+        assertFalse(mClient.isActive());
+        assertTrue(mClient.requesting);
+        assertEquals(1, mLocations.size());
+        assertEquals(0, mScheduler.pendingTasks());
+    }
+
+    @Test
+    public void continuousRequestKeepsRunning() {
+        FusedClientLocationProvider provider = newProvider();
+        provider.setContinuous(true);
+        provider.requireUpdate();
+
+        mClient.emit(fix(1));
+        mClient.emit(fix(2));
+
+        assertTrue(mClient.isActive());
+        assertEquals(2, mLocations.size());
+
+        provider.cancelUpdate();
+        assertFalse(mClient.isActive());
+    }
+
+    @Test
+    public void batchesAreDeliveredAtOnce() {
+        FusedClientLocationProvider provider = newProvider();
+        provider.setProfile(LocationProfile.batched(10000, 60000));
+        provider.setContinuous(true);
+        provider.requireUpdate();
+
+        mClient.emitBatch(Arrays.asList(fix(1), fix(2), fix(3)));
+
+        assertEquals(1, mBatches.size());
+        assertEquals(3, mBatches.get(0).size());
+        assertEquals(3, provider.getLocation().getTime());
+    }
+
+    @Test
+    public void requestWithoutFixExpires() {
+        FusedClientLocationProvider provider = newProvider();
+        provider.setUpdateTimeout(30000);
+        provider.requireUpdate();
+
+        mScheduler.advance(30000);
+
+        assertFalse(mClient.isActive());
+        assertEquals(LocationProvider.STATE_TIMEOUT, provider.getState());
+
+        provider.requireUpdate();
+        assertTrue(mClient.isActive());
+    }
+
+    @Test
+    public void missingPermissionIsAnError() {
+        mClient.permissionDenied = true;
+
+        FusedClientLocationProvider provider = newProvider();
+
+        assertEquals(LocationProvider.STATE_ERROR, provider.getState());
+    }
+
+    @Test
+    public void providerStartsOnceTheRequestIsAccepted() {
+        mClient.deferAnswers = true;
+
+        FusedClientLocationProvider provider = newProvider();
+        assertEquals(LocationProvider.STATE_INITIALIZING, provider.getState());
+
+        mClient.answerRequests();
+        assertEquals(LocationProvider.STATE_STARTED, provider.getState());
+    }
+
+    @Test
+    public void refusedRequestIsAnError() {
+        mClient.requestFailure = new IllegalStateException("Play services outdated");
+
+        FusedClientLocationProvider provider = newProvider();
+
+        assertEquals(LocationProvider.STATE_ERROR, provider.getState());
+        assertFalse(mStates.contains(LocationProvider.STATE_STARTED));
+    }
+
+    @Test
+    public void refusedActiveRequestIsAnError() {
+        FusedClientLocationProvider provider = newProvider();
+        provider.setUpdateTimeout(30000);
+        mClient.requestFailure = new IllegalStateException("Play services outdated");
+
+        provider.requireUpdate();
+
+        assertEquals(LocationProvider.STATE_ERROR, provider.getState());
+        assertEquals(0, mScheduler.pendingTasks());
+    }
+
+    @Test
+    public void failedLastLocationIsAnError() {
+        FusedClientLocationProvider provider = newProvider();
+
+        mClient.failLastLocation(new IllegalStateException("Play services missing"));
+
+        assertEquals(LocationProvider.STATE_ERROR, provider.getState());
+    }
+
+    @Test
+    public void answersAfterStopAreIgnored() {
+        mClient.deferAnswers = true;
+        FusedClientLocationProvider provider = newProvider();
+
+        provider.stop();
+        mClient.answerRequests();
+
+        assertEquals(LocationProvider.STATE_STOPPED, provider.getState());
+    }
+
+    @Test
+    public void failingProviderIsReplacedByTheFallback() {
+        mClient.requestFailure = new IllegalStateException("Play services outdated");
+
+        SupervisedLocationProvider supervisor = new SupervisedLocationProvider(new SupervisedLocationProvider.Factory() {
+            @Override
+            public PassiveLocationProvider create() {
+                return newProvider();
+            }
+        }, new SupervisedLocationProvider.Factory() {
+            @Override
+            public PassiveLocationProvider create() {
+                FakeLocationProvider fallback = new FakeLocationProvider();
+                fallback.start();
+                return fallback;
+            }
+        }, mScheduler, SupervisedLocationProvider.DEFAULT_PROBE_INTERVAL);
+
+        assertTrue(supervisor.isFailedOver());
+
+        // a probe which is refused too does not fail back
+        mScheduler.advance(SupervisedLocationProvider.DEFAULT_PROBE_INTERVAL);
+        assertTrue(supervisor.isFailedOver());
+    }
+
+    @Test
+    public void stopRemovesTheUpdates() {
+        FusedClientLocationProvider provider = newProvider();
+        provider.requireUpdate();
+
+        provider.stop();
+
+        assertFalse(mClient.requesting);
+        assertEquals(LocationProvider.STATE_STOPPED, provider.getState());
+        assertEquals(0, mScheduler.pendingTasks());
+
+        provider.start();
+        assertTrue(mClient.requesting);
+        assertFalse(mClient.isActive());
+    }
+}
@@ -0,0 +1,148 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static be.webiteasy.android.location.Fixes.fix;
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class FusionLocationProviderTest {
+
+    @Test
+    public void firstFixFromAnySourceWins() throws Exception {
+        FakeLocationProvider google = new FakeLocationProvider();
+        FakeLocationProvider gps = new FakeLocationProvider();
+        FusionLocationProvider fusion = new FusionLocationProvider(new AccuracyScoringFilter(), google, gps);
+        RecordingListener listener = new RecordingListener();
+        fusion.setListener(listener);
+
+        Location first = fix("gps", 1000, 10);
+        gps.emit(first);
+
+        assertSame(first, fusion.getLocation());
+        assertSame(gps, fusion.getLastSource());
+        assertSame(gps, listener.sources.get(0));
+    }
+
+    @Test
+    public void lastKnownFixOfASourceIsKept() throws Exception {
+        FakeLocationProvider google = new FakeLocationProvider();
+        FakeLocationProvider gps = new FakeLocationProvider();
+        Location lastKnown = fix("gps", 1000, 10);
+        gps.emit(lastKnown);
+
+        FusionLocationProvider fusion = new FusionLocationProvider(new AccuracyScoringFilter(), google, gps);
+
+        assertSame(lastKnown, fusion.getLocation());
+        assertSame(gps, fusion.getLastSource());
+    }
+
+    @Test
+    public void arbiterKeepsTheBestFix() throws Exception {
+        FakeLocationProvider google = new FakeLocationProvider();
+        FakeLocationProvider network = new FakeLocationProvider();
+        FusionLocationProvider fusion = new FusionLocationProvider(new AccuracyScoringFilter(), google, network);
+        RecordingListener listener = new RecordingListener();
+        fusion.setListener(listener);
+
+        Location precise = fix("fused", 1000, 5);
+        google.emit(precise);
+        network.emit(fix("network", 2000, 800));
+
+        assertSame(precise, fusion.getLocation());
+        assertSame(google, fusion.getLastSource());
+        assertEquals(1, listener.locations.size());
+
+        Location better = fix("network", 3000, 4);
+        network.emit(better);
+
+        assertSame(better, fusion.getLocation());
+        assertSame(network, fusion.getLastSource());
+        assertEquals(2, listener.locations.size());
+    }
+
+    @Test
+    public void firstGoodFixWithdrawsOtherRequests() throws Exception {
+        FakeLocationProvider google = new FakeLocationProvider();
+        FakeLocationProvider gps = new FakeLocationProvider();
+        FakeLocationProvider network = new FakeLocationProvider();
+        FusionLocationProvider fusion = new FusionLocationProvider(new AccuracyScoringFilter(), google, gps, network);
+
+        fusion.requireUpdate();
+        assertEquals(1, google.updateRequests);
+        assertEquals(1, gps.updateRequests);
+        assertEquals(1, network.updateRequests);
+
+        network.emit(fix("network", 1000, 50));
+
+        assertEquals(1, google.cancelRequests);
+        assertEquals(1, gps.cancelRequests);
+        assertEquals(0, network.cancelRequests);
+
+        // passive fixes do not cancel anything
+        gps.emit(fix("gps", 2000, 5));
+        assertEquals(1, google.cancelRequests);
+    }
+
+    @Test
+    public void stateIsTheMostAvailableOne() throws Exception {
+        FakeLocationProvider google = new FakeLocationProvider();
+        FakeLocationProvider gps = new FakeLocationProvider();
+        FusionLocationProvider fusion = new FusionLocationProvider(new AccuracyScoringFilter(), google, gps);
+        RecordingListener listener = new RecordingListener();
+        fusion.setListener(listener);
+
+        assertEquals(LocationProvider.STATE_INITIALIZING, fusion.getState());
+
+        google.setState(LocationProvider.STATE_ERROR);
+        assertEquals(LocationProvider.STATE_INITIALIZING, fusion.getState());
+
+        gps.setState(LocationProvider.STATE_STARTED);
+        assertEquals(LocationProvider.STATE_STARTED, fusion.getState());
+
+        gps.setState(LocationProvider.STATE_ERROR);
+        assertEquals(LocationProvider.STATE_ERROR, fusion.getState());
+        assertEquals(2, listener.states.size());
+    }
+
+    @Test
+    public void handlerReceivesFusedFixes() throws Exception {
+        FakeLocationProvider google = new FakeLocationProvider();
+        FakeLocationProvider gps = new FakeLocationProvider();
+        FusionLocationProvider fusion = new FusionLocationProvider(new AccuracyScoringFilter(), google, gps);
+        LocationHandler handler = new LocationHandler(fusion);
+
+        handler.requireUpdate();
+        Location fix = fix("gps", 1000, 8);
+        gps.emit(fix);
+
+        assertSame(fix, handler.getLocation());
+        assertEquals(1, google.cancelRequests);
+    }
+
+    private static class RecordingListener implements LocationProvider.Listener {
+        final List<Location> locations = new ArrayList<>();
+        final List<LocationProvider> sources = new ArrayList<>();
+        final List<Integer> states = new ArrayList<>();
+
+        @Override
+        public void onLocationChanged(Location location, LocationProvider locationProvider) {
+            locations.add(location);
+            sources.add(locationProvider);
+        }
+
+        @Override
+        public void onProviderStateChange(int state, LocationProvider locationProvider) {
+            states.add(state);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class KalmanLocationFilterTest {
+
+    private static final double LATITUDE = 50.7;
+    private static final double LONGITUDE = 4.5;
+
+    private static final double METERS_PER_DEGREE = 6371000 * Math.PI / 180;
+
+    private static final float NOISE = 15;
+
+    /**
+     * Fixes every second along a straight line, with a gaussian noise of {@link #NOISE} meters
+     *
+     * @param east  speed to the east, in meters per second
+     * @param north speed to the north, in meters per second
+     */
+    private static Trace trace(int count, double east, double north, long seed) {
+        final Random random = new Random(seed);
+        final Trace trace = new Trace(count);
+        final double metersPerLongitude = METERS_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE));
+
+        for (int i = 0; i < count; i++) {
+            final double x = east * i;
+            final double y = north * i;
+
+            trace.truth[i] = new Location("truth");
+            trace.truth[i].setLatitude(LATITUDE + y / METERS_PER_DEGREE);
+            trace.truth[i].setLongitude(LONGITUDE + x / metersPerLongitude);
+
+            trace.fixes[i] = new Location("gps");
+            trace.fixes[i].setTime(1000L * i);
+            trace.fixes[i].setAccuracy(NOISE);
+            trace.fixes[i].setLatitude(LATITUDE + (y + random.nextGaussian() * NOISE) / METERS_PER_DEGREE);
+            trace.fixes[i].setLongitude(LONGITUDE + (x + random.nextGaussian() * NOISE) / metersPerLongitude);
+        }
+
+        return trace;
+    }
+
+    /**
+     * @return the root mean square error of the fixes, after the first skipped ones
+     */
+    private static double rmsError(Location[] fixes, Location[] truth, int skip) {
+        double sum = 0;
+
+        for (int i = skip; i < fixes.length; i++) {
+            final double error = LocationTools.distance(fixes[i], truth[i]);
+            sum += error * error;
+        }
+
+        return Math.sqrt(sum / (fixes.length - skip));
+    }
+
+    private static Location copy(Location location) {
+        return new Location(location);
+    }
+
+    @Test
+    public void smoothsStationaryJitter() throws Exception {
+        Trace trace = trace(300, 0, 0, 1);
+        KalmanLocationFilter filter = new KalmanLocationFilter();
+
+        Location[] raw = new Location[trace.fixes.length];
+        Location current = null;
+        for (int i = 0; i < trace.fixes.length; i++) {
+            raw[i] = copy(trace.fixes[i]);
+            current = filter.filter(trace.fixes[i], current);
+            assertSame(trace.fixes[i], current);
+        }
+
+        double rawError = rmsError(raw, trace.truth, 20);
+        double smoothedError = rmsError(trace.fixes, trace.truth, 20);
+
+        assertTrue("raw " + rawError + " smoothed " + smoothedError, smoothedError < rawError / 2);
+        assertTrue(current.getSpeed() < 3);
+        assertEquals(NOISE, current.getAccuracy(), 0);
+    }
+
+    @Test
+    public void tracksConstantVelocity() throws Exception {
+        // 10 m/s to the east
+        Trace trace = trace(300, 10, 0, 2);
+        KalmanLocationFilter filter = new KalmanLocationFilter();
+
+        Location[] raw = new Location[trace.fixes.length];
+        Location current = null;
+        for (int i = 0; i < trace.fixes.length; i++) {
+            raw[i] = copy(trace.fixes[i]);
+            current = filter.filter(trace.fixes[i], current);
+        }
+
+        double rawError = rmsError(raw, trace.truth, 20);
+        double smoothedError = rmsError(trace.fixes, trace.truth, 20);
+
+        assertTrue("raw " + rawError + " smoothed " + smoothedError, smoothedError < rawError * 0.7);
+        assertEquals(10, current.getSpeed(), 2);
+        assertTrue(current.hasBearing());
+        assertEquals(90, current.getBearing(), 10);
+    }
+
+    @Test
+    public void restartsAfterAGap() throws Exception {
+        KalmanLocationFilter filter = new KalmanLocationFilter(3, 60000);
+        Trace trace = trace(30, 0, 0, 3);
+
+        Location current = null;
+        for (Location fix : trace.fixes) {
+            current = filter.filter(fix, current);
+        }
+
+        // much later, somewhere else : the fix is taken as is
+        Location later = new Location("gps");
+        later.setTime(trace.fixes[29].getTime() + 5 * 60000);
+        later.setLatitude(LATITUDE + 0.1);
+        later.setLongitude(LONGITUDE);
+        later.setAccuracy(NOISE);
+
+        filter.filter(later, current);
+
+        assertEquals(LATITUDE + 0.1, later.getLatitude(), 1e-9);
+        assertEquals(0, later.getSpeed(), 0);
+    }
+
+    @Test
+    public void stepAllocatesNothing() throws Exception {
+        final Object bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        Trace trace = trace(20000, 3, 4, 4);
+        KalmanLocationFilter filter = new KalmanLocationFilter();
+
+        // warm up
+        for (int i = 0; i < 10000; i++) {
+            filter.filter(trace.fixes[i], null);
+        }
+
+        long thread = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(thread);
+        for (int i = 10000; i < 20000; i++) {
+            filter.filter(trace.fixes[i], null);
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(thread) - before;
+
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private static class Trace {
+        final Location[] fixes;
+        final Location[] truth;
+
+        Trace(int count) {
+            fixes = new Location[count];
+            truth = new Location[count];
+        }
+    }
+}
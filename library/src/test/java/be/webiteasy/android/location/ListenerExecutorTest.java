@@ -0,0 +1,120 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static be.webiteasy.android.location.Fixes.fix;
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ListenerExecutorTest {
+
+    private final List<Runnable> mTasks = new ArrayList<>();
+
+    private final Executor mExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mTasks.add(command);
+        }
+    };
+
+    private final FakeLocationProvider mProvider = new FakeLocationProvider();
+
+    private final LocationHandler mHandler = new LocationHandler(mProvider);
+
+    private final List<Location> mLocations = new ArrayList<>();
+
+    private final List<List<Location>> mBatches = new ArrayList<>();
+
+    private final List<String> mErrors = new ArrayList<>();
+
+    private void runTasks() {
+        for (Runnable task : new ArrayList<>(mTasks))
+            task.run();
+
+        mTasks.clear();
+    }
+
+    @Before
+    public void setUp() {
+        mHandler.clearLocationFilters();
+        mHandler.addLocationListener(new LocationHandler.BatchListener() {
+            @Override
+            public void onLocationsChanged(List<Location> locations) {
+                mBatches.add(locations);
+            }
+
+            @Override
+            public void onLocationChanged(LocationHandler.LocationChangedEvent event) {
+                mLocations.add(event.getLocation());
+            }
+
+            @Override
+            public void onLocationError(LocationHandler.LocationErrorEvent event) {
+                mErrors.add(event.getMessage());
+            }
+        });
+    }
+
+    @Test
+    public void listenersAreNotifiedOnTheProviderThreadByDefault() {
+        mProvider.emit(fix(1));
+
+        assertEquals(1, mLocations.size());
+        assertEquals(0, mTasks.size());
+    }
+
+    @Test
+    public void listenersAreNotifiedByTheExecutor() {
+        mHandler.setListenerExecutor(mExecutor);
+
+        mProvider.emit(fix(1));
+        mProvider.emit(fix(2));
+        assertEquals(0, mLocations.size());
+
+        runTasks();
+
+        // each event keeps the location it was sent for
+        assertEquals(2, mLocations.size());
+        assertEquals(1, mLocations.get(0).getTime());
+        assertEquals(2, mLocations.get(1).getTime());
+    }
+
+    @Test
+    public void batchesAndErrorsGoThroughTheExecutor() {
+        mHandler.setListenerExecutor(mExecutor);
+
+        mProvider.emitBatch(Arrays.asList(fix(1), fix(2)));
+        mHandler.requireUpdate();
+        mProvider.setState(LocationProvider.STATE_TIMEOUT);
+        assertEquals(0, mBatches.size());
+        assertEquals(0, mErrors.size());
+
+        runTasks();
+
+        assertEquals(1, mBatches.size());
+        assertEquals(1, mErrors.size());
+        assertEquals(0, mLocations.size());
+    }
+
+    @Test
+    public void removingTheExecutorNotifiesAtOnceAgain() {
+        mHandler.setListenerExecutor(mExecutor);
+        mHandler.setListenerExecutor(null);
+
+        mProvider.emit(fix(1));
+
+        assertEquals(1, mLocations.size());
+    }
+}
@@ -0,0 +1,151 @@
+package be.webiteasy.android.location;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static be.webiteasy.android.location.Fixes.fix;
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ListenerSetTest {
+
+    @Test
+    public void addAndRemove() throws Exception {
+        ListenerSet<String> set = new ListenerSet<>(String.class);
+
+        assertTrue(set.isEmpty());
+        assertTrue(set.add("a"));
+        assertTrue(set.add("b"));
+        assertFalse(set.add("a"));
+        assertEquals(2, set.size());
+
+        assertTrue(set.remove("a"));
+        assertFalse(set.remove("a"));
+        assertFalse(set.remove(null));
+        assertArrayEquals(new String[]{"b"}, set.snapshot());
+    }
+
+    @Test
+    public void snapshotIsNotAffectedByLaterChanges() throws Exception {
+        ListenerSet<String> set = new ListenerSet<>(String.class);
+        set.add("a");
+        set.add("b");
+
+        String[] snapshot = set.snapshot();
+        set.remove("a");
+        set.add("c");
+
+        assertArrayEquals(new String[]{"a", "b"}, snapshot);
+        assertArrayEquals(new String[]{"b", "c"}, set.snapshot());
+        assertSame(set.snapshot(), set.snapshot());
+    }
+
+    @Test
+    public void listenerCanDetachDuringDispatch() throws Exception {
+        final LocationHandler handler = new LocationHandler(new FakeLocationProvider());
+        final CountingListener other = new CountingListener();
+
+        CountingListener once = new CountingListener() {
+            @Override
+            public void onLocationChanged(LocationHandler.LocationChangedEvent event) {
+                super.onLocationChanged(event);
+                handler.removeLocationListener(this);
+            }
+        };
+
+        handler.addLocationListener(once);
+        handler.addLocationListener(other);
+
+        handler.setLocation(fix(1));
+        handler.setLocation(fix(2));
+
+        assertEquals(1, once.changes.get());
+        assertEquals(2, other.changes.get());
+    }
+
+    /**
+     * Several threads add and remove listeners while locations are dispatched at a high rate.
+     * Dispatching must never fail and the listeners attached for the whole test must receive
+     * every location.
+     */
+    @Test
+    public void concurrentChangesDuringDispatch() throws Exception {
+        final LocationHandler handler = new LocationHandler(new FakeLocationProvider());
+        final CountingListener permanent = new CountingListener();
+        handler.addLocationListener(permanent);
+
+        final int threads = 4;
+        final int dispatches = 50000;
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> mutators = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+
+                        while (running.get()) {
+                            CountingListener listener = new CountingListener();
+                            handler.addLocationListener(listener);
+                            handler.removeLocationListener(listener);
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            thread.start();
+            mutators.add(thread);
+        }
+
+        start.countDown();
+        long begin = System.nanoTime();
+        try {
+            for (int i = 1; i <= dispatches; i++) {
+                handler.setLocation(fix(i));
+            }
+        } finally {
+            running.set(false);
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        for (Thread thread : mutators) {
+            thread.join();
+        }
+
+        assertNull(failure.get());
+        assertEquals(dispatches, permanent.changes.get());
+        assertEquals(1, handler.mListeners.size());
+
+        System.out.println("ListenerSet : " + (elapsed / dispatches) + " ns per dispatch with "
+                + threads + " mutating threads, " + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms");
+    }
+
+    private static class CountingListener implements LocationHandler.Listener {
+        final AtomicInteger changes = new AtomicInteger();
+
+        @Override
+        public void onLocationChanged(LocationHandler.LocationChangedEvent event) {
+            changes.incrementAndGet();
+        }
+
+        @Override
+        public void onLocationError(LocationHandler.LocationErrorEvent event) {
+        }
+    }
+}
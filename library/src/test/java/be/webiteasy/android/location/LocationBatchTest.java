@@ -0,0 +1,232 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+import android.support.annotation.Nullable;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static be.webiteasy.android.location.Fixes.fix;
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class LocationBatchTest {
+
+    private final FakeScheduler mScheduler = new FakeScheduler();
+
+    private final List<List<Location>> mBatches = new ArrayList<>();
+
+    private final LocationBatcher mBatcher = new LocationBatcher(mScheduler, new LocationBatcher.Callback() {
+        @Override
+        public void onBatch(List<Location> locations) {
+            mBatches.add(locations);
+        }
+    });
+
+    @Test
+    public void batchIsDeliveredAfterTheMaxWaitTime() {
+        mBatcher.setMaxWaitTime(60000);
+
+        mBatcher.add(fix(1));
+        mScheduler.advance(20000);
+        mBatcher.add(fix(2));
+        mScheduler.advance(39999);
+        assertEquals(0, mBatches.size());
+
+        mScheduler.advance(1);
+        assertEquals(1, mBatches.size());
+        assertEquals(2, mBatches.get(0).size());
+        assertEquals(1, mBatches.get(0).get(0).getTime());
+        assertEquals(0, mBatcher.size());
+        assertEquals(0, mScheduler.pendingTasks());
+    }
+
+    @Test
+    public void fullBatchIsDeliveredAtOnce() {
+        mBatcher.setMaxWaitTime(60000);
+
+        for (int i = 0; i < LocationBatcher.MAX_BATCH_SIZE; i++)
+            mBatcher.add(fix(i));
+
+        assertEquals(1, mBatches.size());
+        assertEquals(LocationBatcher.MAX_BATCH_SIZE, mBatches.get(0).size());
+        assertEquals(0, mScheduler.pendingTasks());
+    }
+
+    @Test
+    public void flushDeliversTheWaitingFixes() {
+        mBatcher.setMaxWaitTime(60000);
+        mBatcher.flush();
+        assertEquals(0, mBatches.size());
+
+        mBatcher.add(fix(1));
+        mBatcher.flush();
+        assertEquals(1, mBatches.size());
+
+        mScheduler.advance(60000);
+        assertEquals(1, mBatches.size());
+    }
+
+    @Test
+    public void stoppingTheBatchingDeliversTheWaitingFixes() {
+        mBatcher.setMaxWaitTime(60000);
+        mBatcher.add(fix(1));
+
+        mBatcher.setMaxWaitTime(0);
+
+        assertFalse(mBatcher.isBatching());
+        assertEquals(1, mBatches.size());
+    }
+
+    @Test
+    public void handlerDeliversTheKeptFixesToTheBatchListeners() {
+        FakeLocationProvider provider = new FakeLocationProvider();
+        LocationHandler handler = new LocationHandler(provider);
+        handler.clearLocationFilters();
+        handler.addLocationFilter(new LocationHandler.Filter() {
+            @Nullable
+            @Override
+            public Location filter(Location candidate, @Nullable Location current) {
+                return candidate.getTime() == 2 ? null : candidate;
+            }
+        });
+
+        RecordingBatchListener batchListener = new RecordingBatchListener();
+        final List<Location> single = new ArrayList<>();
+        handler.addLocationListener(batchListener);
+        handler.addLocationListener(new LocationHandler.Listener() {
+            @Override
+            public void onLocationChanged(LocationHandler.LocationChangedEvent event) {
+                single.add(event.getLocation());
+            }
+
+            @Override
+            public void onLocationError(LocationHandler.LocationErrorEvent event) {
+            }
+        });
+
+        provider.emitBatch(Arrays.asList(fix(1), fix(2), fix(3)));
+
+        assertEquals(0, batchListener.single.size());
+        assertEquals(1, batchListener.batches.size());
+        assertEquals(2, batchListener.batches.get(0).size());
+        assertEquals(3, batchListener.batches.get(0).get(1).getTime());
+        assertEquals(2, single.size());
+        assertEquals(3, handler.getLocation().getTime());
+
+        provider.emit(fix(4));
+        assertEquals(1, batchListener.single.size());
+        assertEquals(1, batchListener.batches.size());
+    }
+
+    @Test
+    public void rejectedBatchIsNotDelivered() {
+        FakeLocationProvider provider = new FakeLocationProvider();
+        LocationHandler handler = new LocationHandler(provider);
+        handler.clearLocationFilters();
+        handler.addLocationFilter(new LocationHandler.Filter() {
+            @Nullable
+            @Override
+            public Location filter(Location candidate, @Nullable Location current) {
+                return null;
+            }
+        });
+
+        RecordingBatchListener listener = new RecordingBatchListener();
+        handler.addLocationListener(listener);
+
+        provider.emitBatch(Arrays.asList(fix(1), fix(2)));
+
+        assertEquals(0, listener.batches.size());
+    }
+
+    @Test
+    public void handlerSetsTheMaxWaitTimeOfTheProfile() {
+        FakeLocationProvider provider = new FakeLocationProvider();
+        LocationHandler handler = new LocationHandler(provider);
+
+        handler.setMaxWaitTime(60000);
+
+        assertEquals(60000, handler.getProfile().maxWaitTime);
+        assertEquals(60000, provider.maxWaitTime);
+    }
+
+    @Test
+    public void poolForwardsTheBatchesToEveryLease() {
+        ProviderPool pool = new ProviderPool();
+        final List<FakeLocationProvider> created = new ArrayList<>();
+        SupervisedLocationProvider.Factory factory = new SupervisedLocationProvider.Factory() {
+            @Override
+            public PassiveLocationProvider create() {
+                FakeLocationProvider provider = new FakeLocationProvider();
+                provider.start();
+                created.add(provider);
+                return provider;
+            }
+        };
+
+        final List<List<Location>> batches = new ArrayList<>();
+        final List<Location> single = new ArrayList<>();
+
+        PassiveLocationProvider first = pool.acquire(ProviderPool.SUPERVISED, factory);
+        first.setListener(new LocationProvider.BatchListener() {
+            @Override
+            public void onLocationsChanged(List<Location> locations, LocationProvider locationProvider) {
+                batches.add(locations);
+            }
+
+            @Override
+            public void onLocationChanged(Location location, LocationProvider locationProvider) {
+            }
+
+            @Override
+            public void onProviderStateChange(int state, LocationProvider locationProvider) {
+            }
+        });
+
+        PassiveLocationProvider second = pool.acquire(ProviderPool.SUPERVISED, factory);
+        second.setListener(new LocationProvider.Listener() {
+            @Override
+            public void onLocationChanged(Location location, LocationProvider locationProvider) {
+                single.add(location);
+            }
+
+            @Override
+            public void onProviderStateChange(int state, LocationProvider locationProvider) {
+            }
+        });
+
+        created.get(0).emitBatch(Arrays.asList(fix(1), fix(2)));
+
+        assertEquals(1, batches.size());
+        assertEquals(2, batches.get(0).size());
+        assertEquals(2, single.size());
+        assertEquals(2, first.getLocation().getTime());
+    }
+
+    private static class RecordingBatchListener implements LocationHandler.BatchListener {
+        final List<Location> single = new ArrayList<>();
+        final List<List<Location>> batches = new ArrayList<>();
+
+        @Override
+        public void onLocationsChanged(List<Location> locations) {
+            batches.add(locations);
+        }
+
+        @Override
+        public void onLocationChanged(LocationHandler.LocationChangedEvent event) {
+            single.add(event.getLocation());
+        }
+
+        @Override
+        public void onLocationError(LocationHandler.LocationErrorEvent event) {
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package be.webiteasy.android.location;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class LocationCodecTest {
+
+    private static Location sample() {
+        Location location = new Location("fused");
+        location.setTime(1509280090000L);
+        location.setElapsedRealtimeNanos(123456789012L);
+        location.setLatitude(50.6947);
+        location.setLongitude(4.5372);
+        location.setAltitude(112.5);
+        location.setAccuracy(8.5f);
+        location.setSpeed(3.2f);
+        location.setBearing(271.0f);
+        location.setFlags(new Location.FlagEntry[]{
+                new Location.FlagEntry("BE/WBR", "Brabant wallon"),
+                new Location.FlagEntry("BE/WBR/RIX", null)
+        });
+
+        return location;
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        Location in = sample();
+        Location out = LocationCodec.decode(LocationCodec.encode(in));
+
+        assertNotNull(out);
+        assertEquals("fused", out.getProvider());
+        assertEquals(in.getTime(), out.getTime());
+        assertEquals(in.getElapsedRealtimeNanos(), out.getElapsedRealtimeNanos());
+        assertEquals(in.getLatitude(), out.getLatitude(), 0);
+        assertEquals(in.getLongitude(), out.getLongitude(), 0);
+        assertEquals(in.getAltitude(), out.getAltitude(), 0);
+        assertEquals(in.getAccuracy(), out.getAccuracy(), 0);
+        assertEquals(in.getSpeed(), out.getSpeed(), 0);
+        assertEquals(in.getBearing(), out.getBearing(), 0);
+
+        assertNotNull(out.getFlags());
+        assertEquals(2, out.getFlags().length);
+        assertEquals("BE/WBR", out.getFlags()[0].flag);
+        assertEquals("Brabant wallon", out.getFlags()[0].label);
+        assertEquals("BE/WBR/RIX", out.getFlags()[1].flag);
+        assertNull(out.getFlags()[1].label);
+    }
+
+    @Test
+    public void roundTripKeepsMissingFields() throws Exception {
+        android.location.Location in = new android.location.Location("gps");
+        in.setLatitude(-33.9);
+        in.setLongitude(18.4);
+
+        Location out = LocationCodec.decode(LocationCodec.encode(in));
+
+        assertNotNull(out);
+        assertFalse(out.hasAccuracy());
+        assertFalse(out.hasAltitude());
+        assertFalse(out.hasSpeed());
+        assertFalse(out.hasBearing());
+        assertNull(out.getFlags());
+    }
+
+    @Test
+    public void readsLegacyStrings() throws Exception {
+        Location out = LocationCodec.decode("v1/gps/1509280090000/50.6947/4.5372/8.5/112.5/3.2");
+
+        assertNotNull(out);
+        assertEquals("gps", out.getProvider());
+        assertEquals(1509280090000L, out.getTime());
+        assertEquals(50.6947, out.getLatitude(), 0);
+        assertEquals(4.5372, out.getLongitude(), 0);
+        assertEquals(8.5f, out.getAccuracy(), 0);
+        assertEquals(112.5, out.getAltitude(), 0);
+        assertEquals(3.2f, out.getSpeed(), 0);
+    }
+
+    @Test
+    public void rejectsInvalidValues() throws Exception {
+        assertNull(LocationCodec.decode(null));
+        assertNull(LocationCodec.decode(""));
+        assertNull(LocationCodec.decode("v1/gps/not/a/location"));
+        assertNull(LocationCodec.decode("v1/gps/x/50.6/4.5/8.5/112.5/3.2"));
+        assertNull(LocationCodec.decode("AQID"));
+        assertNull(LocationCodec.decode("not base64 !"));
+
+        byte[] truncated = LocationCodec.toBytes(sample());
+        assertNull(LocationCodec.fromBytes(java.util.Arrays.copyOf(truncated, truncated.length - 3)));
+    }
+
+    /**
+     * Not an assertion on timings : prints the cost of a codec round-trip compared to the
+     * legacy string format.
+     */
+    @Test
+    public void benchmarkRoundTrip() throws Exception {
+        final Location location = sample();
+        final int iterations = 50000;
+
+        // warm up
+        for (int i = 0; i < iterations; i++) {
+            LocationCodec.decode(LocationCodec.encode(location));
+            LocationCodec.decode(legacyEncode(location));
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            LocationCodec.decode(LocationCodec.encode(location));
+        }
+        final long binary = (System.nanoTime() - start) / iterations;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            LocationCodec.decode(legacyEncode(location));
+        }
+        final long legacy = (System.nanoTime() - start) / iterations;
+
+        System.out.println("LocationCodec round-trip : v2 " + binary + " ns/op, v1 " + legacy + " ns/op");
+    }
+
+    private static String legacyEncode(android.location.Location location) {
+        return "v1/" +
+                location.getProvider() + "/" +
+                location.getTime() + "/" +
+                location.getLatitude() + "/" +
+                location.getLongitude() + "/" +
+                location.getAccuracy() + "/" +
+                location.getAltitude() + "/" +
+                location.getSpeed();
+    }
+}
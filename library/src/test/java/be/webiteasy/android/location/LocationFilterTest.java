@@ -0,0 +1,158 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static be.webiteasy.android.location.Fixes.fix;
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class LocationFilterTest {
+
+    @Test
+    public void coarseFixDoesNotReplaceRecentPreciseFix() throws Exception {
+        LocationHandler handler = new LocationHandler(new FakeLocationProvider());
+
+        Location gps = fix("gps", 10000, 8);
+        handler.setLocation(gps);
+
+        // newer, but coarse
+        handler.setLocation(fix("network", 15000, 600));
+        assertSame(gps, handler.getLocation());
+
+        // newer and about as accurate once the GPS fix aged
+        Location network = fix("network", 20000, 20);
+        handler.setLocation(network);
+        assertSame(network, handler.getLocation());
+    }
+
+    @Test
+    public void coarseFixReplacesOldPreciseFix() throws Exception {
+        LocationHandler handler = new LocationHandler(new FakeLocationProvider());
+        handler.setLocation(fix("gps", 0, 8));
+
+        // 5 minutes later, the user may be anywhere
+        Location network = fix("network", 5 * 60000, 600);
+        handler.setLocation(network);
+        assertSame(network, handler.getLocation());
+    }
+
+    @Test
+    public void olderFixIsRejected() throws Exception {
+        LocationHandler handler = new LocationHandler(new FakeLocationProvider());
+        Location current = fix("network", 10000, 500);
+        handler.setLocation(current);
+
+        handler.setLocation(fix("gps", 9000, 5));
+        handler.setLocation(fix("gps", 10000, 5));
+        assertSame(current, handler.getLocation());
+    }
+
+    @Test
+    public void fixWithoutAccuracyIsTheLeastAccurate() throws Exception {
+        AccuracyScoringFilter filter = new AccuracyScoringFilter();
+
+        Location noAccuracy = new Location("gps");
+        noAccuracy.setTime(2000);
+
+        assertNull(filter.filter(noAccuracy, fix("gps", 1000, 3000)));
+
+        Location otherNoAccuracy = new Location("gps");
+        otherNoAccuracy.setTime(1000);
+        assertSame(noAccuracy, filter.filter(noAccuracy, otherNoAccuracy));
+    }
+
+    @Test
+    public void customStagesRunInOrder() throws Exception {
+        LocationHandler handler = new LocationHandler(new FakeLocationProvider());
+        final List<String> calls = new ArrayList<>();
+        final Location corrected = fix("corrected", 5000, 1);
+
+        handler.addLocationFilter(new LocationHandler.Filter() {
+            @Override
+            public Location filter(Location candidate, Location current) {
+                calls.add("first");
+                return candidate.getProvider().equals("blocked") ? null : candidate;
+            }
+        });
+        handler.addLocationFilter(new LocationHandler.Filter() {
+            @Override
+            public Location filter(Location candidate, Location current) {
+                calls.add("second");
+                return corrected;
+            }
+        });
+
+        handler.setLocation(fix("blocked", 1000, 5));
+        assertFalse(handler.hasLocation());
+        assertEquals(1, calls.size());
+
+        handler.setLocation(fix("gps", 2000, 5));
+        assertSame(corrected, handler.getLocation());
+        assertEquals(3, calls.size());
+        assertEquals("second", calls.get(2));
+    }
+
+    @Test
+    public void withoutStagesEveryFixIsKept() throws Exception {
+        LocationHandler handler = new LocationHandler(new FakeLocationProvider());
+        handler.clearLocationFilters();
+
+        handler.setLocation(fix("gps", 2000, 5));
+        Location older = fix("network", 1000, 500);
+        handler.setLocation(older);
+
+        assertSame(older, handler.getLocation());
+    }
+
+    /**
+     * Not an assertion on timings : prints the cost of the selection pipeline at a high fix
+     * rate, a mix of precise and coarse fixes from two providers.
+     */
+    @Test
+    public void benchmarkPipeline() throws Exception {
+        final int count = 1000000;
+        final Location[] fixes = new Location[count];
+        for (int i = 0; i < count; i++) {
+            fixes[i] = i % 3 == 0 ? fix("network", i * 100L, 500) : fix("gps", i * 100L, 5 + i % 20);
+        }
+
+        long kept = 0;
+        for (int round = 0; round < 2; round++) {
+            LocationHandler handler = new LocationHandler(new FakeLocationProvider());
+            final int[] changes = new int[1];
+            handler.addLocationListener(new LocationHandler.Listener() {
+                @Override
+                public void onLocationChanged(LocationHandler.LocationChangedEvent event) {
+                    changes[0]++;
+                }
+
+                @Override
+                public void onLocationError(LocationHandler.LocationErrorEvent event) {
+                }
+            });
+
+            long start = System.nanoTime();
+            for (Location fix : fixes) {
+                handler.setLocation(fix);
+            }
+            long elapsed = System.nanoTime() - start;
+            kept = changes[0];
+
+            if (round == 1) {
+                System.out.println("Filter pipeline : " + (elapsed / count) + " ns per fix, "
+                        + kept + " kept out of " + count);
+            }
+        }
+
+        assertTrue(kept > 0 && kept < count);
+    }
+}
@@ -0,0 +1,175 @@
+package be.webiteasy.android.location;
+
+import android.content.ComponentCallbacks2;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class LocationPersisterTest {
+
+    private static final String KEY = "last";
+
+    private FakeScheduler mScheduler;
+    private MemoryStorage mStorage;
+
+    @Before
+    public void setUp() {
+        mScheduler = new FakeScheduler();
+        mStorage = new MemoryStorage();
+    }
+
+    private static Location fix(long time) {
+        Location location = new Location("gps");
+        location.setTime(time);
+        location.setLatitude(50 + time / 1e6);
+        location.setLongitude(4);
+        return location;
+    }
+
+    @Test
+    public void coalescesWritesWithinInterval() throws Exception {
+        LocationPersister persister = new LocationPersister(mStorage, mScheduler, 30000);
+
+        // one fix per second during two minutes
+        for (int i = 1; i <= 120; i++) {
+            persister.put(KEY, fix(i * 1000));
+            mScheduler.advance(1000);
+        }
+
+        assertEquals(4, mStorage.writes);
+        assertEquals(120000, LocationCodec.decode(mStorage.values.get(KEY)).getTime());
+    }
+
+    @Test
+    public void writesEveryFixWithoutInterval() throws Exception {
+        LocationPersister persister = new LocationPersister(mStorage, mScheduler, 0);
+
+        for (int i = 1; i <= 10; i++) {
+            persister.put(KEY, fix(i * 1000));
+        }
+
+        assertEquals(10, mStorage.writes);
+        assertEquals(0, mScheduler.pendingTasks());
+    }
+
+    @Test
+    public void latestFixSurvivesProcessDeathAfterBackground() throws Exception {
+        LocationPersister persister = new LocationPersister(mStorage, mScheduler, 30000);
+
+        for (int i = 1; i <= 10; i++) {
+            persister.put(KEY, fix(i * 1000));
+            mScheduler.advance(1000);
+        }
+
+        assertEquals(0, mStorage.writes);
+        assertEquals(10000, persister.get(KEY).getTime());
+
+        // the app goes to background, then the process is killed
+        persister.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertEquals(1, mStorage.writes);
+        assertEquals(0, mScheduler.pendingTasks());
+
+        LocationPersister restored = new LocationPersister(mStorage, new FakeScheduler(), 30000);
+        assertEquals(10000, restored.get(KEY).getTime());
+    }
+
+    @Test
+    public void explicitFlushWritesOnlyOnce() throws Exception {
+        LocationPersister persister = new LocationPersister(mStorage, mScheduler, 30000);
+
+        persister.put(KEY, fix(1000));
+        persister.put(KEY, fix(2000));
+        persister.flush();
+        persister.flush();
+        mScheduler.advance(60000);
+
+        assertEquals(1, mStorage.writes);
+        assertEquals(2000, new LocationPersister(mStorage, mScheduler, 0).get(KEY).getTime());
+    }
+
+    @Test
+    public void nullLocationIsPersisted() throws Exception {
+        LocationPersister persister = new LocationPersister(mStorage, mScheduler, 0);
+
+        persister.put(KEY, fix(1000));
+        persister.put(KEY, null);
+
+        assertNull(persister.get(KEY));
+        assertNull(new LocationPersister(mStorage, mScheduler, 0).get(KEY));
+    }
+
+    @Test
+    public void concurrentFlushesWriteTheLatestFixLast() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        // the first write is slow
+        mStorage = new MemoryStorage() {
+            @Override
+            public void write(Map<String, String> values) {
+                if (writes == 0) {
+                    writing.countDown();
+
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+
+                super.write(values);
+            }
+        };
+        final LocationPersister persister = new LocationPersister(mStorage, mScheduler, 30000);
+        Runnable flush = new Runnable() {
+            @Override
+            public void run() {
+                persister.flush();
+            }
+        };
+
+        persister.put(KEY, fix(1000));
+        Thread older = new Thread(flush);
+        older.start();
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+        persister.put(KEY, fix(2000));
+        Thread newer = new Thread(flush);
+        newer.start();
+        newer.join(200);
+
+        release.countDown();
+        older.join(5000);
+        newer.join(5000);
+
+        assertEquals(2, mStorage.writes);
+        assertEquals(2000, LocationCodec.decode(mStorage.values.get(KEY)).getTime());
+    }
+
+    private static class MemoryStorage implements LocationPersister.Storage {
+        final Map<String, String> values = new HashMap<>();
+        int writes;
+
+        @Override
+        public String read(String key) {
+            return values.get(key);
+        }
+
+        @Override
+        public void write(Map<String, String> values) {
+            this.values.putAll(values);
+            writes++;
+        }
+    }
+}
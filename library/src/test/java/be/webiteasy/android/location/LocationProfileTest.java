@@ -0,0 +1,121 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class LocationProfileTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void profileIsAppliedWithTheRequest() {
+        FakeLocationProvider provider = new FakeLocationProvider();
+        LocationHandler handler = new LocationHandler(provider);
+
+        handler.requireUpdate(LocationProfile.batched(5000, 60000));
+
+        assertEquals(1, provider.updateRequests);
+        assertEquals(5000, provider.updateInterval);
+        assertEquals(60000, provider.maxWaitTime);
+        assertEquals(LocationProfile.BALANCED.getAccuracy(), provider.updateAccuracy, 0);
+
+        handler.setProfile(LocationProfile.LOW_POWER);
+        assertEquals(LocationProfile.LOW_POWER.getInterval(), provider.updateInterval);
+        assertEquals(0, provider.maxWaitTime);
+        assertSame(LocationProfile.LOW_POWER, handler.getProfile());
+    }
+
+    @Test
+    public void intervalAndAccuracyUpdateTheProfile() {
+        FakeLocationProvider provider = new FakeLocationProvider();
+        LocationHandler handler = new LocationHandler(provider);
+
+        handler.setProfile(LocationProfile.batched(5000, 60000));
+        handler.setUpdateInterval(2000, 10);
+        handler.setUpdateAccuracy(50);
+
+        LocationProfile profile = handler.getProfile();
+        assertEquals(2000, profile.getInterval());
+        assertEquals(10, profile.getSmallestDisplacement(), 0);
+        assertEquals(50, profile.getAccuracy(), 0);
+        assertEquals(60000, profile.getMaxWaitTime());
+        assertEquals(2000, provider.updateInterval);
+        assertEquals(50, provider.updateAccuracy, 0);
+    }
+
+    @Test
+    public void subscriberRequirementsPrevailOverTheProfile() {
+        FakeLocationProvider provider = new FakeLocationProvider();
+        LocationHandler handler = new LocationHandler(provider);
+        handler.setProfile(LocationProfile.LOW_POWER);
+
+        LocationHandler.Subscription subscription = handler.subscribe(new LocationHandler.Subscriber() {
+            @Override
+            public void onSubscribe(LocationHandler.Subscription subscription) {
+            }
+
+            @Override
+            public void onNext(Location location) {
+            }
+
+            @Override
+            public void onError(String message) {
+            }
+        }, OverflowStrategy.latest(), new LocationRequirements(1000, 20, 60000), DIRECT);
+
+        handler.setProfile(LocationProfile.BALANCED);
+        assertEquals(1000, provider.updateInterval);
+        assertEquals(20, provider.updateAccuracy, 0);
+
+        subscription.cancel();
+        assertEquals(LocationProfile.BALANCED.getInterval(), provider.updateInterval);
+        assertEquals(LocationProfile.BALANCED.getAccuracy(), provider.updateAccuracy, 0);
+    }
+
+    @Test
+    public void mergeKeepsTheMostDemanding() {
+        LocationProfile merged = LocationProfile.batched(30000, 120000)
+                .merge(new LocationProfile(10000, 5, 500, 60000));
+
+        assertEquals(10000, merged.getInterval());
+        assertEquals(0, merged.getSmallestDisplacement(), 0);
+        assertEquals(LocationProfile.BALANCED.getAccuracy(), merged.getAccuracy(), 0);
+        assertEquals(60000, merged.getMaxWaitTime());
+
+        assertEquals(0, merged.merge(LocationProfile.HIGH_ACCURACY).getMaxWaitTime());
+    }
+
+    @Test
+    public void batchingNeverWaitsLessThanTheInterval() {
+        LocationProfile profile = LocationProfile.batched(5000, 10000).withInterval(20000, 0);
+
+        assertEquals(20000, profile.getMaxWaitTime());
+    }
+
+    @Test
+    public void gpsIsOnlyUsedForPreciseProfiles() {
+        assertTrue(LocationProfile.HIGH_ACCURACY.needsGps());
+        assertFalse(LocationProfile.BALANCED.needsGps());
+        assertFalse(LocationProfile.LOW_POWER.needsGps());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void waitShorterThanTheIntervalIsRejected() {
+        LocationProfile.batched(10000, 5000);
+    }
+}
@@ -0,0 +1,171 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static be.webiteasy.android.location.Fixes.fix;
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class LocationRequirementsTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final long mStart = System.currentTimeMillis();
+
+    private static RecordingSubscriber subscribe(LocationHandler handler, LocationRequirements requirements) {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        handler.subscribe(subscriber, OverflowStrategy.buffer(100), requirements, DIRECT);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        return subscriber;
+    }
+
+    @Test
+    public void requirementsAreMergedIntoOneContinuousRequest() {
+        FakeLocationProvider provider = new FakeLocationProvider();
+        LocationHandler handler = new LocationHandler(provider);
+
+        RecordingSubscriber slow = subscribe(handler, new LocationRequirements(10000, 500, 60000));
+        assertTrue(provider.continuous);
+        assertEquals(1, provider.updateRequests);
+        assertEquals(10000, provider.updateInterval);
+        assertEquals(500, provider.updateAccuracy, 0);
+
+        RecordingSubscriber fast = subscribe(handler, new LocationRequirements(2000, 1000, 60000));
+        assertEquals(1, provider.updateRequests);
+        assertEquals(2000, provider.updateInterval);
+        assertEquals(500, provider.updateAccuracy, 0);
+
+        fast.subscription.cancel();
+        assertEquals(10000, provider.updateInterval);
+        assertTrue(provider.continuous);
+        assertEquals(0, provider.cancelRequests);
+
+        slow.subscription.cancel();
+        assertFalse(provider.continuous);
+        assertEquals(1, provider.cancelRequests);
+        assertEquals(LocationHandler.DEFAULT_UPDATE_INTERVAL, provider.updateInterval);
+        assertEquals(LocationHandler.DEFAULT_UPDATE_ACCURACY, provider.updateAccuracy, 0);
+    }
+
+    @Test
+    public void subscribersWithoutRequirementsDoNotRequestUpdates() {
+        FakeLocationProvider provider = new FakeLocationProvider();
+        LocationHandler handler = new LocationHandler(provider);
+
+        handler.subscribe(new RecordingSubscriber(), OverflowStrategy.latest(), DIRECT);
+
+        assertFalse(provider.continuous);
+        assertEquals(0, provider.updateRequests);
+    }
+
+    @Test
+    public void eachSubscriberIsDownsampledToItsInterval() {
+        FakeLocationProvider provider = new FakeLocationProvider();
+        LocationHandler handler = new LocationHandler(provider);
+
+        RecordingSubscriber fast = subscribe(handler, new LocationRequirements(1000, 100, 60000));
+        RecordingSubscriber slow = subscribe(handler, new LocationRequirements(5000, 100, 60000));
+
+        for (int i = 0; i < 10; i++)
+            provider.emit(fix(mStart + i * 1000, 10));
+
+        assertEquals(10, fast.locations.size());
+        assertEquals(2, slow.locations.size());
+        assertEquals(mStart, slow.locations.get(0).getTime());
+        assertEquals(mStart + 5000, slow.locations.get(1).getTime());
+    }
+
+    @Test
+    public void intervalToleratesJitter() {
+        FakeLocationProvider provider = new FakeLocationProvider();
+        LocationHandler handler = new LocationHandler(provider);
+
+        RecordingSubscriber subscriber = subscribe(handler, new LocationRequirements(5000, 100, 60000));
+
+        provider.emit(fix(mStart, 10));
+        provider.emit(fix(mStart + 4800, 10));
+
+        assertEquals(2, subscriber.locations.size());
+    }
+
+    @Test
+    public void inaccurateOrStaleLocationsAreNotDelivered() {
+        FakeLocationProvider provider = new FakeLocationProvider();
+        LocationHandler handler = new LocationHandler(provider);
+        handler.clearLocationFilters();
+
+        RecordingSubscriber precise = subscribe(handler, new LocationRequirements(1000, 20, 60000));
+        RecordingSubscriber coarse = subscribe(handler, new LocationRequirements(1000, 1000, 60000));
+
+        provider.emit(fix(mStart, 300));
+        provider.emit(fix(mStart - 120000, 5));
+        provider.emit(fix(mStart + 2000, 5));
+
+        assertEquals(1, precise.locations.size());
+        assertEquals(5, precise.locations.get(0).getAccuracy(), 0);
+        assertEquals(2, coarse.locations.size());
+    }
+
+    @Test
+    public void matchingCurrentLocationIsDeliveredOnSubscribe() {
+        FakeLocationProvider provider = new FakeLocationProvider();
+        LocationHandler handler = new LocationHandler(provider);
+        provider.emit(fix(mStart, 10));
+
+        assertEquals(1, subscribe(handler, new LocationRequirements(1000, 50, 60000)).locations.size());
+        assertEquals(0, subscribe(handler, new LocationRequirements(1000, 5, 60000)).locations.size());
+    }
+
+    @Test
+    public void continuousRequestSurvivesFixes() {
+        FakeLocationProvider provider = new FakeLocationProvider();
+        LocationHandler handler = new LocationHandler(provider);
+
+        RecordingSubscriber subscriber = subscribe(handler, new LocationRequirements(1000, 100, 60000));
+        provider.emit(fix(mStart, 10));
+        provider.emit(fix(mStart + 1000, 10));
+
+        assertTrue(provider.continuous);
+        assertEquals(0, provider.cancelRequests);
+        assertEquals(2, subscriber.locations.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void intervalBelowMinimumIsRejected() {
+        new LocationRequirements(10, 100, 0);
+    }
+
+    private static class RecordingSubscriber implements LocationHandler.Subscriber {
+        LocationHandler.Subscription subscription;
+        final List<Location> locations = new ArrayList<>();
+
+        @Override
+        public void onSubscribe(LocationHandler.Subscription s) {
+            subscription = s;
+        }
+
+        @Override
+        public void onNext(Location location) {
+            locations.add(location);
+        }
+
+        @Override
+        public void onError(String message) {
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class LocationSubscriptionTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private long mTime = 1000;
+
+    private Location fix() {
+        return Fixes.fix(mTime++);
+    }
+
+    private static LocationHandler handler() {
+        return new LocationHandler(new FakeLocationProvider());
+    }
+
+    @Test
+    public void nothingIsDeliveredBeforeRequest() throws Exception {
+        LocationHandler handler = handler();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+
+        handler.subscribe(subscriber, OverflowStrategy.latest(), DIRECT);
+        assertNotNull(subscriber.subscription);
+
+        handler.setLocation(fix());
+        assertEquals(0, subscriber.locations.size());
+
+        subscriber.subscription.request(1);
+        assertEquals(1, subscriber.locations.size());
+
+        handler.setLocation(fix());
+        assertEquals(1, subscriber.locations.size());
+    }
+
+    @Test
+    public void latestKeepsOnlyTheNewestLocation() throws Exception {
+        LocationHandler handler = handler();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        handler.subscribe(subscriber, OverflowStrategy.latest(), DIRECT);
+
+        Location last = null;
+        for (int i = 0; i < 5; i++) {
+            last = fix();
+            handler.setLocation(last);
+        }
+
+        subscriber.subscription.request(10);
+        assertEquals(1, subscriber.locations.size());
+        assertSame(last, subscriber.locations.get(0));
+    }
+
+    @Test
+    public void bufferDropsTheOldestLocations() throws Exception {
+        LocationHandler handler = handler();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        handler.subscribe(subscriber, OverflowStrategy.buffer(3), DIRECT);
+
+        List<Location> produced = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Location location = fix();
+            produced.add(location);
+            handler.setLocation(location);
+        }
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(produced.subList(2, 5), subscriber.locations);
+
+        // unbounded demand : the next locations go straight through
+        handler.setLocation(fix());
+        assertEquals(4, subscriber.locations.size());
+    }
+
+    @Test
+    public void sampleDeliversAtMostOncePerInterval() throws Exception {
+        FakeScheduler scheduler = new FakeScheduler();
+        LocationHandler handler = handler();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        handler.subscribe(subscriber, OverflowStrategy.sample(1000), null, DIRECT, scheduler);
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        handler.setLocation(fix());
+        assertEquals(1, subscriber.locations.size());
+
+        handler.setLocation(fix());
+        Location latest = fix();
+        handler.setLocation(latest);
+        assertEquals(1, subscriber.locations.size());
+        assertEquals(1, scheduler.pendingTasks());
+
+        scheduler.advance(1000);
+        assertEquals(2, subscriber.locations.size());
+        assertSame(latest, subscriber.locations.get(1));
+    }
+
+    @Test
+    public void cancelStopsDeliveries() throws Exception {
+        FakeScheduler scheduler = new FakeScheduler();
+        LocationHandler handler = handler();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        handler.subscribe(subscriber, OverflowStrategy.sample(1000), null, DIRECT, scheduler);
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        handler.setLocation(fix());
+        handler.setLocation(fix());
+        subscriber.subscription.cancel();
+
+        assertEquals(0, scheduler.pendingTasks());
+
+        handler.setLocation(fix());
+        scheduler.advance(5000);
+        assertEquals(1, subscriber.locations.size());
+    }
+
+    @Test
+    public void errorsAreDeliveredWithoutRequest() throws Exception {
+        LocationHandler handler = handler();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        handler.subscribe(subscriber, OverflowStrategy.latest(), DIRECT);
+
+        handler.triggerLocationError("provider down");
+        assertEquals(1, subscriber.errors.size());
+        assertEquals("provider down", subscriber.errors.get(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void requestMustBePositive() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        handler().subscribe(subscriber, OverflowStrategy.latest(), DIRECT);
+
+        subscriber.subscription.request(0);
+    }
+
+    /**
+     * A subscriber blocked in onNext must slow down neither the producer nor the other
+     * subscribers. Prints the producer cost per location.
+     */
+    @Test
+    public void slowSubscriberDoesNotBlockProducer() throws Exception {
+        final LocationHandler handler = handler();
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        final CountDownLatch release = new CountDownLatch(1);
+        final int count = 10000;
+
+        RecordingSubscriber slow = new RecordingSubscriber() {
+            @Override
+            public void onNext(Location location) {
+                super.onNext(location);
+
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        };
+        final CountDownLatch fastDone = new CountDownLatch(1);
+        RecordingSubscriber fast = new RecordingSubscriber() {
+            @Override
+            public void onNext(Location location) {
+                super.onNext(location);
+
+                if (locations.size() == count)
+                    fastDone.countDown();
+            }
+        };
+
+        handler.subscribe(slow, OverflowStrategy.buffer(16), executor);
+        handler.subscribe(fast, OverflowStrategy.buffer(count), executor);
+        slow.subscription.request(Long.MAX_VALUE);
+        fast.subscription.request(Long.MAX_VALUE);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            handler.setLocation(fix());
+        }
+        long elapsed = System.nanoTime() - start;
+
+        assertTrue(fastDone.await(10, TimeUnit.SECONDS));
+        assertEquals(1, slow.locations.size());
+
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        // 1 delivered before blocking, then at most the 16 buffered ones
+        assertTrue(slow.locations.size() <= 17);
+
+        System.out.println("LocationSubscription : " + (elapsed / count) + " ns per location produced");
+    }
+
+    private static class RecordingSubscriber implements LocationHandler.Subscriber {
+        LocationHandler.Subscription subscription;
+        final List<Location> locations = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+
+        @Override
+        public void onSubscribe(LocationHandler.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(Location location) {
+            synchronized (this) {
+                locations.add(location);
+            }
+        }
+
+        @Override
+        public void onError(String message) {
+            errors.add(message);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package be.webiteasy.android.location;
+
+import android.hardware.SensorManager;
+import android.location.Location;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class MotionDetectorTest {
+
+    private static final long DELAY = 120000;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final double METERS_PER_DEGREE = 6371000 * Math.PI / 180;
+
+    private final FakeScheduler mScheduler = new FakeScheduler();
+
+    private final List<Boolean> mChanges = new ArrayList<>();
+
+    private long mTime = 1000;
+
+    private MotionDetector detector() {
+        MotionDetector detector = new MotionDetector(DELAY, 30, mScheduler);
+        detector.setListener(new MotionDetector.Listener() {
+            @Override
+            public void onMotionStateChanged(boolean stationary) {
+                mChanges.add(stationary);
+            }
+        });
+        return detector;
+    }
+
+    private Location fix(double northMeters, float accuracy) {
+        return Fixes.fix(mTime++, 50 + northMeters / METERS_PER_DEGREE, 4.5, accuracy);
+    }
+
+    @Test
+    public void fixesAroundTheSamePlaceMeanStationary() throws Exception {
+        MotionDetector detector = detector();
+
+        for (int i = 0; i < 12; i++) {
+            detector.onLocation(fix(i % 2 == 0 ? 10 : -10, 10));
+            assertFalse(detector.isStationary());
+            mScheduler.advance(10000);
+        }
+
+        detector.onLocation(fix(5, 10));
+        assertTrue(detector.isStationary());
+        assertEquals(1, mChanges.size());
+    }
+
+    @Test
+    public void inaccurateFixesDoNotMeanMotion() throws Exception {
+        MotionDetector detector = detector();
+
+        detector.onLocation(fix(0, 10));
+        mScheduler.advance(DELAY);
+
+        // 200 meters away, but with a 500 meters accuracy
+        detector.onLocation(fix(200, 500));
+        assertTrue(detector.isStationary());
+    }
+
+    @Test
+    public void fixAwayMeansMotion() throws Exception {
+        MotionDetector detector = detector();
+
+        detector.onLocation(fix(0, 10));
+        mScheduler.advance(DELAY);
+        detector.onLocation(fix(0, 10));
+        assertTrue(detector.isStationary());
+
+        detector.onLocation(fix(100, 10));
+        assertFalse(detector.isStationary());
+
+        // the new position is the new anchor
+        mScheduler.advance(DELAY);
+        detector.onLocation(fix(110, 10));
+        assertTrue(detector.isStationary());
+        assertEquals(3, mChanges.size());
+    }
+
+    @Test
+    public void accelerationMeansMotion() throws Exception {
+        MotionDetector detector = detector();
+
+        for (int i = 0; i < 10; i++) {
+            detector.onAcceleration(0, 0.05f, SensorManager.GRAVITY_EARTH);
+        }
+        mScheduler.advance(DELAY);
+        detector.onAcceleration(0.02f, 0, SensorManager.GRAVITY_EARTH);
+        assertTrue(detector.isStationary());
+
+        // walking
+        for (int i = 0; i < 5; i++) {
+            detector.onAcceleration(2, 1, SensorManager.GRAVITY_EARTH + (i % 2 == 0 ? 3 : -3));
+        }
+        assertFalse(detector.isStationary());
+    }
+
+    private void park(MotionDetector detector) {
+        mScheduler.advance(DELAY);
+        detector.onAcceleration(0, 0, SensorManager.GRAVITY_EARTH);
+        assertTrue(detector.isStationary());
+    }
+
+    private static void subscribe(LocationHandler handler, LocationRequirements requirements) {
+        handler.subscribe(new LocationHandler.Subscriber() {
+            @Override
+            public void onSubscribe(LocationHandler.Subscription s) {
+                s.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(Location location) {
+            }
+
+            @Override
+            public void onError(String message) {
+            }
+        }, OverflowStrategy.latest(), requirements, DIRECT);
+    }
+
+    @Test
+    public void handlerSuspendsContinuousRequestsWhileStationary() throws Exception {
+        FakeLocationProvider provider = new FakeLocationProvider();
+        LocationHandler handler = new LocationHandler(provider);
+        MotionDetector detector = new MotionDetector(DELAY, 30, mScheduler);
+        handler.setMotionDetector(detector);
+
+        provider.emit(fix(0, 10));
+        subscribe(handler, new LocationRequirements(10000, 50, 60000));
+        assertEquals(1, provider.updateRequests);
+
+        // parked : the continuous request is withdrawn
+        park(detector);
+        assertEquals(1, provider.cancelRequests);
+
+        // moving again : the request is sent
+        detector.onAcceleration(5, 5, SensorManager.GRAVITY_EARTH + 5);
+        assertFalse(detector.isStationary());
+        assertEquals(2, provider.updateRequests);
+    }
+
+    @Test
+    public void oneShotRequestIsServedWhileStationary() throws Exception {
+        FakeLocationProvider provider = new FakeLocationProvider();
+        LocationHandler handler = new LocationHandler(provider);
+        MotionDetector detector = new MotionDetector(DELAY, 30, mScheduler);
+        handler.setMotionDetector(detector);
+
+        provider.emit(fix(0, 10));
+        park(detector);
+
+        handler.requireUpdate();
+        assertEquals(1, provider.updateRequests);
+        provider.emit(fix(1, 10));
+
+        // a one-shot request is not withdrawn when the device stops
+        detector.onAcceleration(5, 5, SensorManager.GRAVITY_EARTH + 5);
+        assertFalse(detector.isStationary());
+        handler.requireUpdate();
+        mScheduler.advance(DELAY);
+        detector.onLocation(fix(1, 10));
+        assertTrue(detector.isStationary());
+        assertEquals(2, provider.updateRequests);
+        assertEquals(0, provider.cancelRequests);
+    }
+
+    @Test
+    public void oneShotRequestWhileSuspendedDoesNotResumeTracking() throws Exception {
+        FakeLocationProvider provider = new FakeLocationProvider();
+        LocationHandler handler = new LocationHandler(provider);
+        MotionDetector detector = new MotionDetector(DELAY, 30, mScheduler);
+        handler.setMotionDetector(detector);
+
+        provider.emit(fix(0, 10));
+        subscribe(handler, new LocationRequirements(10000, 50, 60000));
+        park(detector);
+        assertEquals(1, provider.cancelRequests);
+
+        handler.requireUpdate();
+        assertEquals(2, provider.updateRequests);
+
+        // the fix completes the one-shot request, the continuous one stays suspended
+        provider.emit(fix(1, 10));
+        assertTrue(detector.isStationary());
+        assertEquals(2, provider.cancelRequests);
+    }
+
+    @Test
+    public void periodicUpdatesAreDeferredWhileStationary() throws Exception {
+        FakeLocationProvider provider = new FakeLocationProvider();
+        LocationHandler handler = new LocationHandler(provider);
+        MotionDetector detector = new MotionDetector(DELAY, 30, mScheduler);
+        handler.setMotionDetector(detector);
+
+        provider.emit(fix(0, 10));
+        park(detector);
+
+        handler.requirePeriodicUpdate();
+        assertEquals(0, provider.updateRequests);
+
+        detector.onAcceleration(5, 5, SensorManager.GRAVITY_EARTH + 5);
+        assertEquals(1, provider.updateRequests);
+    }
+}
@@ -0,0 +1,263 @@
+package be.webiteasy.android.location;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PromiseTest {
+
+    @Test
+    public void thenApplyTransformsValue() throws Exception {
+        Promise<Integer> source = new Promise<>();
+        Promise<String> mapped = source.thenApply(new Promise.Function<Integer, String>() {
+            @Override
+            public String apply(Integer value) {
+                return "#" + value;
+            }
+        });
+
+        assertFalse(mapped.isDone());
+        assertTrue(source.complete(42));
+        assertFalse(source.complete(43));
+        assertEquals("#42", mapped.getValue());
+    }
+
+    @Test
+    public void thenApplyPropagatesErrors() throws Exception {
+        Promise<Integer> source = new Promise<>();
+        Promise<Integer> mapped = source.thenApply(new Promise.Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer value) throws Exception {
+                throw new IllegalArgumentException("bad " + value);
+            }
+        });
+
+        source.complete(1);
+
+        assertTrue(mapped.getError() instanceof IllegalArgumentException);
+
+        Exception error = new Exception("failed");
+        Promise<Integer> failed = Promise.failed(error);
+        assertSame(error, failed.thenApply(new Promise.Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer value) {
+                return value;
+            }
+        }).getError());
+    }
+
+    @Test
+    public void thenComposeChainsAsyncOperations() throws Exception {
+        final Promise<Integer> fix = new Promise<>();
+        final Promise<String> address = new Promise<>();
+
+        Promise<String> pipeline = fix.thenCompose(new Promise.Function<Integer, Promise<String>>() {
+            @Override
+            public Promise<String> apply(Integer value) {
+                return address;
+            }
+        });
+
+        fix.complete(1);
+        assertFalse(pipeline.isDone());
+
+        address.complete("Rixensart");
+        assertEquals("Rixensart", pipeline.getValue());
+    }
+
+    @Test
+    public void cancelWithdrawsUpstreamOperations() throws Exception {
+        final AtomicInteger withdrawn = new AtomicInteger();
+
+        Promise<Integer> fix = new Promise<>();
+        fix.setOnCancel(new Runnable() {
+            @Override
+            public void run() {
+                withdrawn.incrementAndGet();
+            }
+        });
+
+        Promise<Integer> pipeline = fix.thenApply(new Promise.Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer value) {
+                return value + 1;
+            }
+        });
+
+        assertTrue(pipeline.cancel());
+        assertTrue(pipeline.isCancelled());
+        assertTrue(fix.isCancelled());
+        assertTrue(fix.getError() instanceof CancellationException);
+        assertEquals(1, withdrawn.get());
+
+        assertFalse(pipeline.cancel());
+        assertEquals(1, withdrawn.get());
+    }
+
+    @Test
+    public void cancelWithdrawsComposedOperation() throws Exception {
+        final AtomicInteger withdrawn = new AtomicInteger();
+        final Promise<String> address = new Promise<>();
+        address.setOnCancel(new Runnable() {
+            @Override
+            public void run() {
+                withdrawn.incrementAndGet();
+            }
+        });
+
+        Promise<String> pipeline = Promise.of(1).thenCompose(new Promise.Function<Integer, Promise<String>>() {
+            @Override
+            public Promise<String> apply(Integer value) {
+                return address;
+            }
+        });
+
+        pipeline.cancel();
+
+        assertTrue(address.isCancelled());
+        assertEquals(1, withdrawn.get());
+    }
+
+    @Test
+    public void timeoutFailsAndWithdraws() throws Exception {
+        FakeScheduler scheduler = new FakeScheduler();
+        final AtomicInteger withdrawn = new AtomicInteger();
+
+        Promise<Integer> promise = new Promise<>();
+        promise.setOnCancel(new Runnable() {
+            @Override
+            public void run() {
+                withdrawn.incrementAndGet();
+            }
+        });
+        promise.timeout(1000, scheduler);
+
+        scheduler.advance(999);
+        assertFalse(promise.isDone());
+
+        scheduler.advance(1);
+        assertTrue(promise.getError() instanceof TimeoutException);
+        assertEquals(1, withdrawn.get());
+        assertFalse(promise.complete(1));
+    }
+
+    @Test
+    public void completionCancelsTimeout() throws Exception {
+        FakeScheduler scheduler = new FakeScheduler();
+
+        Promise<Integer> promise = new Promise<>();
+        promise.timeout(1000, scheduler);
+        promise.complete(1);
+
+        assertEquals(0, scheduler.pendingTasks());
+    }
+
+    @Test
+    public void callbacksRunOnExecutor() throws Exception {
+        final List<Runnable> queue = new ArrayList<>();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                queue.add(command);
+            }
+        };
+
+        final AtomicInteger received = new AtomicInteger();
+        Promise<Integer> promise = new Promise<>();
+        promise.then(new Promise.Callback<Integer>() {
+            @Override
+            public void onSuccess(Integer value) {
+                received.set(value);
+            }
+
+            @Override
+            public void onError(Exception error) {
+            }
+        }, executor);
+
+        promise.complete(7);
+        assertEquals(0, received.get());
+
+        queue.remove(0).run();
+        assertEquals(7, received.get());
+    }
+
+    /**
+     * Not an assertion on timings : prints the overhead of a two stages promise pipeline
+     * compared to the equivalent nested callbacks.
+     */
+    @Test
+    public void benchmarkCompositionOverhead() throws Exception {
+        final int iterations = 200000;
+        final AtomicInteger sink = new AtomicInteger();
+
+        final Promise.Function<Integer, Promise<Integer>> geocode = new Promise.Function<Integer, Promise<Integer>>() {
+            @Override
+            public Promise<Integer> apply(Integer value) {
+                return Promise.of(value + 1);
+            }
+        };
+        final Promise.Callback<Integer> consumer = new Promise.Callback<Integer>() {
+            @Override
+            public void onSuccess(Integer value) {
+                sink.addAndGet(value);
+            }
+
+            @Override
+            public void onError(Exception error) {
+            }
+        };
+
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                Promise<Integer> fix = new Promise<>();
+                fix.thenCompose(geocode).then(consumer);
+                fix.complete(i);
+            }
+            final long promises = (System.nanoTime() - start) / iterations;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                rawFix(i, new RawCallback() {
+                    @Override
+                    public void onResult(int value) {
+                        rawGeocode(value, new RawCallback() {
+                            @Override
+                            public void onResult(int value) {
+                                sink.addAndGet(value);
+                            }
+                        });
+                    }
+                });
+            }
+            final long callbacks = (System.nanoTime() - start) / iterations;
+
+            if (round == 1) {
+                System.out.println("Promise pipeline : " + promises + " ns/op, nested callbacks : "
+                        + callbacks + " ns/op");
+            }
+        }
+
+        assertTrue(sink.get() != 0);
+    }
+
+    private interface RawCallback {
+        void onResult(int value);
+    }
+
+    private static void rawFix(int value, RawCallback callback) {
+        callback.onResult(value);
+    }
+
+    private static void rawGeocode(int value, RawCallback callback) {
+        callback.onResult(value + 1);
+    }
+}
@@ -0,0 +1,315 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static be.webiteasy.android.location.Fixes.fix;
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ProviderPoolTest {
+
+    private final ProviderPool mPool = new ProviderPool();
+
+    private final List<FakeLocationProvider> mCreated = new ArrayList<>();
+
+    private final SupervisedLocationProvider.Factory mFactory = new SupervisedLocationProvider.Factory() {
+        @Override
+        public PassiveLocationProvider create() {
+            FakeLocationProvider provider = new FakeLocationProvider();
+            provider.start();
+            mCreated.add(provider);
+            return provider;
+        }
+    };
+
+    @Test
+    public void providersAreSharedByType() {
+        PassiveLocationProvider first = mPool.acquire(ProviderPool.SUPERVISED, mFactory);
+        PassiveLocationProvider second = mPool.acquire(ProviderPool.SUPERVISED, mFactory);
+        assertEquals(1, mCreated.size());
+        assertEquals(2, mPool.getReferenceCount(ProviderPool.SUPERVISED));
+
+        mPool.acquire(ProviderPool.FUSION, mFactory);
+        assertEquals(2, mCreated.size());
+
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void providerStopsWithItsLastLease() {
+        PassiveLocationProvider first = mPool.acquire(ProviderPool.SUPERVISED, mFactory);
+        PassiveLocationProvider second = mPool.acquire(ProviderPool.SUPERVISED, mFactory);
+        FakeLocationProvider shared = mCreated.get(0);
+
+        first.stop();
+        first.stop();
+        assertEquals(LocationProvider.STATE_STARTED, shared.getState());
+        assertEquals(1, mPool.getReferenceCount(ProviderPool.SUPERVISED));
+
+        second.stop();
+        assertEquals(LocationProvider.STATE_STOPPED, shared.getState());
+        assertEquals(1, shared.releases);
+        assertEquals(0, mPool.getReferenceCount(ProviderPool.SUPERVISED));
+
+        mPool.acquire(ProviderPool.SUPERVISED, mFactory);
+        assertEquals(2, mCreated.size());
+    }
+
+    @Test
+    public void fixesAreMulticastToEveryLease() {
+        RecordingListener firstListener = new RecordingListener();
+        RecordingListener secondListener = new RecordingListener();
+
+        PassiveLocationProvider first = mPool.acquire(ProviderPool.SUPERVISED, mFactory);
+        first.setListener(firstListener);
+        PassiveLocationProvider second = mPool.acquire(ProviderPool.SUPERVISED, mFactory);
+        second.setListener(secondListener);
+
+        Location location = fix(1000);
+        mCreated.get(0).emit(location);
+
+        assertEquals(1000, firstListener.location.getTime());
+        assertSame(first, firstListener.provider);
+        assertEquals(1000, secondListener.location.getTime());
+        assertSame(second, secondListener.provider);
+        assertSame(location, second.getLocation());
+
+        // each lease gets its own copy
+        assertNotSame(location, firstListener.location);
+        assertNotSame(firstListener.location, secondListener.location);
+
+        second.stop();
+        mCreated.get(0).emit(fix(2000));
+        assertEquals(2000, firstListener.location.getTime());
+        assertEquals(1000, secondListener.location.getTime());
+    }
+
+    @Test
+    public void smoothingOfOneHandlerLeavesTheOtherFixesIntact() {
+        LocationHandler smoothed = new LocationHandler(mPool.acquire(ProviderPool.SUPERVISED, mFactory));
+        smoothed.addLocationFilter(new KalmanLocationFilter());
+        LocationHandler raw = new LocationHandler(mPool.acquire(ProviderPool.SUPERVISED, mFactory));
+        FakeLocationProvider shared = mCreated.get(0);
+
+        shared.emit(fix(1000, 50.0, 4.0, 10));
+        Location second = fix(2000, 50.001, 4.0, 10);
+        shared.emit(second);
+
+        assertTrue(smoothed.getLocation().getLatitude() < 50.001);
+        assertEquals(50.001, raw.getLocation().getLatitude(), 0);
+        assertEquals(50.001, second.getLatitude(), 0);
+        assertSame(second, shared.getLocation());
+    }
+
+    @Test
+    public void activeRequestRunsWhileOneLeaseNeedsIt() {
+        PassiveLocationProvider first = mPool.acquire(ProviderPool.SUPERVISED, mFactory);
+        PassiveLocationProvider second = mPool.acquire(ProviderPool.SUPERVISED, mFactory);
+        FakeLocationProvider shared = mCreated.get(0);
+
+        first.requireUpdate();
+        second.requireUpdate();
+        assertEquals(1, shared.updateRequests);
+
+        first.cancelUpdate();
+        assertEquals(0, shared.cancelRequests);
+
+        second.cancelUpdate();
+        assertEquals(1, shared.cancelRequests);
+    }
+
+    @Test
+    public void oneShotRequestsCompleteWithTheFirstFix() {
+        PassiveLocationProvider first = mPool.acquire(ProviderPool.SUPERVISED, mFactory);
+        FakeLocationProvider shared = mCreated.get(0);
+
+        first.requireUpdate();
+        shared.emit(fix(1000));
+
+        first.requireUpdate();
+        assertEquals(2, shared.updateRequests);
+    }
+
+    @Test
+    public void continuousLeaseKeepsTheRequestRunning() {
+        PassiveLocationProvider tracking = mPool.acquire(ProviderPool.SUPERVISED, mFactory);
+        PassiveLocationProvider oneShot = mPool.acquire(ProviderPool.SUPERVISED, mFactory);
+        FakeLocationProvider shared = mCreated.get(0);
+
+        tracking.setContinuous(true);
+        tracking.requireUpdate();
+        assertTrue(shared.continuous);
+
+        oneShot.requireUpdate();
+        shared.emit(fix(1000));
+        oneShot.requireUpdate();
+        assertEquals(1, shared.updateRequests);
+
+        tracking.stop();
+        assertFalse(shared.continuous);
+        assertEquals(0, shared.cancelRequests);
+
+        shared.emit(fix(2000));
+        oneShot.requireUpdate();
+        assertEquals(2, shared.updateRequests);
+    }
+
+    @Test
+    public void timeoutLetsTheNextRequestRetry() {
+        PassiveLocationProvider first = mPool.acquire(ProviderPool.SUPERVISED, mFactory);
+        PassiveLocationProvider second = mPool.acquire(ProviderPool.SUPERVISED, mFactory);
+        FakeLocationProvider shared = mCreated.get(0);
+
+        first.requireUpdate();
+        shared.setState(LocationProvider.STATE_TIMEOUT);
+
+        second.requireUpdate();
+        assertEquals(2, shared.updateRequests);
+    }
+
+    @Test
+    public void longestTimeoutIsApplied() {
+        PassiveLocationProvider first = mPool.acquire(ProviderPool.SUPERVISED, mFactory);
+        PassiveLocationProvider second = mPool.acquire(ProviderPool.SUPERVISED, mFactory);
+        FakeLocationProvider shared = mCreated.get(0);
+
+        first.setUpdateTimeout(30000);
+        second.setUpdateTimeout(60000);
+        assertEquals(60000, shared.updateTimeout);
+
+        first.setUpdateTimeout(0);
+        assertEquals(0, shared.updateTimeout);
+    }
+
+    @Test
+    public void requestsAreMergedIntoTheMostDemanding() {
+        PassiveLocationProvider fast = mPool.acquire(ProviderPool.SUPERVISED, mFactory);
+        PassiveLocationProvider slow = mPool.acquire(ProviderPool.SUPERVISED, mFactory);
+        FakeLocationProvider shared = mCreated.get(0);
+
+        fast.setUpdateInterval(1000, 0);
+        fast.setUpdateAccuracy(10);
+        slow.setUpdateInterval(60000, 100);
+        slow.setUpdateAccuracy(1000);
+
+        slow.requireUpdate();
+        assertEquals(60000, shared.updateInterval);
+        assertEquals(1000, shared.updateAccuracy, 0);
+
+        fast.requireUpdate();
+        assertEquals(1000, shared.updateInterval);
+        assertEquals(0, shared.smallestDisplacement, 0);
+        assertEquals(10, shared.updateAccuracy, 0);
+    }
+
+    @Test
+    public void releasedHandlerStopsReceivingFixes() {
+        RecordingListener listener = new RecordingListener();
+        PassiveLocationProvider lease = mPool.acquire(ProviderPool.SUPERVISED, mFactory);
+        lease.setListener(listener);
+
+        lease.stop();
+        lease.requireUpdate();
+        mCreated.get(0).emit(fix(1000));
+
+        assertNull(listener.location);
+        assertEquals(0, mCreated.get(0).updateRequests);
+        assertEquals(LocationProvider.STATE_STOPPED, lease.getState());
+    }
+
+    @Test
+    public void requestsAndFixesFromTwoThreadsDoNotDeadlock() throws InterruptedException {
+        final List<FakeLocationProvider> supervised = new ArrayList<>();
+        final PassiveLocationProvider lease = mPool.acquire(ProviderPool.SUPERVISED, new SupervisedLocationProvider.Factory() {
+            @Override
+            public PassiveLocationProvider create() {
+                return new SupervisedLocationProvider(new SupervisedLocationProvider.Factory() {
+                    @Override
+                    public PassiveLocationProvider create() {
+                        FakeLocationProvider provider = new FakeLocationProvider();
+                        provider.start();
+                        supervised.add(provider);
+                        return provider;
+                    }
+                }, mFactory, new FakeScheduler(), SupervisedLocationProvider.DEFAULT_PROBE_INTERVAL);
+            }
+        });
+        lease.setListener(new RecordingListener());
+
+        final FakeLocationProvider provider = supervised.get(0);
+
+        Thread requests = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 20000; i++) {
+                    lease.requireUpdate();
+                    lease.cancelUpdate();
+                }
+            }
+        });
+
+        Thread fixes = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 20000; i++)
+                    provider.emit(fix(i));
+            }
+        });
+
+        requests.setDaemon(true);
+        fixes.setDaemon(true);
+        requests.start();
+        fixes.start();
+        requests.join(10000);
+        fixes.join(10000);
+
+        assertFalse(requests.isAlive());
+        assertFalse(fixes.isAlive());
+    }
+
+    @Test
+    public void fixDeliveredWithinTheRequestCompletesIt() {
+        final FakeLocationProvider provider = new FakeLocationProvider() {
+            @Override
+            public void requireUpdate() {
+                super.requireUpdate();
+                emit(fix(updateRequests));
+            }
+        };
+        PassiveLocationProvider lease = mPool.acquire(ProviderPool.SUPERVISED, new SupervisedLocationProvider.Factory() {
+            @Override
+            public PassiveLocationProvider create() {
+                return provider;
+            }
+        });
+
+        lease.requireUpdate();
+        lease.requireUpdate();
+
+        assertEquals(2, provider.updateRequests);
+    }
+
+    private static class RecordingListener implements LocationProvider.Listener {
+        Location location;
+        LocationProvider provider;
+
+        @Override
+        public void onLocationChanged(Location location, LocationProvider locationProvider) {
+            this.location = location;
+            this.provider = locationProvider;
+        }
+
+        @Override
+        public void onProviderStateChange(int state, LocationProvider locationProvider) {
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static be.webiteasy.android.location.Fixes.fix;
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class SupervisedLocationProviderTest {
+
+    private static final long PROBE = 30000;
+
+    private final FakeScheduler mScheduler = new FakeScheduler();
+
+    private final RecordingFactory mGoogle = new RecordingFactory();
+
+    private final RecordingFactory mNative = new RecordingFactory();
+
+    private final List<LocationProvider> mSources = new ArrayList<>();
+
+    private SupervisedLocationProvider supervisor() {
+        SupervisedLocationProvider supervisor = new SupervisedLocationProvider(mGoogle, mNative, mScheduler, PROBE);
+        supervisor.setListener(new LocationProvider.Listener() {
+            @Override
+            public void onLocationChanged(Location location, LocationProvider locationProvider) {
+                mSources.add(locationProvider);
+            }
+
+            @Override
+            public void onProviderStateChange(int state, LocationProvider locationProvider) {
+            }
+        });
+        return supervisor;
+    }
+
+    @Test
+    public void usesPrimaryWhileHealthy() throws Exception {
+        SupervisedLocationProvider supervisor = supervisor();
+        mGoogle.last().setState(LocationProvider.STATE_STARTED);
+        mGoogle.last().emit(fix(1000));
+
+        assertFalse(supervisor.isFailedOver());
+        assertEquals(0, mNative.created.size());
+        assertEquals(1, mSources.size());
+        assertSame(supervisor, mSources.get(0));
+        assertEquals(1, supervisor.getPrimaryHealth().getFixes());
+        assertEquals(0, supervisor.getPrimaryHealth().getTimeSinceLastFix());
+    }
+
+    @Test
+    public void failsOverAndKeepsPendingRequest() throws Exception {
+        SupervisedLocationProvider supervisor = supervisor();
+        supervisor.requireUpdate();
+
+        FakeLocationProvider google = mGoogle.last();
+        google.setState(LocationProvider.STATE_ERROR);
+
+        assertTrue(supervisor.isFailedOver());
+        assertEquals(LocationProvider.STATE_STOPPED, google.getState());
+        assertEquals(1, google.releases);
+        assertEquals(1, mNative.created.size());
+        assertEquals(1, mNative.last().updateRequests);
+        assertEquals(1, supervisor.getPrimaryHealth().getErrors());
+
+        // the failed provider is detached
+        google.emit(fix(1000));
+        assertEquals(0, mSources.size());
+
+        mNative.last().emit(fix(2000));
+        assertEquals(1, mSources.size());
+        assertEquals(1, supervisor.getFallbackHealth().getFixes());
+    }
+
+    @Test
+    public void fallbackLastKnownFixIsDelivered() throws Exception {
+        SupervisedLocationProvider supervisor = supervisor();
+        Location lastKnown = fix(1000);
+        mNative.lastKnown = lastKnown;
+
+        mGoogle.last().setState(LocationProvider.STATE_ERROR);
+
+        assertTrue(supervisor.isFailedOver());
+        assertEquals(1, mSources.size());
+        assertSame(supervisor, mSources.get(0));
+        assertSame(lastKnown, supervisor.getLocation());
+    }
+
+    @Test
+    public void failsBackWhenProbeStarts() throws Exception {
+        SupervisedLocationProvider supervisor = supervisor();
+        mGoogle.last().setState(LocationProvider.STATE_ERROR);
+        FakeLocationProvider nativeProvider = mNative.last();
+
+        mScheduler.advance(PROBE - 1);
+        assertEquals(1, mGoogle.created.size());
+
+        mScheduler.advance(1);
+        assertEquals(2, mGoogle.created.size());
+        assertTrue(supervisor.isFailedOver());
+
+        FakeLocationProvider probe = mGoogle.last();
+        probe.setState(LocationProvider.STATE_STARTED);
+
+        assertFalse(supervisor.isFailedOver());
+        assertEquals(LocationProvider.STATE_STOPPED, nativeProvider.getState());
+        assertEquals(0, mScheduler.pendingTasks());
+
+        probe.emit(fix(1000));
+        assertEquals(1, mSources.size());
+        assertEquals(1, supervisor.getPrimaryHealth().getFixes());
+    }
+
+    @Test
+    public void probesBackOffWhileFailing() throws Exception {
+        SupervisedLocationProvider supervisor = supervisor();
+        mGoogle.last().setState(LocationProvider.STATE_ERROR);
+
+        mScheduler.advance(PROBE);
+        mGoogle.last().setState(LocationProvider.STATE_ERROR);
+        assertEquals(2, mGoogle.created.size());
+
+        // the next probe waits twice as long
+        mScheduler.advance(2 * PROBE - 1);
+        assertEquals(2, mGoogle.created.size());
+        mScheduler.advance(1);
+        assertEquals(3, mGoogle.created.size());
+
+        assertEquals(2, supervisor.getPrimaryHealth().getErrors());
+        assertEquals(1f, supervisor.getPrimaryHealth().getErrorRate(), 0);
+        assertTrue(supervisor.isFailedOver());
+    }
+
+    @Test
+    public void probeFixFailsBackAndIsDelivered() throws Exception {
+        SupervisedLocationProvider supervisor = supervisor();
+        mGoogle.last().setState(LocationProvider.STATE_ERROR);
+        mScheduler.advance(PROBE);
+
+        mGoogle.last().emit(fix(1000));
+
+        assertFalse(supervisor.isFailedOver());
+        assertEquals(1, mSources.size());
+    }
+
+    @Test
+    public void stopCancelsProbes() throws Exception {
+        SupervisedLocationProvider supervisor = supervisor();
+        mGoogle.last().setState(LocationProvider.STATE_ERROR);
+
+        supervisor.stop();
+        assertEquals(0, mScheduler.pendingTasks());
+
+        mScheduler.advance(10 * PROBE);
+        assertEquals(1, mGoogle.created.size());
+
+        supervisor.start();
+        assertEquals(1, mScheduler.pendingTasks());
+    }
+
+    @Test
+    public void discardedProbesAndStoppedProvidersAreReleased() throws Exception {
+        SupervisedLocationProvider supervisor = supervisor();
+        mGoogle.last().setState(LocationProvider.STATE_ERROR);
+
+        mScheduler.advance(PROBE);
+        FakeLocationProvider failedProbe = mGoogle.last();
+        failedProbe.setState(LocationProvider.STATE_ERROR);
+        assertEquals(1, failedProbe.releases);
+
+        // a probe which does not answer is released by the next one
+        mScheduler.advance(2 * PROBE);
+        FakeLocationProvider silentProbe = mGoogle.last();
+        mScheduler.advance(4 * PROBE);
+        assertEquals(1, silentProbe.releases);
+
+        FakeLocationProvider pendingProbe = mGoogle.last();
+        supervisor.stop();
+        assertEquals(1, pendingProbe.releases);
+        assertEquals(1, mNative.last().releases);
+    }
+
+    private static class RecordingFactory implements SupervisedLocationProvider.Factory {
+        final List<FakeLocationProvider> created = new ArrayList<>();
+
+        // given by the providers as they are built, like the native one starting in its constructor
+        Location lastKnown;
+
+        @Override
+        public PassiveLocationProvider create() {
+            FakeLocationProvider provider = new FakeLocationProvider();
+            if (lastKnown != null)
+                provider.emit(lastKnown);
+            created.add(provider);
+            return provider;
+        }
+
+        FakeLocationProvider last() {
+            return created.get(created.size() - 1);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class TeleportFilterTest {
+
+    // about 111 meters
+    private static final double DEGREE_100M = 0.001;
+
+    private static Location fix(long time, double latitude) {
+        Location location = Fixes.fix("network", time, 50);
+        location.setLatitude(latitude);
+        location.setLongitude(4.5);
+        return location;
+    }
+
+    @Test
+    public void plausibleFixesAreKept() throws Exception {
+        TeleportFilter filter = new TeleportFilter(50, 3);
+        Location current = fix(0, 50);
+
+        // 111 meters in 10 seconds
+        Location next = fix(10000, 50 + DEGREE_100M);
+        assertSame(next, filter.filter(next, current));
+        assertSame(current, filter.filter(current, null));
+    }
+
+    @Test
+    public void jumpIsRejected() throws Exception {
+        TeleportFilter filter = new TeleportFilter(50, 3);
+        Location current = fix(0, 50);
+
+        // 11 km in 10 seconds
+        assertNull(filter.filter(fix(10000, 50.1), current));
+
+        // simultaneous fixes far apart
+        assertNull(filter.filter(fix(0, 50 + 10 * DEGREE_100M), current));
+    }
+
+    @Test
+    public void consistentJumpsAreAcceptedAfterConfirmations() throws Exception {
+        TeleportFilter filter = new TeleportFilter(50, 3);
+        Location current = fix(0, 50);
+
+        assertNull(filter.filter(fix(10000, 50.1), current));
+        assertNull(filter.filter(fix(20000, 50.1), current));
+
+        Location third = fix(30000, 50.1 + DEGREE_100M);
+        assertSame(third, filter.filter(third, current));
+    }
+
+    @Test
+    public void inconsistentJumpsRestartTheQuarantine() throws Exception {
+        TeleportFilter filter = new TeleportFilter(50, 2);
+        Location current = fix(0, 50);
+
+        assertNull(filter.filter(fix(10000, 50.1), current));
+        // jumps somewhere else
+        assertNull(filter.filter(fix(20000, 49.9), current));
+
+        Location confirmed = fix(30000, 49.9);
+        assertSame(confirmed, filter.filter(confirmed, current));
+    }
+
+    @Test
+    public void plausibleFixClearsTheQuarantine() throws Exception {
+        TeleportFilter filter = new TeleportFilter(50, 2);
+        Location current = fix(0, 50);
+
+        assertNull(filter.filter(fix(10000, 50.1), current));
+        assertNotNull(filter.filter(fix(15000, 50), current));
+        assertNull(filter.filter(fix(20000, 50.1), current));
+    }
+
+    @Test
+    public void jumpsDoNotReachListeners() throws Exception {
+        LocationHandler handler = new LocationHandler(new FakeLocationProvider());
+        handler.addLocationFilter(new TeleportFilter());
+
+        final int[] changes = new int[1];
+        handler.addLocationListener(new LocationHandler.Listener() {
+            @Override
+            public void onLocationChanged(LocationHandler.LocationChangedEvent event) {
+                changes[0]++;
+            }
+
+            @Override
+            public void onLocationError(LocationHandler.LocationErrorEvent event) {
+            }
+        });
+
+        Location home = fix(0, 50);
+        handler.setLocation(home);
+        handler.setLocation(fix(5000, 50.3));
+        handler.setLocation(fix(10000, 50 + DEGREE_100M / 10));
+
+        assertEquals(2, changes[0]);
+        assertNotSame(home, handler.getLocation());
+        assertEquals(50, handler.getLocation().getLatitude(), DEGREE_100M);
+    }
+}
@@ -0,0 +1,182 @@
+package be.webiteasy.android.location;
+
+import android.location.Location;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class UpdateWatchdogTest {
+
+    private final FakeScheduler mScheduler = new FakeScheduler();
+
+    private int mTimeouts = 0;
+
+    private final UpdateWatchdog mWatchdog = new UpdateWatchdog(mScheduler, new Runnable() {
+        @Override
+        public void run() {
+            mTimeouts++;
+        }
+    });
+
+    @Test
+    public void requestExpiresAfterItsBudget() {
+        mWatchdog.setTimeout(10000);
+        mWatchdog.arm();
+
+        mScheduler.advance(9999);
+        assertEquals(0, mTimeouts);
+        assertTrue(mWatchdog.isArmed());
+
+        mScheduler.advance(1);
+        assertEquals(1, mTimeouts);
+        assertFalse(mWatchdog.isArmed());
+
+        mScheduler.advance(60000);
+        assertEquals(1, mTimeouts);
+    }
+
+    @Test
+    public void completedRequestNeverExpires() {
+        mWatchdog.arm();
+        mWatchdog.disarm();
+
+        mScheduler.advance(LocationHandler.DEFAULT_UPDATE_TIMEOUT * 2);
+        assertEquals(0, mTimeouts);
+        assertEquals(0, mScheduler.pendingTasks());
+    }
+
+    @Test
+    public void armingAgainRestartsTheBudget() {
+        mWatchdog.setTimeout(10000);
+        mWatchdog.arm();
+
+        mScheduler.advance(8000);
+        mWatchdog.arm();
+
+        mScheduler.advance(8000);
+        assertEquals(0, mTimeouts);
+
+        mScheduler.advance(2000);
+        assertEquals(1, mTimeouts);
+    }
+
+    @Test
+    public void newBudgetAppliesToTheArmedRequest() {
+        mWatchdog.arm();
+        mWatchdog.setTimeout(1000);
+
+        mScheduler.advance(1000);
+        assertEquals(1, mTimeouts);
+    }
+
+    @Test
+    public void zeroBudgetNeverExpires() {
+        mWatchdog.setTimeout(0);
+        mWatchdog.arm();
+
+        assertFalse(mWatchdog.isArmed());
+        assertEquals(0, mScheduler.pendingTasks());
+    }
+
+    @Test
+    public void lastLocationAtConnectionCompletesThePreConnectionUpdate() {
+        PreConnectionUpdate update = new PreConnectionUpdate(mWatchdog);
+        mWatchdog.setTimeout(10000);
+
+        update.require();
+        assertTrue(mWatchdog.isArmed());
+
+        Location last = new Location("fused");
+        assertFalse(update.onConnected(last));
+
+        assertFalse(mWatchdog.isArmed());
+        mScheduler.advance(10000);
+        assertEquals(0, mTimeouts);
+    }
+
+    @Test
+    public void preConnectionUpdateWithoutLastLocationIsRequested() {
+        PreConnectionUpdate update = new PreConnectionUpdate(mWatchdog);
+
+        update.require();
+
+        assertTrue(update.onConnected(null));
+        assertTrue(mWatchdog.isArmed());
+
+        // only once
+        assertFalse(update.onConnected(null));
+    }
+
+    @Test
+    public void preConnectionUpdateExpiresWithoutConnection() {
+        PreConnectionUpdate update = new PreConnectionUpdate(mWatchdog);
+        mWatchdog.setTimeout(10000);
+
+        update.require();
+        mScheduler.advance(10000);
+
+        assertEquals(1, mTimeouts);
+    }
+
+    @Test
+    public void updatePendingAtSuspensionIsRequestedOnReconnect() {
+        PreConnectionUpdate update = new PreConnectionUpdate(mWatchdog);
+        mWatchdog.setTimeout(10000);
+
+        // the provider stops on suspension, which disarms the pending request
+        mWatchdog.arm();
+        mWatchdog.disarm();
+        update.onSuspended(true);
+
+        assertTrue(mWatchdog.isArmed());
+        assertTrue(update.onConnected(null));
+
+        // the request sent again expires if it gives no fix
+        mScheduler.advance(10000);
+        assertEquals(1, mTimeouts);
+    }
+
+    @Test
+    public void suspensionWithoutPendingUpdateRequiresNothing() {
+        PreConnectionUpdate update = new PreConnectionUpdate(mWatchdog);
+
+        update.onSuspended(false);
+
+        assertFalse(mWatchdog.isArmed());
+        assertFalse(update.onConnected(null));
+    }
+
+    @Test
+    public void timeoutIsReportedAndTheNextRequestRetries() {
+        FakeLocationProvider provider = new FakeLocationProvider();
+        LocationHandler handler = new LocationHandler(provider);
+        final String[] error = new String[1];
+
+        handler.addLocationListener(new LocationHandler.Listener() {
+            @Override
+            public void onLocationChanged(LocationHandler.LocationChangedEvent event) {
+            }
+
+            @Override
+            public void onLocationError(LocationHandler.LocationErrorEvent event) {
+                error[0] = event.getMessage();
+            }
+        });
+
+        handler.setUpdateTimeout(30000);
+        assertEquals(30000, provider.updateTimeout);
+
+        handler.requireUpdate();
+        provider.setState(LocationProvider.STATE_TIMEOUT);
+        assertNotNull(error[0]);
+
+        handler.requireUpdate();
+        assertEquals(2, provider.updateRequests);
+    }
+}